@@ -0,0 +1,248 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.TransactionManager;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+
+/**
+ * A batch of modifications, on many nodes, applied to the cache as a single
+ * unit of work, so it is replicated in one message instead of one per
+ * modification.
+ * 
+ * Modifications are recorded and only applied by {@link #execute()}, using
+ * JBoss Cache invocation batching, if enabled, otherwise a tx, which is
+ * created if there is none. If there is a tx already, the modifications join
+ * it and are replicated when it commits.
+ * 
+ */
+public class CacheBatch {
+
+	private static final Logger logger = Logger.getLogger(CacheBatch.class);
+
+	private static final int PUT = 0;
+	private static final int PUT_ALL = 1;
+	private static final int REMOVE_KEY = 2;
+	private static final int REMOVE_NODE = 3;
+
+	private final MobicentsCache mobicentsCache;
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+
+	private boolean executed;
+
+	CacheBatch(MobicentsCache mobicentsCache) {
+		this.mobicentsCache = mobicentsCache;
+	}
+
+	/**
+	 * Puts the specified key and value in the node with the specified fqn,
+	 * creating the node if needed.
+	 * 
+	 * @param fqn
+	 * @param key
+	 * @param value
+	 * @return this batch
+	 */
+	public CacheBatch put(FqnWrapper fqn, Object key, Object value) {
+		return add(new Operation(PUT, fqn.getFqn(), key, value));
+	}
+
+	/**
+	 * Puts the specified data in the node with the specified fqn, creating
+	 * the node if needed.
+	 * 
+	 * @param fqn
+	 * @param data
+	 * @return this batch
+	 */
+	public CacheBatch putAll(FqnWrapper fqn, Map<?, ?> data) {
+		return add(new Operation(PUT_ALL, fqn.getFqn(), null, data));
+	}
+
+	/**
+	 * Puts the specified data in each node with the specified fqns, creating
+	 * the nodes if needed.
+	 * 
+	 * @param fqns
+	 * @param data
+	 * @return this batch
+	 */
+	public CacheBatch putAll(Iterable<FqnWrapper> fqns, Map<?, ?> data) {
+		for (FqnWrapper fqn : fqns) {
+			putAll(fqn, data);
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the specified key from the node with the specified fqn.
+	 * 
+	 * @param fqn
+	 * @param key
+	 * @return this batch
+	 */
+	public CacheBatch remove(FqnWrapper fqn, Object key) {
+		return add(new Operation(REMOVE_KEY, fqn.getFqn(), key, null));
+	}
+
+	/**
+	 * Removes the node with the specified fqn, and its children.
+	 * 
+	 * @param fqn
+	 * @return this batch
+	 */
+	public CacheBatch removeNode(FqnWrapper fqn) {
+		return add(new Operation(REMOVE_NODE, fqn.getFqn(), null, null));
+	}
+
+	/**
+	 * Removes the nodes with the specified fqns, and their children.
+	 * 
+	 * @param fqns
+	 * @return this batch
+	 */
+	public CacheBatch removeAll(Iterable<FqnWrapper> fqns) {
+		for (FqnWrapper fqn : fqns) {
+			removeNode(fqn);
+		}
+		return this;
+	}
+
+	/**
+	 * Retrieves the number of modifications in the batch.
+	 * @return
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	private CacheBatch add(Operation operation) {
+		if (executed) {
+			throw new IllegalStateException("batch already executed");
+		}
+		operations.add(operation);
+		return this;
+	}
+
+	/**
+	 * Applies all modifications in the batch, as a single unit of work. If a
+	 * modification fails none is applied, unless the batch joined a tx which
+	 * is in progress, in such case the tx is only marked for rollback by the
+	 * cache.
+	 * 
+	 * @throws Exception
+	 *             if a modification fails, or the unit of work can not be
+	 *             committed
+	 */
+	@SuppressWarnings("rawtypes")
+	public void execute() throws Exception {
+		if (executed) {
+			throw new IllegalStateException("batch already executed");
+		}
+		executed = true;
+		if (operations.isEmpty()) {
+			return;
+		}
+		final Cache jBossCache = mobicentsCache.getJBossCache();
+		if (jBossCache.getConfiguration().isInvocationBatchingEnabled()) {
+			boolean success = false;
+			jBossCache.startBatch();
+			try {
+				apply(jBossCache);
+				success = true;
+			}
+			finally {
+				jBossCache.endBatch(success);
+			}
+			return;
+		}
+		final TransactionManager txManager = mobicentsCache.getTxManager();
+		if (txManager == null || txManager.getTransaction() != null) {
+			if (txManager == null && logger.isDebugEnabled()) {
+				logger.debug("No invocation batching nor tx manager, applying " + operations.size() + " modifications individually");
+			}
+			apply(jBossCache);
+			return;
+		}
+		boolean doRollback = true;
+		txManager.begin();
+		try {
+			apply(jBossCache);
+			doRollback = false;
+		}
+		finally {
+			if (doRollback) {
+				txManager.rollback();
+			}
+			else {
+				txManager.commit();
+			}
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void apply(Cache jBossCache) {
+		for (Operation operation : operations) {
+			switch (operation.type) {
+			case PUT:
+				jBossCache.put(operation.fqn, operation.key, operation.value);
+				break;
+			case PUT_ALL:
+				jBossCache.put(operation.fqn, (Map) operation.value);
+				break;
+			case REMOVE_KEY:
+				jBossCache.remove(operation.fqn, operation.key);
+				break;
+			default:
+				jBossCache.removeNode(operation.fqn);
+				break;
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Applied batch of " + operations.size() + " modifications");
+		}
+	}
+
+	private static class Operation {
+
+		private final int type;
+		@SuppressWarnings("rawtypes")
+		private final Fqn fqn;
+		private final Object key;
+		private final Object value;
+
+		@SuppressWarnings("rawtypes")
+		Operation(int type, Fqn fqn, Object key, Object value) {
+			this.type = type;
+			this.fqn = fqn;
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
@@ -26,6 +26,9 @@ import org.apache.log4j.Logger;
 import org.jboss.cache.Fqn;
 import org.jboss.cache.Node;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -63,7 +66,7 @@ public class CacheData {
 	public CacheData(FqnWrapper nodeFqnWrapper, MobicentsCache mobicentsCache) {
 		this.nodeFqn = nodeFqnWrapper.getFqn();
 		this.mobicentsCache = mobicentsCache;
-		this.node = mobicentsCache.getJBossCache().getRoot().getChild(nodeFqn);
+		this.node = mobicentsCache.lookupNode(nodeFqn);
 		if (doTraceLogs) {
 			logger.trace("cache node "+nodeFqn+" retrieved, result = "+this.node);
 		}
@@ -118,6 +121,22 @@ public class CacheData {
 		}
 	}
 	
+	/**
+	 * Asynchronously removes node that holds data in cache, see
+	 * {@link MobicentsCache#removeAsync(FqnWrapper, boolean)}.
+	 * @param asyncReplication
+	 * @return null if the node does not exist or removal was already requested
+	 */
+	public CacheFuture<Boolean> removeAsync(boolean asyncReplication) {
+		if (exists() && !isRemoved()) {
+			isRemoved = true;
+			return mobicentsCache.removeAsync(new FqnWrapper(nodeFqn), asyncReplication);
+		}
+		else {
+			return null;
+		}
+	}
+	
 	/**
 	 * 
 	 * Retrieves the cache {@link Node} which holds the data in cache
@@ -158,15 +177,217 @@ public class CacheData {
 	}
 
 	public Object putNodeValue(Object key, Object value) {
-		return getNode().put(key, value);
+		final ValueCodec codec = mobicentsCache.getValueCodec(nodeFqn);
+		return decode(getNode().put(key, encode(value, codec)), codec);
+	}
+
+	/**
+	 * Puts the specified key and value in the node, as
+	 * {@link #putNodeValue(Object, Object)}, but without decoding the
+	 * previous value.
+	 * @param key
+	 * @param value
+	 */
+	public void setNodeValue(Object key, Object value) {
+		getNode().put(key, encode(value, mobicentsCache.getValueCodec(nodeFqn)));
+	}
+
+	/**
+	 * Asynchronously puts the specified key and value in the node, see
+	 * {@link MobicentsCache#putNodeValueAsync(FqnWrapper, Object, Object, boolean)}.
+	 * @param key
+	 * @param value
+	 * @param asyncReplication
+	 * @return
+	 */
+	public CacheFuture<Object> putNodeValueAsync(Object key, Object value, boolean asyncReplication) {
+		if (isRemoved()) {
+			throw new IllegalStateException();
+		}
+		return mobicentsCache.putNodeValueAsync(new FqnWrapper(nodeFqn), key, value, asyncReplication);
 	}
 
 	public Object getNodeValue(Object key) {
-		return getNode().get(key);
+		final NearCache nearCache = mobicentsCache.getNearCache();
+		if (nearCache != null) {
+			return nearCache.get(getNode(), key);
+		}
+		return decode(getNode().get(key), null);
 	}
 
 	public Object removeNodeValue(Object key) {
-		return getNode().remove(key);
+		return decode(getNode().remove(key), null);
+	}
+
+	/**
+	 * Removes the specified key from the node, as
+	 * {@link #removeNodeValue(Object)}, but without decoding the previous
+	 * value.
+	 * @param key
+	 */
+	public void deleteNodeValue(Object key) {
+		getNode().remove(key);
+	}
+
+	/**
+	 * Puts the specified delta aware value in the node. If the value was
+	 * already stored with the same key, only the fields changed since then are
+	 * written, and replicated, otherwise all fields are. Fields with null value,
+	 * or absent from the value when all fields are written, are removed from
+	 * the node. Field values are encoded with the codec of the node's region,
+	 * if any. The value's delta is committed afterwards.
+	 * 
+	 * @param key
+	 * @param value
+	 */
+	public void putDeltaAwareValue(Object key, DeltaAware value) {
+		putDeltaAwareValue(key, value, false);
+	}
+
+	/**
+	 * Puts the specified delta aware value in the node, see
+	 * {@link #putDeltaAwareValue(Object, DeltaAware)}.
+	 * 
+	 * @param key
+	 * @param value
+	 * @param allFields
+	 *            if true all fields are written, e.g. after a rollback
+	 */
+	@SuppressWarnings("unchecked")
+	public void putDeltaAwareValue(Object key, DeltaAware value, boolean allFields) {
+		final Node node = getNode();
+		final String className = value.getClass().getName();
+		final boolean stored = className.equals(node.get(key));
+		final boolean delta = stored && !allFields;
+		final Map<String, Object> fields = delta ? value.getDelta() : value.getFields();
+		final Map<Object, Object> data = new HashMap<Object, Object>((fields.size() + 1) * 2);
+		final List<Object> removedKeys = new ArrayList<Object>();
+		final ValueCodec codec = mobicentsCache.getValueCodec(nodeFqn);
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			final DeltaFieldKey fieldKey = new DeltaFieldKey(key, field.getKey());
+			if (field.getValue() == null) {
+				removedKeys.add(fieldKey);
+			}
+			else {
+				data.put(fieldKey, encode(field.getValue(), codec));
+			}
+		}
+		if (!delta) {
+			// drop fields stored before, and no longer in the value
+			for (Object dataKey : node.getKeys()) {
+				if (dataKey instanceof DeltaFieldKey && key.equals(((DeltaFieldKey) dataKey).getKey()) && !data.containsKey(dataKey)) {
+					removedKeys.add(dataKey);
+				}
+			}
+		}
+		if (!stored) {
+			// the value's key holds the class name, to rebuild it
+			data.put(key, className);
+		}
+		if (!data.isEmpty()) {
+			node.putAll(data);
+		}
+		for (Object dataKey : removedKeys) {
+			node.remove(dataKey);
+		}
+		if (doTraceLogs) {
+			logger.trace("put " + fields.size() + (stored && !allFields ? " changed" : "") + " fields of delta aware value " + key + " in cache node " + nodeFqn);
+		}
+		value.commitDelta();
+	}
+
+	/**
+	 * Retrieves the delta aware value stored with the specified key, rebuilt
+	 * from its fields.
+	 * 
+	 * @param key
+	 * @return null if there is no delta aware value stored with such key
+	 * @throws IllegalStateException
+	 *             if the value can't be rebuilt
+	 */
+	@SuppressWarnings("unchecked")
+	public DeltaAware getDeltaAwareValue(Object key) {
+		final Map<Object, Object> data = getNode().getData();
+		final Object className = data.get(key);
+		if (!(className instanceof String)) {
+			return null;
+		}
+		final DeltaAware value;
+		try {
+			value = (DeltaAware) Class.forName((String) className, true, mobicentsCache.getClassLoader(nodeFqn)).newInstance();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("unable to rebuild delta aware value " + key + " of class " + className, e);
+		}
+		final Map<String, Object> fields = new HashMap<String, Object>();
+		for (Map.Entry<Object, Object> entry : data.entrySet()) {
+			if (entry.getKey() instanceof DeltaFieldKey) {
+				final DeltaFieldKey fieldKey = (DeltaFieldKey) entry.getKey();
+				if (key.equals(fieldKey.getKey())) {
+					fields.put(fieldKey.getField(), decode(entry.getValue(), null));
+				}
+			}
+		}
+		value.applyFields(fields);
+		value.commitDelta();
+		return value;
+	}
+
+	/**
+	 * Removes the delta aware value stored with the specified key, and all
+	 * its fields.
+	 * 
+	 * @param key
+	 * @return true if the value was stored
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean removeDeltaAwareValue(Object key) {
+		final Node node = getNode();
+		final Map<Object, Object> data = node.getData();
+		if (!(data.get(key) instanceof String)) {
+			return false;
+		}
+		final List<Object> keys = new ArrayList<Object>();
+		for (Object dataKey : data.keySet()) {
+			if (dataKey instanceof DeltaFieldKey && key.equals(((DeltaFieldKey) dataKey).getKey())) {
+				keys.add(dataKey);
+			}
+		}
+		for (Object dataKey : keys) {
+			node.remove(dataKey);
+		}
+		node.remove(key);
+		return true;
+	}
+
+	/**
+	 * Encodes the specified value with the specified codec, if any.
+	 * @param value
+	 * @param codec
+	 *            the codec of the node's region, null if values are stored as
+	 *            is
+	 * @return
+	 */
+	private Object encode(Object value, ValueCodec codec) {
+		return codec != null ? codec.encode(value, mobicentsCache.getClassIdRegistry()) : value;
+	}
+
+	/**
+	 * Decodes the specified value, if it was stored encoded by a
+	 * {@link ValueCodec}.
+	 * @param value
+	 * @param codec
+	 *            the codec of the node's region, null to look it up
+	 * @return
+	 */
+	private Object decode(Object value, ValueCodec codec) {
+		if (!(value instanceof ValueCodec.EncodedValue)) {
+			return value;
+		}
+		if (codec == null) {
+			codec = mobicentsCache.getValueCodec(nodeFqn);
+		}
+		return ValueCodec.decode(value, mobicentsCache.getClassLoader(nodeFqn), codec, mobicentsCache.getClassIdRegistry());
 	}
 
 	public Object addChildNode(FqnWrapper fqnWrapper) {
@@ -177,11 +398,30 @@ public class CacheData {
 	public Object putChildNodeValue(FqnWrapper fqnWrapper, Object key, Object value) {
 		final Node childNode = getNode().getChild(fqnWrapper.getFqn());
 		if (childNode != null) {
-			return childNode.put(key, value);
+			final ValueCodec codec = mobicentsCache.getValueCodec(childNode.getFqn());
+			return decode(childNode.put(key, encode(value, codec)), codec);
 		}
 		return null;
 	}
 
+	/**
+	 * Puts the specified key and value in the child node, as
+	 * {@link #putChildNodeValue(FqnWrapper, Object, Object)}, but without
+	 * decoding the previous value.
+	 * @param fqnWrapper
+	 * @param key
+	 * @param value
+	 * @return false if there is no such child node
+	 */
+	public boolean setChildNodeValue(FqnWrapper fqnWrapper, Object key, Object value) {
+		final Node childNode = getNode().getChild(fqnWrapper.getFqn());
+		if (childNode == null) {
+			return false;
+		}
+		childNode.put(key, encode(value, mobicentsCache.getValueCodec(childNode.getFqn())));
+		return true;
+	}
+
 	public Object getChildNode(String child) {
 		final Node childNode = getNode().getChild(child);
 		return (Object) childNode;
@@ -194,7 +434,11 @@ public class CacheData {
 
 	public Object getChildNodeValue(String child, Object key) {
 		final Node childNode = getNode().getChild(child);
-		return childNode.get(key);
+		final NearCache nearCache = mobicentsCache.getNearCache();
+		if (nearCache != null) {
+			return nearCache.get(childNode, key);
+		}
+		return decode(childNode.get(key), null);
 	}
 
 	public boolean removeChildNode(String child) {
@@ -0,0 +1,93 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.jboss.cache.Fqn;
+
+/**
+ * Writes the content of a cache subtree, node by node, walking it depth first
+ * with {@link SubtreeCursor}s, so a dump of a large cache is streamed instead
+ * of built in memory.
+ * 
+ */
+public class CacheDumpWriter {
+
+	private final MobicentsCache mobicentsCache;
+
+	private final int pageSize;
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param pageSize
+	 *            the number of children read at once, per node
+	 */
+	public CacheDumpWriter(MobicentsCache mobicentsCache, int pageSize) {
+		this.mobicentsCache = mobicentsCache;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Writes the subtree of the node with the specified fqn, one line per
+	 * node, with its fqn, indented by depth, and data.
+	 * 
+	 * @param fqnWrapper
+	 * @param writer
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public void write(FqnWrapper fqnWrapper, Writer writer) throws IOException {
+		final Fqn fqn = fqnWrapper.getFqn();
+		writeNode(fqn, mobicentsCache.getJBossCache().getData(fqn), writer);
+		writeChildren(fqn, writer);
+		writer.flush();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void writeChildren(Fqn fqn, Writer writer) throws IOException {
+		final SubtreeCursor cursor = new SubtreeCursor(mobicentsCache, new FqnWrapper(fqn), pageSize);
+		// a page may be empty if all its children were removed meanwhile
+		while (cursor.hasNext()) {
+			for (Map.Entry<Object, Map<Object, Object>> child : cursor.nextDataPage().entrySet()) {
+				final Fqn childFqn = Fqn.fromRelativeElements(fqn, child.getKey());
+				writeNode(childFqn, child.getValue(), writer);
+				writeChildren(childFqn, writer);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void writeNode(Fqn fqn, Map data, Writer writer) throws IOException {
+		for (int i = 0; i < fqn.size(); i++) {
+			writer.write("  ");
+		}
+		writer.write(fqn.toString());
+		if (data != null && !data.isEmpty()) {
+			writer.write(' ');
+			writer.write(data.toString());
+		}
+		writer.write('\n');
+	}
+}
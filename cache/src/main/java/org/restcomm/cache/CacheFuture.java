@@ -0,0 +1,109 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The pending result of an asynchronous cache operation, which notifies
+ * {@link CacheFutureListener}s on completion, so callers do not need to block
+ * on {@link #get()}.
+ * 
+ * @param <T>
+ *            the result type of the operation
+ */
+public class CacheFuture<T> extends FutureTask<T> {
+
+	private static final Logger logger = Logger.getLogger(CacheFuture.class);
+
+	private List<CacheFutureListener<T>> listeners;
+
+	/**
+	 * 
+	 * @param callable
+	 */
+	public CacheFuture(Callable<T> callable) {
+		super(callable);
+	}
+
+	/**
+	 * Adds a listener to be notified when the operation completes, by the
+	 * thread which completes it, or the calling thread if it is already
+	 * completed.
+	 * 
+	 * @param listener
+	 * @return this future
+	 */
+	public CacheFuture<T> addListener(CacheFutureListener<T> listener) {
+		synchronized (this) {
+			if (!isDone()) {
+				if (listeners == null) {
+					listeners = new ArrayList<CacheFutureListener<T>>(2);
+				}
+				listeners.add(listener);
+				return this;
+			}
+		}
+		notifyListener(listener);
+		return this;
+	}
+
+	@Override
+	protected void done() {
+		final List<CacheFutureListener<T>> listeners;
+		synchronized (this) {
+			listeners = this.listeners;
+			this.listeners = null;
+		}
+		if (listeners != null) {
+			for (CacheFutureListener<T> listener : listeners) {
+				notifyListener(listener);
+			}
+		}
+	}
+
+	private void notifyListener(CacheFutureListener<T> listener) {
+		try {
+			final T result;
+			try {
+				result = get();
+			}
+			catch (ExecutionException e) {
+				listener.operationFailed(e.getCause());
+				return;
+			}
+			catch (Exception e) {
+				listener.operationFailed(e);
+				return;
+			}
+			listener.operationCompleted(result);
+		}
+		catch (Throwable e) {
+			logger.error("Failure in listener of cache operation", e);
+		}
+	}
+}
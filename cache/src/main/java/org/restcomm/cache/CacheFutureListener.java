@@ -0,0 +1,45 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+/**
+ * Listener of the completion of an asynchronous cache operation.
+ * 
+ * @param <T>
+ *            the result type of the operation
+ */
+public interface CacheFutureListener<T> {
+
+	/**
+	 * The operation completed successfully.
+	 * 
+	 * @param result
+	 */
+	public void operationCompleted(T result);
+
+	/**
+	 * The operation failed, or was cancelled.
+	 * 
+	 * @param cause
+	 */
+	public void operationFailed(Throwable cause);
+
+}
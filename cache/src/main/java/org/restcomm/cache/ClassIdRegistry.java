@@ -0,0 +1,264 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A registry of classes of replicated values, each mapped to a compact id,
+ * which replaces the class descriptor, with the full class name, in values
+ * encoded by a {@link ValueCodec}. A class may also have a
+ * {@link ValueExternalizer}, replacing its default serialization.
+ * 
+ * All cluster members must register the same classes with the same ids.
+ * 
+ */
+public class ClassIdRegistry {
+
+	/**
+	 * the max id of a class
+	 */
+	public static final int MAX_ID = Short.MAX_VALUE;
+
+	/**
+	 * written instead of an id, for classes not registered
+	 */
+	private static final short NO_ID = -1;
+
+	private final ConcurrentHashMap<Class<?>, Registration> registrationsByClass = new ConcurrentHashMap<Class<?>, Registration>();
+	private final ConcurrentHashMap<String, Registration> registrationsByClassName = new ConcurrentHashMap<String, Registration>();
+	private final AtomicReferenceArray<Registration> registrationsById = new AtomicReferenceArray<Registration>(MAX_ID + 1);
+
+	private final AtomicLong replacedDescriptors = new AtomicLong(0);
+	private final AtomicLong externalizedValues = new AtomicLong(0);
+
+	/**
+	 * Registers the specified class, with the specified id.
+	 * 
+	 * @param id
+	 * @param clazz
+	 * @throws IllegalArgumentException
+	 *             if the id is invalid or the id or class are already registered
+	 */
+	public void register(int id, Class<?> clazz) {
+		register(id, clazz, null);
+	}
+
+	/**
+	 * Registers the specified class, with the specified id and externalizer.
+	 * 
+	 * @param id
+	 * @param clazz
+	 * @param externalizer
+	 *            null to use the class default serialization
+	 * @throws IllegalArgumentException
+	 *             if the id is invalid or the id or class are already registered
+	 */
+	public synchronized <T> void register(int id, Class<T> clazz, ValueExternalizer<T> externalizer) {
+		if (id < 0 || id > MAX_ID) {
+			throw new IllegalArgumentException("invalid id " + id);
+		}
+		final Registration registered = registrationsById.get(id);
+		if (registered != null) {
+			throw new IllegalArgumentException("id " + id + " already registered for " + registered.clazz.getName());
+		}
+		if (registrationsByClass.containsKey(clazz)) {
+			throw new IllegalArgumentException(clazz.getName() + " already registered");
+		}
+		final Registration registration = new Registration((short) id, clazz, externalizer);
+		registrationsById.set(id, registration);
+		registrationsByClass.put(clazz, registration);
+		registrationsByClassName.put(clazz.getName(), registration);
+	}
+
+	/**
+	 * Retrieves the id of the specified class.
+	 * 
+	 * @param clazz
+	 * @return -1 if the class is not registered
+	 */
+	public int getId(Class<?> clazz) {
+		final Registration registration = registrationsByClass.get(clazz);
+		return registration != null ? registration.id : NO_ID;
+	}
+
+	/**
+	 * Retrieves the class registered with the specified id.
+	 * 
+	 * @param id
+	 * @return null if there is no class registered with such id
+	 */
+	public Class<?> getRegisteredClass(int id) {
+		final Registration registration = getRegistration(id);
+		return registration != null ? registration.clazz : null;
+	}
+
+	/**
+	 * Retrieves the externalizer of the specified class.
+	 * 
+	 * @param clazz
+	 * @return null if the class is not registered, or has no externalizer
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ValueExternalizer<T> getExternalizer(Class<T> clazz) {
+		final Registration registration = registrationsByClass.get(clazz);
+		return registration != null ? (ValueExternalizer<T>) registration.externalizer : null;
+	}
+
+	/**
+	 * Retrieves the externalizer of the class registered with the specified
+	 * id.
+	 * 
+	 * @param id
+	 * @return null if there is no class registered with such id, or it has no
+	 *         externalizer
+	 */
+	public ValueExternalizer<?> getExternalizer(int id) {
+		final Registration registration = getRegistration(id);
+		return registration != null ? registration.externalizer : null;
+	}
+
+	private Registration getRegistration(int id) {
+		if (id < 0 || id > MAX_ID) {
+			return null;
+		}
+		return registrationsById.get(id);
+	}
+
+	void externalized() {
+		externalizedValues.incrementAndGet();
+	}
+
+	/**
+	 * Creates an object output stream which writes ids instead of the
+	 * descriptors of registered classes.
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	public ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException {
+		return new ObjectOutputStream(out) {
+			@Override
+			protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+				final Registration registration = registrationsByClass.get(desc.forClass());
+				if (registration != null) {
+					writeShort(registration.id);
+					replacedDescriptors.incrementAndGet();
+				}
+				else {
+					writeShort(NO_ID);
+					super.writeClassDescriptor(desc);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates an object input stream which reads streams written by
+	 * {@link #newObjectOutputStream(OutputStream)}.
+	 * 
+	 * @param in
+	 * @param classLoader
+	 *            the class loader to resolve classes not registered, may be
+	 *            null
+	 * @return
+	 * @throws IOException
+	 */
+	public ObjectInputStream newObjectInputStream(InputStream in, final ClassLoader classLoader) throws IOException {
+		return new ObjectInputStream(in) {
+			@Override
+			protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+				final short id = readShort();
+				if (id == NO_ID) {
+					return super.readClassDescriptor();
+				}
+				final Class<?> clazz = getRegisteredClass(id);
+				if (clazz == null) {
+					throw new ClassNotFoundException("no class registered with id " + id);
+				}
+				return ObjectStreamClass.lookup(clazz);
+			}
+
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				final Registration registration = registrationsByClassName.get(desc.getName());
+				if (registration != null) {
+					return registration.clazz;
+				}
+				if (classLoader != null) {
+					try {
+						return Class.forName(desc.getName(), false, classLoader);
+					}
+					catch (ClassNotFoundException e) {
+						// fall back to default resolution
+					}
+				}
+				return super.resolveClass(desc);
+			}
+		};
+	}
+
+	/**
+	 * Retrieves the number of class descriptors replaced by ids.
+	 * @return
+	 */
+	public long getReplacedDescriptors() {
+		return replacedDescriptors.get();
+	}
+
+	/**
+	 * Retrieves the number of values written by externalizers.
+	 * @return
+	 */
+	public long getExternalizedValues() {
+		return externalizedValues.get();
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		replacedDescriptors.set(0);
+		externalizedValues.set(0);
+	}
+
+	private static class Registration {
+
+		private final short id;
+		private final Class<?> clazz;
+		private final ValueExternalizer<?> externalizer;
+
+		Registration(short id, Class<?> clazz, ValueExternalizer<?> externalizer) {
+			this.id = id;
+			this.clazz = clazz;
+			this.externalizer = externalizer;
+		}
+	}
+}
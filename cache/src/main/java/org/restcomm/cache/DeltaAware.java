@@ -0,0 +1,66 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.Map;
+
+/**
+ * Contract of a mutable value which tracks its changed fields, so that
+ * {@link CacheData#putDeltaAwareValue(Object, DeltaAware)} only marshalls
+ * and replicates the fields changed since the last put, instead of the
+ * whole value.
+ * 
+ * Implementations must be public and have a public no-arg constructor, used
+ * to rebuild the value from its fields, when retrieved. Field values must be
+ * serializable.
+ * 
+ */
+public interface DeltaAware {
+
+	/**
+	 * Retrieves all fields of the value, by name.
+	 * 
+	 * @return
+	 */
+	public Map<String, Object> getFields();
+
+	/**
+	 * Retrieves the fields changed since the last commit of the delta. A field
+	 * removed from the value is mapped to null.
+	 * 
+	 * @return
+	 */
+	public Map<String, Object> getDelta();
+
+	/**
+	 * Sets the specified fields, when rebuilding the value.
+	 * 
+	 * @param fields
+	 */
+	public void applyFields(Map<String, Object> fields);
+
+	/**
+	 * Forgets the changed fields, once stored in cache. If the tx storing
+	 * these is rolled back, the value must be stored again with all fields.
+	 */
+	public void commitDelta();
+
+}
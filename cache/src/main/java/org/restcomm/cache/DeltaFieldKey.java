@@ -0,0 +1,78 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.io.Serializable;
+
+/**
+ * The key of a field of a {@link DeltaAware} value, in the node's data map.
+ * 
+ */
+public final class DeltaFieldKey implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Object key;
+
+	private final String field;
+
+	/**
+	 * 
+	 * @param key
+	 *            the key of the value
+	 * @param field
+	 *            the name of the field
+	 */
+	public DeltaFieldKey(Object key, String field) {
+		this.key = key;
+		this.field = field;
+	}
+
+	public Object getKey() {
+		return key;
+	}
+
+	public String getField() {
+		return field;
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode() * 31 + field.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj == null || obj.getClass() != getClass()) {
+			return false;
+		}
+		final DeltaFieldKey other = (DeltaFieldKey) obj;
+		return key.equals(other.key) && field.equals(other.field);
+	}
+
+	@Override
+	public String toString() {
+		return key + "#" + field;
+	}
+}
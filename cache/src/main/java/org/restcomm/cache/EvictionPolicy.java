@@ -0,0 +1,173 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import org.jboss.cache.config.EvictionAlgorithmConfig;
+import org.jboss.cache.eviction.EvictionAlgorithmConfigBase;
+import org.jboss.cache.eviction.LFUAlgorithmConfig;
+import org.jboss.cache.eviction.LRUAlgorithmConfig;
+
+/**
+ * An eviction policy of a cache region, see {@link RegionEvictionManager}.
+ * 
+ */
+public class EvictionPolicy {
+
+	/**
+	 * the eviction algorithms
+	 */
+	public enum Algorithm {
+		/**
+		 * least recently used nodes evicted first
+		 */
+		LRU,
+		/**
+		 * least frequently used nodes evicted first
+		 */
+		LFU
+	}
+
+	/**
+	 * value of limits which are not set
+	 */
+	public static final int NO_LIMIT = -1;
+
+	private final Algorithm algorithm;
+	private final int maxNodes;
+	private final int minNodes;
+	private final long idleTime;
+	private final long maxAge;
+	private long minTimeToLive = NO_LIMIT;
+
+	private EvictionPolicy(Algorithm algorithm, int maxNodes, int minNodes, long idleTime, long maxAge) {
+		this.algorithm = algorithm;
+		this.maxNodes = maxNodes;
+		this.minNodes = minNodes;
+		this.idleTime = idleTime;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Creates a LRU policy.
+	 * 
+	 * @param maxNodes
+	 *            the max number of nodes in the region, {@link #NO_LIMIT} for
+	 *            no limit
+	 * @param idleTime
+	 *            the time, in milliseconds, a node may stay unused, {@link #NO_LIMIT} for no limit
+	 * @param maxAge
+	 *            the time, in milliseconds, a node may stay in the region, {@link #NO_LIMIT} for no limit
+	 * @return
+	 */
+	public static EvictionPolicy lru(int maxNodes, long idleTime, long maxAge) {
+		return new EvictionPolicy(Algorithm.LRU, maxNodes, NO_LIMIT, idleTime, maxAge);
+	}
+
+	/**
+	 * Creates a LFU policy.
+	 * 
+	 * @param maxNodes
+	 *            the max number of nodes in the region, {@link #NO_LIMIT} for
+	 *            no limit
+	 * @param minNodes
+	 *            the number of nodes to keep, when evicting, {@link #NO_LIMIT} for no limit
+	 * @return
+	 */
+	public static EvictionPolicy lfu(int maxNodes, int minNodes) {
+		return new EvictionPolicy(Algorithm.LFU, maxNodes, minNodes, NO_LIMIT, NO_LIMIT);
+	}
+
+	/**
+	 * Creates a policy which only expires nodes unused for the specified
+	 * time.
+	 * 
+	 * @param idleTime
+	 *            the time, in milliseconds, a node may stay unused
+	 * @return
+	 */
+	public static EvictionPolicy idleExpiration(long idleTime) {
+		return lru(NO_LIMIT, idleTime, NO_LIMIT);
+	}
+
+	/**
+	 * Sets the min time, in milliseconds, a node stays in the region, even if
+	 * it is a candidate for eviction.
+	 * 
+	 * @param minTimeToLive
+	 * @return this policy
+	 */
+	public EvictionPolicy withMinTimeToLive(long minTimeToLive) {
+		this.minTimeToLive = minTimeToLive;
+		return this;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	public int getMinNodes() {
+		return minNodes;
+	}
+
+	public long getIdleTime() {
+		return idleTime;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public long getMinTimeToLive() {
+		return minTimeToLive;
+	}
+
+	/**
+	 * Builds the JBoss Cache configuration of the policy's algorithm.
+	 * @return
+	 */
+	EvictionAlgorithmConfig toAlgorithmConfig() {
+		final EvictionAlgorithmConfigBase config;
+		if (algorithm == Algorithm.LFU) {
+			final LFUAlgorithmConfig lfuConfig = new LFUAlgorithmConfig();
+			lfuConfig.setMinNodes(minNodes);
+			config = lfuConfig;
+		}
+		else {
+			final LRUAlgorithmConfig lruConfig = new LRUAlgorithmConfig();
+			lruConfig.setTimeToLive(idleTime);
+			lruConfig.setMaxAge(maxAge);
+			config = lruConfig;
+		}
+		config.setMaxNodes(maxNodes);
+		config.setMinTimeToLive(minTimeToLive);
+		return config;
+	}
+
+	@Override
+	public String toString() {
+		return "EvictionPolicy[algorithm=" + algorithm + ", maxNodes=" + maxNodes + ", minNodes=" + minNodes + ", idleTime="
+				+ idleTime + ", maxAge=" + maxAge + ", minTimeToLive=" + minTimeToLive + "]";
+	}
+}
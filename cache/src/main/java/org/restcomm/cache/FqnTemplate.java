@@ -0,0 +1,98 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import org.jboss.cache.Fqn;
+
+/**
+ * A precompiled template of child fqns of an interned base fqn, which builds
+ * them from the child name, without string parsing nor intermediate
+ * wrappers. The resulting {@link Fqn}s cache their hash code, as usual.
+ * 
+ */
+public class FqnTemplate {
+
+	private final Fqn base;
+
+	private final FqnWrapper baseWrapper;
+
+	/**
+	 * 
+	 * @param base
+	 */
+	@SuppressWarnings("rawtypes")
+	public FqnTemplate(Fqn base) {
+		this.baseWrapper = FqnWrapper.internWrapper(base);
+		this.base = baseWrapper.getFqn();
+	}
+
+	/**
+	 * Retrieves the interned base fqn.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Fqn getBase() {
+		return base;
+	}
+
+	/**
+	 * Retrieves the interned wrapper of the base fqn.
+	 * @return
+	 */
+	public FqnWrapper getBaseWrapper() {
+		return baseWrapper;
+	}
+
+	/**
+	 * Builds the fqn of the child with the specified name.
+	 * @param childName
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Fqn child(Object childName) {
+		return Fqn.fromRelativeElements(base, childName);
+	}
+
+	/**
+	 * Builds the wrapper of the fqn of the child with the specified name.
+	 * @param childName
+	 * @return
+	 */
+	public FqnWrapper childWrapper(Object childName) {
+		return new FqnWrapper(child(childName));
+	}
+
+	/**
+	 * Builds the fqn of the base relative to the specified prefix, e.g. the
+	 * base in a buddy backup subtree.
+	 * @param prefix
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Fqn relativeTo(Fqn prefix) {
+		return Fqn.fromRelativeFqn(prefix, base);
+	}
+
+	@Override
+	public String toString() {
+		return "FqnTemplate[" + base + "]";
+	}
+}
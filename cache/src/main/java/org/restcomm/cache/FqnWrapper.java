@@ -1,9 +1,16 @@
 package org.restcomm.cache;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.jboss.cache.Fqn;
 
 public class FqnWrapper {
 
+    /**
+     * the interned fqns, and their wrappers
+     */
+    private static final ConcurrentHashMap<Fqn, FqnWrapper> interned = new ConcurrentHashMap<Fqn, FqnWrapper>();
+
     private Fqn fqn;
 
     public FqnWrapper(Fqn fqn) {
@@ -26,8 +33,64 @@ public class FqnWrapper {
         return new FqnWrapper(Fqn.fromRelativeElements(base.getFqn(), relativeElements));
     }
 
+    public static FqnWrapper fromRelativeElementsWrapper(Fqn base, Object... relativeElements) {
+        return new FqnWrapper(Fqn.fromRelativeElements(base, relativeElements));
+    }
+
     public static FqnWrapper fromElementsWrapper(Object... elements) {
         return new FqnWrapper(Fqn.fromElements(elements));
     }
 
+    /**
+     * Retrieves the canonical instance of the specified fqn. Meant for long
+     * lived fqns, such as the base fqns of data, since interned fqns are
+     * never released.
+     * 
+     * @param fqn
+     * @return
+     */
+    public static Fqn intern(Fqn fqn) {
+        return internWrapper(fqn).fqn;
+    }
+
+    /**
+     * Retrieves the canonical wrapper of the specified fqn, see
+     * {@link #intern(Fqn)}.
+     * 
+     * @param fqn
+     * @return
+     */
+    public static FqnWrapper internWrapper(Fqn fqn) {
+        FqnWrapper wrapper = interned.get(fqn);
+        if (wrapper == null) {
+            final FqnWrapper newWrapper = new FqnWrapper(fqn);
+            wrapper = interned.putIfAbsent(fqn, newWrapper);
+            if (wrapper == null) {
+                wrapper = newWrapper;
+            }
+        }
+        return wrapper;
+    }
+
+    @Override
+    public int hashCode() {
+        return fqn.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        return fqn.equals(((FqnWrapper) obj).fqn);
+    }
+
+    @Override
+    public String toString() {
+        return fqn.toString();
+    }
+
 }
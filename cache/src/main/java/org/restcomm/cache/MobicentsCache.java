@@ -32,7 +32,16 @@ import org.jboss.cache.Node;
 import org.jboss.cache.Region;
 import org.jboss.cache.config.Configuration;
 import org.jboss.cache.config.Configuration.CacheMode;
-import org.jboss.cache.util.CachePrinter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.TransactionManager;
 
@@ -50,6 +59,26 @@ public class MobicentsCache {
 	private final Cache jBossCache;
 	private boolean localMode;
 	private final boolean managedCache;
+	private volatile NearCache nearCache;
+	private volatile NodeHandleCache nodeHandleCache;
+	
+	/**
+	 * the codecs of node values, per region fqn
+	 */
+	@SuppressWarnings("rawtypes")
+	private final ConcurrentHashMap<Fqn, ValueCodec> valueCodecs = new ConcurrentHashMap<Fqn, ValueCodec>();
+	private volatile ClassIdRegistry classIdRegistry;
+	private volatile RegionEvictionManager regionEvictionManager;
+	
+	/**
+	 * the number of threads of the executor of async operations
+	 */
+	private int ioThreads = 4;
+	
+	/**
+	 * the executor of async operations, created on first use
+	 */
+	private ExecutorService ioExecutor;
 
 	@SuppressWarnings("rawtypes")
 	public MobicentsCache(Configuration cacheConfiguration) {
@@ -129,6 +158,51 @@ public class MobicentsCache {
 	public void evict(FqnWrapper fqnWrapper) {
 		jBossCache.evict(fqnWrapper.getFqn());
 	}
+	
+	/**
+	 * Retrieves the manager of the regions eviction policies.
+	 * @return null if policies are not managed at runtime
+	 */
+	public RegionEvictionManager getRegionEvictionManager() {
+		return regionEvictionManager;
+	}
+	
+	/**
+	 * Sets the manager of the regions eviction policies, replacing the
+	 * current one, if any. The policies set in the previous manager stay in
+	 * the cache, but are no longer processed nor accounted.
+	 * @param regionEvictionManager
+	 *            null to not manage policies at runtime
+	 */
+	public synchronized void setRegionEvictionManager(RegionEvictionManager regionEvictionManager) {
+		final RegionEvictionManager previous = this.regionEvictionManager;
+		if (previous != null) {
+			previous.stop();
+			jBossCache.removeCacheListener(previous);
+			this.regionEvictionManager = null;
+		}
+		if (regionEvictionManager != null) {
+			jBossCache.addCacheListener(regionEvictionManager);
+			regionEvictionManager.start();
+			this.regionEvictionManager = regionEvictionManager;
+		}
+	}
+	
+	/**
+	 * Sets the eviction policy of the region with the specified fqn, see
+	 * {@link RegionEvictionManager#setPolicy(FqnWrapper, EvictionPolicy)}.
+	 * @param regionFqn
+	 * @param policy
+	 * @throws IllegalStateException
+	 *             if there is no region eviction manager
+	 */
+	public void setEvictionPolicy(FqnWrapper regionFqn, EvictionPolicy policy) throws IllegalStateException {
+		final RegionEvictionManager regionEvictionManager = this.regionEvictionManager;
+		if (regionEvictionManager == null) {
+			throw new IllegalStateException("no region eviction manager set");
+		}
+		regionEvictionManager.setPolicy(regionFqn, policy);
+	}
 
 	public void registerClassLoader(ClassLoader serializationClassLoader, FqnWrapper fqnWrapper) {
 		Region region = jBossCache.getRegion(fqnWrapper.getFqn(),true);
@@ -143,15 +217,24 @@ public class MobicentsCache {
 
 	public Object putCacheNodeValue(FqnWrapper fqn, Object key, Object value) {
 		Node n = jBossCache.getNode(fqn.getFqn());
-		return n.put(key, value);
+		return decode(fqn.getFqn(), n.put(key, encode(fqn.getFqn(), value)));
 	}
 
 	public Object getCacheNodeValue(FqnWrapper fqn, Object key) {
 		Node n = jBossCache.getNode(fqn.getFqn());
-		return n.get(key);
+		return decode(fqn.getFqn(), n.get(key));
 	}
 	
 	public void stopCache() {
+		synchronized (this) {
+			if (regionEvictionManager != null) {
+				regionEvictionManager.stop();
+			}
+			if (ioExecutor != null) {
+				ioExecutor.shutdown();
+				ioExecutor = null;
+			}
+		}
 		if (!managedCache) {
 			if (logger.isInfoEnabled()) {
 				logger.info("Mobicents Cache stopping...");
@@ -232,12 +315,328 @@ public class MobicentsCache {
 		unsetReplicationClassLoader(Fqn.ROOT,classLoader);
 	}
 	
+	/**
+	 * Retrieves the number of threads which execute async operations.
+	 * @return
+	 */
+	public synchronized int getIOThreads() {
+		return ioThreads;
+	}
+	
+	/**
+	 * Sets the number of threads which execute async operations, only
+	 * effective before the first async operation.
+	 * @param ioThreads
+	 */
+	public synchronized void setIOThreads(int ioThreads) {
+		if (ioThreads <= 0) {
+			throw new IllegalArgumentException("io threads must be positive");
+		}
+		this.ioThreads = ioThreads;
+	}
+	
+	private synchronized ExecutorService getIOExecutor() {
+		if (ioExecutor == null) {
+			ioExecutor = Executors.newFixedThreadPool(ioThreads, new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger(1);
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "MobicentsCache-IO-" + threadNumber.getAndIncrement());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return ioExecutor;
+	}
+	
+	/**
+	 * Submits an operation to the executor of async operations. The
+	 * operation runs outside of any tx of the caller, and if allowed, with
+	 * async replication, so its completion does not wait for other members.
+	 * @param operation
+	 * @param asyncReplication
+	 * @return
+	 */
+	private <T> CacheFuture<T> submit(final Callable<T> operation, final boolean asyncReplication) {
+		final CacheFuture<T> future = new CacheFuture<T>(new Callable<T>() {
+			public T call() throws Exception {
+				if (asyncReplication && !localMode) {
+					jBossCache.getInvocationContext().getOptionOverrides().setForceAsynchronous(true);
+				}
+				return operation.call();
+			}
+		});
+		getIOExecutor().execute(future);
+		return future;
+	}
+	
+	/**
+	 * Asynchronously puts the specified key and value in the node with the
+	 * specified fqn, creating the node if needed.
+	 * @param fqn
+	 * @param key
+	 * @param value
+	 * @param asyncReplication
+	 *            if true the modification is replicated asynchronously
+	 * @return the future previous value
+	 */
+	public CacheFuture<Object> putNodeValueAsync(final FqnWrapper fqn, final Object key, final Object value, boolean asyncReplication) {
+		return submit(new Callable<Object>() {
+			@SuppressWarnings("unchecked")
+			public Object call() throws Exception {
+				return decode(fqn.getFqn(), jBossCache.put(fqn.getFqn(), key, encode(fqn.getFqn(), value)));
+			}
+		}, asyncReplication);
+	}
+	
+	/**
+	 * Asynchronously removes the node with the specified fqn.
+	 * @param fqn
+	 * @param asyncReplication
+	 *            if true the modification is replicated asynchronously
+	 * @return the future indication of the node removal
+	 */
+	public CacheFuture<Boolean> removeAsync(final FqnWrapper fqn, boolean asyncReplication) {
+		return submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return Boolean.valueOf(jBossCache.removeNode(fqn.getFqn()));
+			}
+		}, asyncReplication);
+	}
+	
+	/**
+	 * Asynchronously creates the node with the specified fqn, if it does not
+	 * exist.
+	 * @param fqn
+	 * @param asyncReplication
+	 *            if true the modification is replicated asynchronously
+	 * @return the future indication of the node creation
+	 */
+	public CacheFuture<Boolean> createAsync(final FqnWrapper fqn, boolean asyncReplication) {
+		return submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				final Node root = jBossCache.getRoot();
+				if (root.hasChild(fqn.getFqn())) {
+					return Boolean.FALSE;
+				}
+				root.addChild(fqn.getFqn());
+				return Boolean.TRUE;
+			}
+		}, asyncReplication);
+	}
+	
+	/**
+	 * Sets the codec of the values of nodes in the specified region, i.e.,
+	 * the node with the specified fqn and its descendants, unless these are
+	 * in a region with another codec.
+	 * @param regionFqn
+	 * @param codec
+	 */
+	@SuppressWarnings("rawtypes")
+	public void setValueCodec(Fqn regionFqn, ValueCodec codec) {
+		valueCodecs.put(regionFqn, codec);
+	}
+	
+	/**
+	 * Removes the codec of the values of nodes in the specified region. Values
+	 * already encoded are still decoded.
+	 * @param regionFqn
+	 * @return the codec removed, null if there was none
+	 */
+	@SuppressWarnings("rawtypes")
+	public ValueCodec removeValueCodec(Fqn regionFqn) {
+		return valueCodecs.remove(regionFqn);
+	}
+	
+	/**
+	 * Encodes the specified value of the node with the specified fqn, with
+	 * the codec of its region, if any.
+	 * @param fqn
+	 * @param value
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	private Object encode(Fqn fqn, Object value) {
+		final ValueCodec codec = getValueCodec(fqn);
+		return codec != null ? codec.encode(value, classIdRegistry) : value;
+	}
+	
+	/**
+	 * Decodes the specified value of the node with the specified fqn, if it
+	 * was stored encoded.
+	 * @param fqn
+	 * @param value
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	private Object decode(Fqn fqn, Object value) {
+		if (!(value instanceof ValueCodec.EncodedValue)) {
+			return value;
+		}
+		return ValueCodec.decode(value, getClassLoader(fqn), getValueCodec(fqn), classIdRegistry);
+	}
+	
+	/**
+	 * Retrieves the codec of the values of the node with the specified fqn,
+	 * from the closest region with a codec.
+	 * @param fqn
+	 * @return null if values are stored as is
+	 */
+	@SuppressWarnings("rawtypes")
+	public ValueCodec getValueCodec(Fqn fqn) {
+		if (valueCodecs.isEmpty()) {
+			return null;
+		}
+		for (Fqn regionFqn = fqn; regionFqn != null; regionFqn = regionFqn.isRoot() ? null : regionFqn.getParent()) {
+			final ValueCodec codec = valueCodecs.get(regionFqn);
+			if (codec != null) {
+				return codec;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Retrieves the registry of class ids, used by the codecs of node values.
+	 * @return null if codecs write full class descriptors
+	 */
+	public ClassIdRegistry getClassIdRegistry() {
+		return classIdRegistry;
+	}
+	
+	/**
+	 * Sets the registry of class ids, used by the codecs of node values. All
+	 * members must use registries with same classes and ids, and values
+	 * encoded with a registry can only be decoded with it.
+	 * @param classIdRegistry
+	 */
+	public void setClassIdRegistry(ClassIdRegistry classIdRegistry) {
+		this.classIdRegistry = classIdRegistry;
+	}
+	
+	/**
+	 * Retrieves the class loader to resolve classes of values of the node
+	 * with the specified fqn, the one of the node's region, if any, otherwise
+	 * the thread context class loader.
+	 * @param fqn
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public ClassLoader getClassLoader(Fqn fqn) {
+		ClassLoader classLoader = null;
+		if (!localMode) {
+			final Region region = jBossCache.getRegion(fqn, false);
+			if (region != null) {
+				classLoader = region.getClassLoader();
+			}
+		}
+		if (classLoader == null) {
+			classLoader = Thread.currentThread().getContextClassLoader();
+		}
+		return classLoader != null ? classLoader : MobicentsCache.class.getClassLoader();
+	}
+	
+	/**
+	 * Creates a batch of modifications, on many nodes, to be applied as a
+	 * single unit of work, see {@link CacheBatch}.
+	 * @return
+	 */
+	public CacheBatch batch() {
+		return new CacheBatch(this);
+	}
+	
+	/**
+	 * Retrieves the near cache which serves repeat reads of node values.
+	 * @return null if node values are always read from the JBoss Cache
+	 */
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+	
+	/**
+	 * Sets the near cache which serves repeat reads of node values, replacing
+	 * the current one, if any.
+	 * @param nearCache
+	 *            null to read node values always from the JBoss Cache
+	 */
+	public synchronized void setNearCache(NearCache nearCache) {
+		final NearCache previous = this.nearCache;
+		if (previous != null) {
+			jBossCache.removeCacheListener(previous);
+			this.nearCache = null;
+		}
+		if (nearCache != null) {
+			nearCache.clear();
+			jBossCache.addCacheListener(nearCache);
+			this.nearCache = nearCache;
+		}
+	}
+	
+	/**
+	 * Retrieves the cache of node handles, used to look up nodes.
+	 * @return null if nodes are always looked up in the JBoss Cache tree
+	 */
+	public NodeHandleCache getNodeHandleCache() {
+		return nodeHandleCache;
+	}
+	
+	/**
+	 * Sets the cache of node handles, used to look up nodes, replacing the
+	 * current one, if any.
+	 * @param nodeHandleCache
+	 *            null to look up nodes always in the JBoss Cache tree
+	 */
+	public synchronized void setNodeHandleCache(NodeHandleCache nodeHandleCache) {
+		final NodeHandleCache previous = this.nodeHandleCache;
+		if (previous != null) {
+			jBossCache.removeCacheListener(previous);
+			this.nodeHandleCache = null;
+		}
+		if (nodeHandleCache != null) {
+			nodeHandleCache.clear();
+			jBossCache.addCacheListener(nodeHandleCache);
+			this.nodeHandleCache = nodeHandleCache;
+		}
+	}
+	
+	/**
+	 * Looks up the node with the specified fqn, using the cache of node
+	 * handles, if set.
+	 * @param fqn
+	 * @return null if the node does not exist
+	 */
+	@SuppressWarnings("rawtypes")
+	public Node lookupNode(Fqn fqn) {
+		final NodeHandleCache nodeHandleCache = this.nodeHandleCache;
+		if (nodeHandleCache != null) {
+			return nodeHandleCache.getNode(fqn);
+		}
+		return jBossCache.getRoot().getChild(fqn);
+	}
+	
 	/**
 	 * Retrieves the cache content as a string.
 	 * @return
 	 */
 	public String getCacheContent() {
-		return "Mobicents Cache: " 
-		+ "\n+-- Content:\n" + CachePrinter.printCacheDetails(jBossCache);
+		final StringWriter writer = new StringWriter();
+		writer.write("Mobicents Cache: \n+-- Content:\n");
+		try {
+			writeCacheContent(writer);
+		}
+		catch (IOException e) {
+			// not expected with a string writer
+			logger.error(e.getMessage(), e);
+		}
+		return writer.toString();
+	}
+	
+	/**
+	 * Writes the cache content, node by node, without building it in memory.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeCacheContent(Writer writer) throws IOException {
+		new CacheDumpWriter(this, SubtreeCursor.DEFAULT_PAGE_SIZE).write(new FqnWrapper(Fqn.ROOT), writer);
 	}
 }
@@ -0,0 +1,436 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Transaction;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Node;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeEvicted;
+import org.jboss.cache.notifications.annotation.NodeInvalidated;
+import org.jboss.cache.notifications.annotation.NodeModified;
+import org.jboss.cache.notifications.annotation.NodeRemoved;
+import org.jboss.cache.notifications.annotation.TransactionCompleted;
+import org.jboss.cache.notifications.event.NodeEvent;
+import org.jboss.cache.notifications.event.TransactionCompletedEvent;
+
+/**
+ * A bounded, local, read through cache of node values, in front of the JBoss
+ * Cache, which serves repeat reads without going through the interceptor
+ * chain, or gravitating data from other members.
+ * 
+ * Cached nodes are invalidated when the JBoss Cache notifies that the node was
+ * modified, removed, evicted or invalidated, and again when the tx which
+ * modified it completes. Only the removal of a node also invalidates its
+ * child nodes. Values are not cached while read by a tx which modified the
+ * node, since those may not be committed, and the least recently used nodes
+ * are evicted when the max size is exceeded. Values stored encoded by a
+ * {@link ValueCodec} are cached decoded, thus decoded once per invalidation,
+ * not on every read.
+ * 
+ * Nodes are spread by fqn over independently locked segments, each with its
+ * own share of the max size, so reads and invalidations of different nodes
+ * seldom contend.
+ * 
+ */
+@CacheListener(sync = true)
+public class NearCache {
+
+	private static final Logger logger = Logger.getLogger(NearCache.class);
+
+	/**
+	 * the value cached for keys not in the node
+	 */
+	private static final Object NULL_VALUE = new Object();
+
+	/**
+	 * the number of segments
+	 */
+	private static final int SEGMENTS = 16;
+
+	private final MobicentsCache mobicentsCache;
+
+	@SuppressWarnings("rawtypes")
+	private final Cache jBossCache;
+
+	/**
+	 * the max number of nodes cached
+	 */
+	private final int maxSize;
+
+	/**
+	 * the segments of the nodes cached
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * the fqns modified by each tx in progress, mapped to true if the node
+	 * was removed
+	 */
+	@SuppressWarnings("rawtypes")
+	private final ConcurrentHashMap<Transaction, Map<Fqn, Boolean>> txModifications = new ConcurrentHashMap<Transaction, Map<Fqn, Boolean>>();
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong invalidations = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param maxSize
+	 *            the max number of nodes cached
+	 */
+	public NearCache(MobicentsCache mobicentsCache, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("max size must be positive");
+		}
+		this.mobicentsCache = mobicentsCache;
+		this.jBossCache = mobicentsCache.getJBossCache();
+		this.maxSize = maxSize;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			// the max size is spread over the segments, rounding up
+			segments[i] = new Segment((maxSize + SEGMENTS - 1) / SEGMENTS);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Segment getSegment(Fqn fqn) {
+		int h = fqn.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	/**
+	 * Retrieves the value for the specified key, from the near cache, or from
+	 * the specified node, caching it decoded.
+	 * 
+	 * @param node
+	 * @param key
+	 * @return the decoded value
+	 * @throws IllegalStateException
+	 *             if the value can't be decoded
+	 */
+	@SuppressWarnings("rawtypes")
+	public Object get(Node node, Object key) {
+		final Fqn fqn = node.getFqn();
+		final Segment segment = getSegment(fqn);
+		final long generation = segment.generation.get();
+		final Object cached = segment.get(fqn, key);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached == NULL_VALUE ? null : cached;
+		}
+		misses.incrementAndGet();
+		Object value = node.get(key);
+		if (value instanceof ValueCodec.EncodedValue) {
+			value = ValueCodec.decode(value, mobicentsCache.getClassLoader(fqn), mobicentsCache.getValueCodec(fqn),
+					mobicentsCache.getClassIdRegistry());
+		}
+		if (!isModifiedByCurrentTx(fqn)) {
+			segment.put(fqn, key, value == null ? NULL_VALUE : value, generation);
+		}
+		return value;
+	}
+
+	/**
+	 * Invalidates the values cached for the specified fqn.
+	 * 
+	 * @param fqn
+	 */
+	@SuppressWarnings("rawtypes")
+	public void invalidate(Fqn fqn) {
+		getSegment(fqn).invalidate(fqn);
+	}
+
+	/**
+	 * Invalidates the values cached for the specified fqn, and its child
+	 * nodes, sweeping all segments.
+	 * 
+	 * @param fqn
+	 */
+	@SuppressWarnings("rawtypes")
+	public void invalidateSubtree(Fqn fqn) {
+		for (Segment segment : segments) {
+			segment.invalidateSubtree(fqn);
+		}
+	}
+
+	/**
+	 * Invalidates all values cached.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private boolean isModifiedByCurrentTx(Fqn fqn) {
+		if (txModifications.isEmpty()) {
+			return false;
+		}
+		final Transaction tx = jBossCache.getInvocationContext().getTransaction();
+		if (tx == null) {
+			return false;
+		}
+		final Map<Fqn, Boolean> modifications = txModifications.get(tx);
+		if (modifications == null) {
+			return false;
+		}
+		synchronized (modifications) {
+			return modifications.containsKey(fqn);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void nodeChanged(NodeEvent event, boolean removed) {
+		final Fqn fqn = event.getFqn();
+		if (event.isOriginLocal()) {
+			final Transaction tx = event.getTransaction();
+			if (tx != null) {
+				Map<Fqn, Boolean> modifications = txModifications.get(tx);
+				if (modifications == null) {
+					final Map<Fqn, Boolean> newModifications = new HashMap<Fqn, Boolean>();
+					modifications = txModifications.putIfAbsent(tx, newModifications);
+					if (modifications == null) {
+						modifications = newModifications;
+					}
+				}
+				synchronized (modifications) {
+					if (removed || !modifications.containsKey(fqn)) {
+						modifications.put(fqn, Boolean.valueOf(removed));
+					}
+				}
+			}
+		}
+		if (removed) {
+			invalidateSubtree(fqn);
+		}
+		else {
+			invalidate(fqn);
+		}
+	}
+
+	@NodeModified
+	public void onNodeModified(NodeEvent event) {
+		nodeChanged(event, false);
+	}
+
+	@NodeRemoved
+	public void onNodeRemoved(NodeEvent event) {
+		nodeChanged(event, true);
+	}
+
+	@NodeEvicted
+	public void onNodeEvicted(NodeEvent event) {
+		invalidate(event.getFqn());
+	}
+
+	@NodeInvalidated
+	public void onNodeInvalidated(NodeEvent event) {
+		invalidate(event.getFqn());
+	}
+
+	@SuppressWarnings("rawtypes")
+	@TransactionCompleted
+	public void onTransactionCompleted(TransactionCompletedEvent event) {
+		final Map<Fqn, Boolean> modifications = txModifications.remove(event.getTransaction());
+		if (modifications != null) {
+			// values read by other txs before completion may be stale, or never committed
+			synchronized (modifications) {
+				for (Map.Entry<Fqn, Boolean> modification : modifications.entrySet()) {
+					if (modification.getValue().booleanValue()) {
+						invalidateSubtree(modification.getKey());
+					}
+					else {
+						invalidate(modification.getKey());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the max number of nodes cached.
+	 * @return
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Retrieves the number of nodes cached.
+	 * @return
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Retrieves the number of reads served by the near cache.
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Retrieves the number of reads which went to the JBoss Cache.
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Retrieves the ratio of reads served by the near cache.
+	 * @return
+	 */
+	public double getHitRatio() {
+		final long hits = this.hits.get();
+		final long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Retrieves the number of nodes invalidated.
+	 * @return
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Retrieves the number of nodes evicted, due to the max size.
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		invalidations.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "NearCache[size=" + getSize() + ", maxSize=" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", invalidations=" + invalidations + ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * A segment of the near cache, with its own lock, generation and LRU
+	 * order.
+	 */
+	@SuppressWarnings("rawtypes")
+	private class Segment {
+
+		/**
+		 * the values cached, per node fqn, in access order
+		 */
+		private final LinkedHashMap<Fqn, Map<Object, Object>> nodes;
+
+		/**
+		 * increased on each invalidation of the segment, a value read is only
+		 * cached if no invalidation happened since the read started
+		 */
+		private final AtomicLong generation = new AtomicLong(0);
+
+		Segment(final int maxSize) {
+			this.nodes = new LinkedHashMap<Fqn, Map<Object, Object>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Fqn, Map<Object, Object>> eldest) {
+					if (size() > maxSize) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized Object get(Fqn fqn, Object key) {
+			final Map<Object, Object> values = nodes.get(fqn);
+			return values != null ? values.get(key) : null;
+		}
+
+		synchronized void put(Fqn fqn, Object key, Object value, long generation) {
+			if (this.generation.get() == generation) {
+				Map<Object, Object> values = nodes.get(fqn);
+				if (values == null) {
+					values = new HashMap<Object, Object>();
+					nodes.put(fqn, values);
+				}
+				values.put(key, value);
+			}
+		}
+
+		synchronized void invalidate(Fqn fqn) {
+			generation.incrementAndGet();
+			if (nodes.remove(fqn) != null) {
+				invalidations.incrementAndGet();
+			}
+		}
+
+		synchronized void invalidateSubtree(Fqn fqn) {
+			generation.incrementAndGet();
+			for (Iterator<Fqn> it = nodes.keySet().iterator(); it.hasNext();) {
+				final Fqn cached = it.next();
+				if (cached.equals(fqn) || cached.isDescendantOf(fqn)) {
+					it.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+		}
+
+		synchronized void clear() {
+			generation.incrementAndGet();
+			nodes.clear();
+		}
+
+		synchronized int size() {
+			return nodes.size();
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Transaction;
+
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Node;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeCreated;
+import org.jboss.cache.notifications.annotation.NodeEvicted;
+import org.jboss.cache.notifications.annotation.NodeRemoved;
+import org.jboss.cache.notifications.annotation.TransactionCompleted;
+import org.jboss.cache.notifications.event.NodeEvent;
+import org.jboss.cache.notifications.event.TransactionCompletedEvent;
+
+/**
+ * A concurrent cache of JBoss Cache {@link Node} handles, per fqn, which
+ * avoids walking the tree from the root each time a {@link CacheData} is
+ * created.
+ * 
+ * Handles are removed when the JBoss Cache notifies that the node was removed
+ * or evicted, and are validated on each retrieval, thus a handle of a node
+ * removed together with its parent is not used. Handles of nodes created by a
+ * tx are not cached until it completes, and no handles are cached with buddy
+ * replication, where lookups may need to gravitate data.
+ * 
+ */
+@CacheListener(sync = true)
+public class NodeHandleCache {
+
+	@SuppressWarnings("rawtypes")
+	private final Cache jBossCache;
+
+	/**
+	 * the max number of handles cached
+	 */
+	private final int maxSize;
+
+	/**
+	 * if false all lookups go to the JBoss Cache
+	 */
+	private final boolean enabled;
+
+	@SuppressWarnings("rawtypes")
+	private final ConcurrentHashMap<Fqn, Node> handles = new ConcurrentHashMap<Fqn, Node>();
+
+	/**
+	 * the fqns created by each tx in progress
+	 */
+	@SuppressWarnings("rawtypes")
+	private final Map<Transaction, Set<Fqn>> txCreations = new HashMap<Transaction, Set<Fqn>>();
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param maxSize
+	 *            the max number of handles cached
+	 */
+	public NodeHandleCache(MobicentsCache mobicentsCache, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("max size must be positive");
+		}
+		this.jBossCache = mobicentsCache.getJBossCache();
+		this.maxSize = maxSize;
+		this.enabled = !mobicentsCache.isBuddyReplicationEnabled();
+	}
+
+	/**
+	 * Retrieves the node with the specified fqn, from the cached handles, or
+	 * from the JBoss Cache, caching its handle.
+	 * 
+	 * @param fqn
+	 * @return null if the node does not exist
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Node getNode(Fqn fqn) {
+		if (!enabled) {
+			return jBossCache.getRoot().getChild(fqn);
+		}
+		final Node handle = handles.get(fqn);
+		if (handle != null) {
+			if (handle.isValid()) {
+				hits.incrementAndGet();
+				return handle;
+			}
+			handles.remove(fqn, handle);
+		}
+		misses.incrementAndGet();
+		final Node node = jBossCache.getRoot().getChild(fqn);
+		if (node != null && !isCreatedByCurrentTx(fqn)) {
+			if (handles.size() >= maxSize) {
+				// handles are cheap to get again, no need to track usage
+				handles.clear();
+			}
+			handles.put(fqn, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Removes the handle of the node with the specified fqn.
+	 * 
+	 * @param fqn
+	 */
+	@SuppressWarnings("rawtypes")
+	public void invalidate(Fqn fqn) {
+		handles.remove(fqn);
+	}
+
+	/**
+	 * Removes all handles.
+	 */
+	public void clear() {
+		handles.clear();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private boolean isCreatedByCurrentTx(Fqn fqn) {
+		final Transaction tx = jBossCache.getInvocationContext().getTransaction();
+		if (tx == null) {
+			return false;
+		}
+		synchronized (txCreations) {
+			final Set<Fqn> creations = txCreations.get(tx);
+			return creations != null && creations.contains(fqn);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@NodeCreated
+	public void onNodeCreated(NodeEvent event) {
+		if (!enabled || !event.isOriginLocal()) {
+			return;
+		}
+		final Transaction tx = event.getTransaction();
+		if (tx != null) {
+			synchronized (txCreations) {
+				Set<Fqn> creations = txCreations.get(tx);
+				if (creations == null) {
+					creations = new HashSet<Fqn>();
+					txCreations.put(tx, creations);
+				}
+				creations.add(event.getFqn());
+			}
+		}
+	}
+
+	@NodeRemoved
+	public void onNodeRemoved(NodeEvent event) {
+		invalidate(event.getFqn());
+	}
+
+	@NodeEvicted
+	public void onNodeEvicted(NodeEvent event) {
+		invalidate(event.getFqn());
+	}
+
+	@SuppressWarnings("rawtypes")
+	@TransactionCompleted
+	public void onTransactionCompleted(TransactionCompletedEvent event) {
+		final Set<Fqn> creations;
+		synchronized (txCreations) {
+			creations = txCreations.remove(event.getTransaction());
+		}
+		if (creations != null && !event.isSuccessful()) {
+			for (Fqn fqn : creations) {
+				invalidate(fqn);
+			}
+		}
+	}
+
+	/**
+	 * Indicates if handles are cached, which is not the case with buddy
+	 * replication.
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Retrieves the max number of handles cached.
+	 * @return
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Retrieves the number of handles cached.
+	 * @return
+	 */
+	public int getSize() {
+		return handles.size();
+	}
+
+	/**
+	 * Retrieves the number of lookups served by a cached handle.
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Retrieves the number of lookups which walked the JBoss Cache tree.
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "NodeHandleCache[enabled=" + enabled + ", size=" + getSize() + ", maxSize=" + maxSize + ", hits=" + hits
+				+ ", misses=" + misses + "]";
+	}
+}
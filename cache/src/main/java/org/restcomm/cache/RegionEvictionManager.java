@@ -0,0 +1,289 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Region;
+import org.jboss.cache.config.EvictionRegionConfig;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeEvicted;
+import org.jboss.cache.notifications.event.NodeEvent;
+
+/**
+ * Manages eviction policies of cache regions at runtime, without
+ * reconfiguring the cache, counting the nodes evicted from each region and
+ * notifying {@link RegionEvictionListener}s.
+ * 
+ * The cache must be configured with eviction, even if with no regions, since
+ * only then it tracks node usage for eviction. The eviction queues of the
+ * managed regions are processed periodically by the manager, unless the
+ * wakeup interval is 0, in such case it is left to the cache's eviction
+ * timer.
+ * 
+ */
+@CacheListener(sync = true)
+public class RegionEvictionManager {
+
+	private static final Logger logger = Logger.getLogger(RegionEvictionManager.class);
+
+	@SuppressWarnings("rawtypes")
+	private final Cache jBossCache;
+
+	/**
+	 * the period, in milliseconds, to process the eviction queues
+	 */
+	private final long wakeupInterval;
+
+	/**
+	 * the managed regions, per fqn
+	 */
+	@SuppressWarnings("rawtypes")
+	private final ConcurrentHashMap<Fqn, ManagedRegion> regions = new ConcurrentHashMap<Fqn, ManagedRegion>();
+
+	private final CopyOnWriteArrayList<RegionEvictionListener> listeners = new CopyOnWriteArrayList<RegionEvictionListener>();
+
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param wakeupInterval
+	 *            the period, in milliseconds, to process the eviction queues
+	 *            of managed regions, 0 to leave it to the cache
+	 * @throws IllegalStateException
+	 *             if the cache is not configured with eviction
+	 */
+	public RegionEvictionManager(MobicentsCache mobicentsCache, long wakeupInterval) throws IllegalStateException {
+		if (wakeupInterval < 0) {
+			throw new IllegalArgumentException("wakeup interval must not be negative");
+		}
+		this.jBossCache = mobicentsCache.getJBossCache();
+		if (jBossCache.getConfiguration().getEvictionConfig() == null) {
+			throw new IllegalStateException("cache not configured with eviction, unable to evict regions at runtime");
+		}
+		this.wakeupInterval = wakeupInterval;
+	}
+
+	synchronized void start() {
+		if (wakeupInterval > 0 && executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "MobicentsCache-Eviction");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					processEvictionQueues();
+				}
+			}, wakeupInterval, wakeupInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Sets the eviction policy of the region with the specified fqn, creating
+	 * the region if needed, or replacing its current policy.
+	 * 
+	 * @param regionFqn
+	 * @param policy
+	 */
+	@SuppressWarnings("rawtypes")
+	public void setPolicy(FqnWrapper regionFqn, EvictionPolicy policy) {
+		final Fqn fqn = regionFqn.getFqn();
+		final Region region = jBossCache.getRegion(fqn, true);
+		region.setEvictionRegionConfig(new EvictionRegionConfig(fqn, policy.toAlgorithmConfig()));
+		final ManagedRegion managedRegion = new ManagedRegion(region, policy);
+		final ManagedRegion previous = regions.get(fqn);
+		if (previous != null) {
+			// keep accounting the region evictions
+			managedRegion.evictions.set(previous.evictions.get());
+		}
+		regions.put(fqn, managedRegion);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Set " + policy + " for region " + fqn);
+		}
+	}
+
+	/**
+	 * Removes the eviction policy of the region with the specified fqn, which
+	 * is left without limits, since the cache can not remove only the eviction
+	 * of a region.
+	 * 
+	 * @param regionFqn
+	 * @return the policy removed, null if there was none
+	 */
+	@SuppressWarnings("rawtypes")
+	public EvictionPolicy removePolicy(FqnWrapper regionFqn) {
+		final Fqn fqn = regionFqn.getFqn();
+		final ManagedRegion managedRegion = regions.remove(fqn);
+		if (managedRegion == null) {
+			return null;
+		}
+		final EvictionPolicy unlimited = EvictionPolicy.lru(EvictionPolicy.NO_LIMIT, EvictionPolicy.NO_LIMIT, EvictionPolicy.NO_LIMIT);
+		managedRegion.region.setEvictionRegionConfig(new EvictionRegionConfig(fqn, unlimited.toAlgorithmConfig()));
+		return managedRegion.policy;
+	}
+
+	/**
+	 * Retrieves the eviction policy of the region with the specified fqn.
+	 * 
+	 * @param regionFqn
+	 * @return null if the region has no policy set by the manager
+	 */
+	public EvictionPolicy getPolicy(FqnWrapper regionFqn) {
+		final ManagedRegion managedRegion = regions.get(regionFqn.getFqn());
+		return managedRegion != null ? managedRegion.policy : null;
+	}
+
+	/**
+	 * Processes the eviction queues of all managed regions, evicting nodes
+	 * per their policies.
+	 */
+	public void processEvictionQueues() {
+		for (ManagedRegion managedRegion : regions.values()) {
+			try {
+				managedRegion.region.processEvictionQueues();
+			}
+			catch (Throwable e) {
+				logger.error("Failed to process eviction queue of region " + managedRegion.region.getFqn(), e);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@NodeEvicted
+	public void onNodeEvicted(NodeEvent event) {
+		if (event.isPre() || regions.isEmpty()) {
+			return;
+		}
+		final Fqn fqn = event.getFqn();
+		for (Fqn regionFqn = fqn; regionFqn != null; regionFqn = regionFqn.isRoot() ? null : regionFqn.getParent()) {
+			final ManagedRegion managedRegion = regions.get(regionFqn);
+			if (managedRegion != null) {
+				managedRegion.evictions.incrementAndGet();
+				evictions.incrementAndGet();
+				if (!listeners.isEmpty()) {
+					final FqnWrapper regionFqnWrapper = new FqnWrapper(regionFqn);
+					final FqnWrapper nodeFqnWrapper = new FqnWrapper(fqn);
+					for (RegionEvictionListener listener : listeners) {
+						try {
+							listener.nodeEvicted(regionFqnWrapper, nodeFqnWrapper);
+						}
+						catch (Throwable e) {
+							logger.error("Failure in region eviction listener", e);
+						}
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener of nodes evicted from managed regions.
+	 * @param listener
+	 */
+	public void addListener(RegionEvictionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener of nodes evicted from managed regions.
+	 * @param listener
+	 */
+	public void removeListener(RegionEvictionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Retrieves the period, in milliseconds, to process the eviction queues.
+	 * @return
+	 */
+	public long getWakeupInterval() {
+		return wakeupInterval;
+	}
+
+	/**
+	 * Retrieves the number of nodes evicted from the region with the
+	 * specified fqn.
+	 * @param regionFqn
+	 * @return 0 if the region has no policy set by the manager
+	 */
+	public long getEvictions(FqnWrapper regionFqn) {
+		final ManagedRegion managedRegion = regions.get(regionFqn.getFqn());
+		return managedRegion != null ? managedRegion.evictions.get() : 0;
+	}
+
+	/**
+	 * Retrieves the number of nodes evicted from all managed regions.
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		evictions.set(0);
+		for (ManagedRegion managedRegion : regions.values()) {
+			managedRegion.evictions.set(0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RegionEvictionManager[regions=" + regions.size() + ", wakeupInterval=" + wakeupInterval + ", evictions=" + evictions + "]";
+	}
+
+	private static class ManagedRegion {
+
+		private final Region region;
+		private final EvictionPolicy policy;
+		private final AtomicLong evictions = new AtomicLong(0);
+
+		ManagedRegion(Region region, EvictionPolicy policy) {
+			this.region = region;
+			this.policy = policy;
+		}
+	}
+}
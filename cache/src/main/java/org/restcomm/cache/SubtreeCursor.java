@@ -0,0 +1,228 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.jboss.cache.Cache;
+import org.jboss.cache.CacheSPI;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Node;
+import org.jboss.cache.NodeSPI;
+
+/**
+ * A cursor over the children of a cache node, which streams their names, and
+ * optionally data, in pages, instead of materializing the whole children set.
+ * 
+ * Out of a tx, the cursor walks the node's live children map, thus it is
+ * weakly consistent: children added or removed while iterating may or may not
+ * be returned, and it bypasses locking and gravitation, so callers must check
+ * that each child still exists before using it. Within a tx, or if the cache
+ * does not expose its nodes, the live map would also bypass tx isolation, so
+ * the cursor pages a snapshot of the children names, read through the cache
+ * instead.
+ * 
+ */
+public class SubtreeCursor implements Iterator<Object> {
+
+	/**
+	 * the page size, if not specified
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	@SuppressWarnings("rawtypes")
+	private final Cache jBossCache;
+
+	@SuppressWarnings("rawtypes")
+	private final Fqn fqn;
+
+	private final int pageSize;
+
+	/**
+	 * the iterator of the children names, null if the node does not exist
+	 */
+	private final Iterator<?> childrenNames;
+
+	/**
+	 * the names of the current page not returned yet by {@link #next()}
+	 */
+	private Iterator<Object> page = Collections.emptyList().iterator();
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param fqnWrapper
+	 *            the fqn of the node which children are iterated
+	 * @param pageSize
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public SubtreeCursor(MobicentsCache mobicentsCache, FqnWrapper fqnWrapper, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be positive");
+		}
+		this.jBossCache = mobicentsCache.getJBossCache();
+		this.fqn = fqnWrapper.getFqn();
+		this.pageSize = pageSize;
+		if (isDirectAccessAllowed(jBossCache)) {
+			final NodeSPI node = ((CacheSPI) jBossCache).peek(fqn, false);
+			final Map childrenMap = node != null ? node.getChildrenMapDirect() : null;
+			childrenNames = childrenMap != null ? childrenMap.keySet().iterator() : null;
+		}
+		else {
+			final Node node = jBossCache.getNode(fqn);
+			childrenNames = node != null ? node.getChildrenNames().iterator() : null;
+		}
+	}
+
+	/**
+	 * 
+	 * @param mobicentsCache
+	 * @param fqnWrapper
+	 *            the fqn of the node which children are iterated
+	 */
+	public SubtreeCursor(MobicentsCache mobicentsCache, FqnWrapper fqnWrapper) {
+		this(mobicentsCache, fqnWrapper, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Retrieves the fqn of the node which children are iterated.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Fqn getFqn() {
+		return fqn;
+	}
+
+	/**
+	 * Retrieves the page size.
+	 * @return
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public boolean hasNext() {
+		return page.hasNext() || (childrenNames != null && childrenNames.hasNext());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	public Object next() {
+		if (!page.hasNext()) {
+			page = nextPage().iterator();
+			if (!page.hasNext()) {
+				throw new NoSuchElementException();
+			}
+		}
+		return page.next();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Retrieves the names of the next page of children, including those of
+	 * the current page not returned by {@link #next()} yet.
+	 * @return an empty list if there are no more children
+	 */
+	public List<Object> nextPage() {
+		final List<Object> names = new ArrayList<Object>(pageSize);
+		while (page.hasNext() && names.size() < pageSize) {
+			names.add(page.next());
+		}
+		if (childrenNames != null) {
+			while (childrenNames.hasNext() && names.size() < pageSize) {
+				names.add(childrenNames.next());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Retrieves the next page of children, with their data, see
+	 * {@link #nextPage()}. Children removed meanwhile are skipped, thus the
+	 * page may be empty while there are more children, use {@link #hasNext()}
+	 * to detect the end.
+	 * @return the data of each child, by name, an empty map if there are no
+	 *         more children, or all children of the page were removed
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Map<Object, Map<Object, Object>> nextDataPage() {
+		final List<Object> names = nextPage();
+		final Map<Object, Map<Object, Object>> result = new LinkedHashMap<Object, Map<Object, Object>>(names.size() * 2);
+		for (Object name : names) {
+			final Node child = jBossCache.getNode(Fqn.fromRelativeElements(fqn, name));
+			if (child != null) {
+				result.put(name, child.getData());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the children of the node with the specified fqn, without
+	 * materializing their names, if the cache exposes its nodes and there is
+	 * no tx, see {@link SubtreeCursor}.
+	 * @param mobicentsCache
+	 * @param fqnWrapper
+	 * @return 0 if the node does not exist
+	 */
+	@SuppressWarnings("rawtypes")
+	public static int countChildren(MobicentsCache mobicentsCache, FqnWrapper fqnWrapper) {
+		final Cache jBossCache = mobicentsCache.getJBossCache();
+		if (isDirectAccessAllowed(jBossCache)) {
+			final NodeSPI node = ((CacheSPI) jBossCache).peek(fqnWrapper.getFqn(), false);
+			final Map childrenMap = node != null ? node.getChildrenMapDirect() : null;
+			return childrenMap != null ? childrenMap.size() : 0;
+		}
+		final Node node = jBossCache.getNode(fqnWrapper.getFqn());
+		return node != null ? node.getChildrenNames().size() : 0;
+	}
+
+	/**
+	 * Indicates if the nodes of the specified cache may be accessed directly,
+	 * i.e., the cache exposes its nodes and there is no tx, which the direct
+	 * access would not be isolated from.
+	 * @param jBossCache
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	private static boolean isDirectAccessAllowed(Cache jBossCache) {
+		return jBossCache instanceof CacheSPI && jBossCache.getInvocationContext().getTransaction() == null;
+	}
+}
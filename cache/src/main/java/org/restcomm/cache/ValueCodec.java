@@ -0,0 +1,544 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Encodes values of cache nodes in a region, compressing with {@link Deflater}
+ * those which marshalled size reaches a threshold. Smaller values, or values
+ * which don't compress, are stored as is. Compressed values are stored as
+ * {@link EncodedValue}s, which first byte is the codec marker, thus these are
+ * always decoded correctly, even if the region's codec changes. If the cache
+ * has a {@link ClassIdRegistry}, registered classes are written as ids, or by
+ * their externalizers.
+ * 
+ */
+public class ValueCodec {
+
+	private static final Logger logger = Logger.getLogger(ValueCodec.class);
+
+	/**
+	 * codec marker of a value marshalled, not compressed
+	 */
+	static final byte CODEC_MARSHALLED = 0;
+
+	/**
+	 * codec marker flag of a value deflated
+	 */
+	static final byte CODEC_DEFLATED = 1;
+
+	/**
+	 * codec marker flag of a value written by the externalizer of its class
+	 */
+	static final byte CODEC_EXTERNALIZED = 2;
+
+	/**
+	 * codec marker flag of a value marshalled with the ids of registered classes
+	 */
+	static final byte CODEC_CLASS_IDS = 4;
+
+	private static final byte CODEC_FLAGS = CODEC_DEFLATED | CODEC_EXTERNALIZED | CODEC_CLASS_IDS;
+
+	/**
+	 * the min marshalled size, in bytes, of the values to compress
+	 */
+	private final int threshold;
+
+	/**
+	 * the deflater compression level
+	 */
+	private final int level;
+
+	private final AtomicLong encodedValues = new AtomicLong(0);
+	private final AtomicLong encodedBytes = new AtomicLong(0);
+	private final AtomicLong compressedValues = new AtomicLong(0);
+	private final AtomicLong uncompressedBytes = new AtomicLong(0);
+	private final AtomicLong compressedBytes = new AtomicLong(0);
+	private final AtomicLong compressionTime = new AtomicLong(0);
+	private final AtomicLong decompressedValues = new AtomicLong(0);
+	private final AtomicLong decompressionTime = new AtomicLong(0);
+
+	/**
+	 * 
+	 * @param threshold
+	 *            the min marshalled size, in bytes, of the values to compress
+	 * @param level
+	 *            the compression level, from {@link Deflater#BEST_SPEED} to
+	 *            {@link Deflater#BEST_COMPRESSION}
+	 */
+	public ValueCodec(int threshold, int level) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold must not be negative");
+		}
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level " + level);
+		}
+		this.threshold = threshold;
+		this.level = level;
+	}
+
+	/**
+	 * Encodes the specified value.
+	 * 
+	 * @param value
+	 * @return the encoded value, or the value itself if it is null, already
+	 *         encoded, below the threshold, not compressible, or can't be
+	 *         marshalled
+	 */
+	public Object encode(Object value) {
+		return encode(value, null);
+	}
+
+	/**
+	 * Encodes the specified value, replacing the descriptors of classes
+	 * registered in the specified registry by their ids, and using the
+	 * externalizer of the value's class, if any.
+	 * 
+	 * @param value
+	 * @param registry
+	 *            may be null
+	 * @return the encoded value, or the value itself if it is null, already
+	 *         encoded, below the threshold, not compressible, or can't be
+	 *         marshalled
+	 */
+	public Object encode(Object value, ClassIdRegistry registry) {
+		if (value == null || value instanceof EncodedValue || isBelowThreshold(value)) {
+			return value;
+		}
+		final byte[] marshalled;
+		try {
+			marshalled = marshallBytes(value, registry);
+		}
+		catch (IOException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Unable to marshall value of class " + value.getClass().getName() + ", storing it as is", e);
+			}
+			return value;
+		}
+		encodedValues.incrementAndGet();
+		final EncodedValue compressed = compress(value, marshalled);
+		if (compressed == null) {
+			encodedBytes.addAndGet(marshalled.length - 1);
+			return value;
+		}
+		return compressed;
+	}
+
+	/**
+	 * Encodes the specified value, as {@link #encode(Object, ClassIdRegistry)},
+	 * but always as an {@link EncodedValue}, even if it is not compressed, so
+	 * replicas hold bytes, and the value is only unmarshalled when decoded.
+	 * 
+	 * @param value
+	 * @param registry
+	 *            may be null
+	 * @return
+	 * @throws IOException
+	 *             if the value can't be marshalled
+	 */
+	public EncodedValue encodeMarshalled(Object value, ClassIdRegistry registry) throws IOException {
+		final byte[] marshalled = marshallBytes(value, registry);
+		encodedValues.incrementAndGet();
+		final EncodedValue compressed = compress(value, marshalled);
+		if (compressed == null) {
+			encodedBytes.addAndGet(marshalled.length);
+			return new EncodedValue(marshalled);
+		}
+		return compressed;
+	}
+
+	/**
+	 * Marshalls the specified value as an {@link EncodedValue}, not
+	 * compressed, for regions without codec.
+	 * 
+	 * @param value
+	 * @param registry
+	 *            may be null
+	 * @return
+	 * @throws IOException
+	 *             if the value can't be marshalled
+	 */
+	public static EncodedValue marshall(Object value, ClassIdRegistry registry) throws IOException {
+		return new EncodedValue(marshallBytes(value, registry));
+	}
+
+	/**
+	 * Marshalls the specified value, prefixed by the codec marker.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static byte[] marshallBytes(Object value, ClassIdRegistry registry) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+		final ObjectOutputStream oos;
+		if (registry != null) {
+			final ValueExternalizer externalizer = registry.getExternalizer(value.getClass());
+			if (externalizer != null) {
+				baos.write(CODEC_CLASS_IDS | CODEC_EXTERNALIZED);
+				oos = registry.newObjectOutputStream(baos);
+				oos.writeShort(registry.getId(value.getClass()));
+				externalizer.writeExternal(value, oos);
+				registry.externalized();
+			}
+			else {
+				baos.write(CODEC_CLASS_IDS);
+				oos = registry.newObjectOutputStream(baos);
+				oos.writeObject(value);
+			}
+		}
+		else {
+			baos.write(CODEC_MARSHALLED);
+			oos = new ObjectOutputStream(baos);
+			oos.writeObject(value);
+		}
+		oos.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Compresses the specified marshalled value, if its size reaches the
+	 * threshold.
+	 * 
+	 * @param value
+	 * @param marshalled
+	 * @return null if below the threshold or not compressible
+	 */
+	private EncodedValue compress(Object value, byte[] marshalled) {
+		final int size = marshalled.length - 1;
+		if (size < threshold) {
+			return null;
+		}
+		final long start = System.nanoTime();
+		final Deflater deflater = new Deflater(level);
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(size / 2 + 16);
+			baos.write(marshalled[0] | CODEC_DEFLATED);
+			final DeflaterOutputStream dos = new DeflaterOutputStream(baos, deflater);
+			dos.write(marshalled, 1, size);
+			dos.close();
+			final byte[] compressed = baos.toByteArray();
+			compressionTime.addAndGet(System.nanoTime() - start);
+			if (compressed.length >= marshalled.length) {
+				// not compressible
+				return null;
+			}
+			encodedBytes.addAndGet(compressed.length);
+			compressedValues.incrementAndGet();
+			uncompressedBytes.addAndGet(size);
+			compressedBytes.addAndGet(compressed.length - 1);
+			return new EncodedValue(compressed);
+		}
+		catch (IOException e) {
+			// not expected with in memory streams
+			logger.error("Unable to compress value of class " + value.getClass().getName(), e);
+			return null;
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Indicates if the specified value is known to be below the threshold,
+	 * without marshalling it.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private boolean isBelowThreshold(Object value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof Double || value instanceof Float || value instanceof Boolean || value instanceof Character) {
+			// a marshalled primitive wrapper takes less than 128 bytes
+			return threshold >= 128;
+		}
+		if (value instanceof String) {
+			// modified utf-8 takes at most 3 bytes per char
+			return ((String) value).length() * 3 + 16 < threshold;
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length + 32 < threshold;
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes the specified value, if it is an {@link EncodedValue}.
+	 * 
+	 * @param value
+	 * @param classLoader
+	 *            the class loader to resolve classes of the decoded value
+	 * @param codec
+	 *            the codec to account decompression statistics, may be null
+	 * @return
+	 * @throws IllegalStateException
+	 *             if the value can't be decoded
+	 */
+	public static Object decode(Object value, ClassLoader classLoader, ValueCodec codec) {
+		return decode(value, classLoader, codec, null);
+	}
+
+	/**
+	 * Decodes the specified value, if it is an {@link EncodedValue}.
+	 * 
+	 * @param value
+	 * @param classLoader
+	 *            the class loader to resolve classes of the decoded value
+	 * @param codec
+	 *            the codec to account decompression statistics, may be null
+	 * @param registry
+	 *            the registry of the classes ids, required if the value was
+	 *            encoded with one
+	 * @return
+	 * @throws IllegalStateException
+	 *             if the value can't be decoded
+	 */
+	public static Object decode(Object value, final ClassLoader classLoader, ValueCodec codec, ClassIdRegistry registry) {
+		if (!(value instanceof EncodedValue)) {
+			return value;
+		}
+		final byte[] bytes = ((EncodedValue) value).getBytes();
+		final long start = System.nanoTime();
+		try {
+			final byte codecMarker = bytes[0];
+			if ((codecMarker & ~CODEC_FLAGS) != 0) {
+				throw new IllegalStateException("unknown codec " + codecMarker);
+			}
+			InputStream is = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+			final boolean deflated = (codecMarker & CODEC_DEFLATED) != 0;
+			if (deflated) {
+				is = new InflaterInputStream(is);
+			}
+			if ((codecMarker & CODEC_CLASS_IDS) != 0) {
+				if (registry == null) {
+					throw new IllegalStateException("value encoded with class ids, but there is no class id registry");
+				}
+				final ObjectInputStream ois = registry.newObjectInputStream(is, classLoader);
+				try {
+					if ((codecMarker & CODEC_EXTERNALIZED) != 0) {
+						final short id = ois.readShort();
+						final ValueExternalizer<?> externalizer = registry.getExternalizer(id);
+						if (externalizer == null) {
+							throw new IllegalStateException("no externalizer registered with class id " + id);
+						}
+						return externalizer.readExternal(ois);
+					}
+					return ois.readObject();
+				}
+				finally {
+					ois.close();
+					if (deflated && codec != null) {
+						codec.decompressedValues.incrementAndGet();
+						codec.decompressionTime.addAndGet(System.nanoTime() - start);
+					}
+				}
+			}
+			final ObjectInputStream ois = new ObjectInputStream(is) {
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+					if (classLoader != null) {
+						try {
+							return Class.forName(desc.getName(), false, classLoader);
+						}
+						catch (ClassNotFoundException e) {
+							// fall back to default resolution
+						}
+					}
+					return super.resolveClass(desc);
+				}
+			};
+			try {
+				return ois.readObject();
+			}
+			finally {
+				ois.close();
+				if (deflated && codec != null) {
+					codec.decompressedValues.incrementAndGet();
+					codec.decompressionTime.addAndGet(System.nanoTime() - start);
+				}
+			}
+		}
+		catch (IllegalStateException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Unable to decode value", e);
+		}
+	}
+
+	/**
+	 * Retrieves the min marshalled size, in bytes, of the values to compress.
+	 * @return
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Retrieves the compression level.
+	 * @return
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Retrieves the number of values marshalled to be encoded, compressed or
+	 * not.
+	 * @return
+	 */
+	public long getEncodedValues() {
+		return encodedValues.get();
+	}
+
+	/**
+	 * Retrieves the size, in bytes, of the values marshalled to be encoded,
+	 * after compression, if any.
+	 * @return
+	 */
+	public long getEncodedBytes() {
+		return encodedBytes.get();
+	}
+
+	/**
+	 * Retrieves the mean size, in bytes, of the values encoded.
+	 * @return 0 if no values were encoded
+	 */
+	public double getMeanEncodedSize() {
+		final long values = encodedValues.get();
+		return values == 0 ? 0 : (double) encodedBytes.get() / values;
+	}
+
+	/**
+	 * Retrieves the number of values compressed.
+	 * @return
+	 */
+	public long getCompressedValues() {
+		return compressedValues.get();
+	}
+
+	/**
+	 * Retrieves the marshalled size, in bytes, of the values compressed.
+	 * @return
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	/**
+	 * Retrieves the compressed size, in bytes, of the values compressed.
+	 * @return
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	/**
+	 * Retrieves the ratio between the compressed and marshalled sizes of the
+	 * values compressed.
+	 * @return 1 if no values were compressed
+	 */
+	public double getCompressionRatio() {
+		final long uncompressed = uncompressedBytes.get();
+		return uncompressed == 0 ? 1 : (double) compressedBytes.get() / uncompressed;
+	}
+
+	/**
+	 * Retrieves the time, in nanoseconds, spent compressing values.
+	 * @return
+	 */
+	public long getCompressionTime() {
+		return compressionTime.get();
+	}
+
+	/**
+	 * Retrieves the number of values decompressed.
+	 * @return
+	 */
+	public long getDecompressedValues() {
+		return decompressedValues.get();
+	}
+
+	/**
+	 * Retrieves the time, in nanoseconds, spent decompressing values.
+	 * @return
+	 */
+	public long getDecompressionTime() {
+		return decompressionTime.get();
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		encodedValues.set(0);
+		encodedBytes.set(0);
+		compressedValues.set(0);
+		uncompressedBytes.set(0);
+		compressedBytes.set(0);
+		compressionTime.set(0);
+		decompressedValues.set(0);
+		decompressionTime.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "ValueCodec[threshold=" + threshold + ", level=" + level + ", encoded=" + encodedValues + ", compressed="
+				+ compressedValues + ", ratio=" + getCompressionRatio() + "]";
+	}
+
+	/**
+	 * A value stored encoded, the first byte is the codec marker.
+	 */
+	public static final class EncodedValue implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] bytes;
+
+		EncodedValue(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Retrieves the size, in bytes, of the encoded value.
+		 * @return
+		 */
+		public int getSize() {
+			return bytes.length;
+		}
+	}
+}
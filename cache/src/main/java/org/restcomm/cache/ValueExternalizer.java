@@ -0,0 +1,55 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Writes and reads values of a class registered in a {@link ClassIdRegistry},
+ * replacing its default serialization, when encoded by a {@link ValueCodec}.
+ * 
+ * @param <T>
+ *            the class of the values
+ */
+public interface ValueExternalizer<T> {
+
+	/**
+	 * Writes the specified value.
+	 * 
+	 * @param value
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeExternal(T value, ObjectOutput out) throws IOException;
+
+	/**
+	 * Reads a value.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public T readExternal(ObjectInput in) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,138 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.config.Configuration;
+import org.jboss.cache.config.Configuration.CacheMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the invalidation of {@link NearCache} values, and the isolation of
+ * values read in a tx.
+ * 
+ */
+public class NearCacheTest {
+
+	private MobicentsCache mobicentsCache;
+
+	private NearCache nearCache;
+
+	@Before
+	public void setUp() {
+		final Configuration configuration = new Configuration();
+		configuration.setCacheMode(CacheMode.LOCAL);
+		configuration.setInvocationBatchingEnabled(true);
+		mobicentsCache = new MobicentsCache(configuration);
+		mobicentsCache.startCache();
+		nearCache = new NearCache(mobicentsCache, 100);
+		mobicentsCache.setNearCache(nearCache);
+	}
+
+	@After
+	public void tearDown() {
+		mobicentsCache.setNearCache(null);
+		mobicentsCache.stopCache();
+	}
+
+	private CacheData newCacheData(Object... elements) {
+		final CacheData cacheData = new CacheData(new FqnWrapper(Fqn.fromElements(elements)), mobicentsCache);
+		cacheData.create();
+		return cacheData;
+	}
+
+	@Test
+	public void testRepeatReadIsHit() {
+		final CacheData cacheData = newCacheData("near", "node");
+		cacheData.putNodeValue("key", "value");
+		assertEquals("value", cacheData.getNodeValue("key"));
+		assertEquals("value", cacheData.getNodeValue("key"));
+		assertEquals(1, nearCache.getMisses());
+		assertEquals(1, nearCache.getHits());
+	}
+
+	@Test
+	public void testModificationInvalidates() {
+		final CacheData cacheData = newCacheData("near", "node");
+		cacheData.putNodeValue("key", "value");
+		assertEquals("value", cacheData.getNodeValue("key"));
+		cacheData.putNodeValue("key", "other value");
+		assertEquals("other value", cacheData.getNodeValue("key"));
+		cacheData.removeNodeValue("key");
+		assertNull(cacheData.getNodeValue("key"));
+	}
+
+	@Test
+	public void testRemovalInvalidatesChildren() {
+		final CacheData parent = newCacheData("near", "parent");
+		final CacheData child = newCacheData("near", "parent", "child");
+		parent.putNodeValue("key", "value");
+		child.putNodeValue("key", "value");
+		assertEquals("value", parent.getNodeValue("key"));
+		assertEquals("value", child.getNodeValue("key"));
+		assertEquals(2, nearCache.getSize());
+		parent.remove();
+		assertEquals(0, nearCache.getSize());
+	}
+
+	@Test
+	public void testValueReadByModifyingTxIsNotCached() {
+		final CacheData cacheData = newCacheData("near", "node");
+		cacheData.putNodeValue("key", "value");
+		assertEquals("value", cacheData.getNodeValue("key"));
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		cacheData.putNodeValue("key", "uncommitted value");
+		assertEquals("uncommitted value", cacheData.getNodeValue("key"));
+		assertEquals(0, nearCache.getSize());
+		jBossCache.endBatch(false);
+		assertEquals("value", cacheData.getNodeValue("key"));
+	}
+
+	@Test
+	public void testValueReadByOtherThreadIsInvalidatedOnCommit() throws Exception {
+		final CacheData cacheData = newCacheData("near", "node");
+		cacheData.putNodeValue("key", "value");
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		cacheData.putNodeValue("key", "new value");
+		// another thread, out of the tx, reads and caches the committed value
+		final Object[] read = new Object[1];
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				read[0] = cacheData.getNodeValue("key");
+			}
+		};
+		reader.start();
+		reader.join();
+		assertEquals("value", read[0]);
+		jBossCache.endBatch(true);
+		assertEquals("new value", cacheData.getNodeValue("key"));
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.config.Configuration;
+import org.jboss.cache.config.Configuration.CacheMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the paging of {@link SubtreeCursor}s, while children are removed, and
+ * within a tx.
+ * 
+ */
+public class SubtreeCursorTest {
+
+	private static final int CHILDREN = 25;
+
+	private MobicentsCache mobicentsCache;
+
+	private final FqnWrapper parent = new FqnWrapper(Fqn.fromElements("cursor"));
+
+	@Before
+	public void setUp() {
+		final Configuration configuration = new Configuration();
+		configuration.setCacheMode(CacheMode.LOCAL);
+		configuration.setInvocationBatchingEnabled(true);
+		mobicentsCache = new MobicentsCache(configuration);
+		mobicentsCache.startCache();
+		for (int i = 0; i < CHILDREN; i++) {
+			newChild(i).putNodeValue("index", Integer.valueOf(i));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		mobicentsCache.stopCache();
+	}
+
+	private CacheData newChild(int i) {
+		final CacheData cacheData = new CacheData(new FqnWrapper(Fqn.fromRelativeElements(parent.getFqn(), Integer.valueOf(i))), mobicentsCache);
+		cacheData.create();
+		return cacheData;
+	}
+
+	@Test
+	public void testPagesAllChildren() {
+		final SubtreeCursor cursor = new SubtreeCursor(mobicentsCache, parent, 10);
+		final Set<Object> names = new HashSet<Object>();
+		int pages = 0;
+		while (cursor.hasNext()) {
+			final List<Object> page = cursor.nextPage();
+			assertTrue(page.size() <= 10);
+			names.addAll(page);
+			pages++;
+		}
+		assertEquals(3, pages);
+		assertEquals(CHILDREN, names.size());
+		assertTrue(cursor.nextPage().isEmpty());
+	}
+
+	@Test
+	public void testSkipsRemovedChildren() {
+		final SubtreeCursor cursor = new SubtreeCursor(mobicentsCache, parent, 10);
+		final Set<Object> names = new HashSet<Object>(cursor.nextPage());
+		assertEquals(10, names.size());
+		// remove the even children not paged yet
+		final Set<Object> removed = new HashSet<Object>();
+		for (int i = 0; i < CHILDREN; i++) {
+			final Integer name = Integer.valueOf(i);
+			if (i % 2 == 0 && !names.contains(name)) {
+				mobicentsCache.getJBossCache().removeNode(Fqn.fromRelativeElements(parent.getFqn(), name));
+				removed.add(name);
+			}
+		}
+		while (cursor.hasNext()) {
+			final Map<Object, Map<Object, Object>> page = cursor.nextDataPage();
+			for (Map.Entry<Object, Map<Object, Object>> child : page.entrySet()) {
+				assertFalse("removed child " + child.getKey() + " paged", removed.contains(child.getKey()));
+				assertEquals(child.getKey(), child.getValue().get("index"));
+				assertTrue("child " + child.getKey() + " paged twice", names.add(child.getKey()));
+			}
+		}
+		assertEquals(CHILDREN - removed.size(), names.size());
+	}
+
+	@Test
+	public void testCountsChildren() {
+		assertEquals(CHILDREN, SubtreeCursor.countChildren(mobicentsCache, parent));
+		assertEquals(0, SubtreeCursor.countChildren(mobicentsCache, new FqnWrapper(Fqn.fromElements("missing"))));
+		assertFalse(new SubtreeCursor(mobicentsCache, new FqnWrapper(Fqn.fromElements("missing"))).hasNext());
+	}
+
+	@Test
+	public void testPagesChildrenSeenByTx() {
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		try {
+			newChild(CHILDREN);
+			assertEquals(CHILDREN + 1, SubtreeCursor.countChildren(mobicentsCache, parent));
+			final SubtreeCursor cursor = new SubtreeCursor(mobicentsCache, parent, 10);
+			final Set<Object> names = new HashSet<Object>();
+			while (cursor.hasNext()) {
+				names.add(cursor.next());
+			}
+			assertTrue(names.contains(Integer.valueOf(CHILDREN)));
+			assertEquals(CHILDREN + 1, names.size());
+		}
+		finally {
+			jBossCache.endBatch(false);
+		}
+		assertEquals(CHILDREN, SubtreeCursor.countChildren(mobicentsCache, parent));
+	}
+
+}
@@ -28,7 +28,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.TransactionManager;
 
@@ -41,14 +43,18 @@ import org.jboss.cache.config.Configuration;
 import org.jboss.cache.config.Configuration.CacheMode;
 import org.jboss.cache.notifications.annotation.BuddyGroupChanged;
 import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeModified;
 import org.jboss.cache.notifications.annotation.NodeRemoved;
 import org.jboss.cache.notifications.annotation.ViewChanged;
 import org.jboss.cache.notifications.event.BuddyGroupChangedEvent;
+import org.jboss.cache.notifications.event.NodeModifiedEvent;
 import org.jboss.cache.notifications.event.NodeRemovedEvent;
 import org.jboss.cache.notifications.event.ViewChangedEvent;
 import org.jgroups.Address;
+import org.jgroups.MergeView;
 import org.restcomm.cache.FqnWrapper;
 import org.restcomm.cache.MobicentsCache;
+import org.restcomm.cache.SubtreeCursor;
 import org.restcomm.cluster.cache.ClusteredCacheData;
 import org.restcomm.cluster.cache.ClusteredCacheDataIndexingHandler;
 import org.restcomm.cluster.cache.DefaultClusteredCacheDataIndexingHandler;
@@ -74,7 +80,15 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 
 	private static final String FQN_SEPARATOR = Fqn.SEPARATOR;
 
-	private static final String BUDDY_BACKUP_FQN_ROOT = "/_BUDDY_BACKUP_/";
+	/**
+	 * the name of the root node of the buddy backup subtree
+	 */
+	public static final String BUDDY_BACKUP_FQN_ROOT = "_BUDDY_BACKUP_";
+	
+	/**
+	 * the buddy backup root fqns, per data owner
+	 */
+	private final ConcurrentHashMap<Address, Fqn> buddyBackupFqns = new ConcurrentHashMap<Address, Fqn>();
 
 	private static final Logger logger = Logger.getLogger(DefaultMobicentsCluster.class);
 
@@ -93,6 +107,31 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 	
 	private boolean started;
 	
+	/**
+	 * the max number of cache data processed per tx, when reconciling ownership after a merge
+	 */
+	private volatile int mergeBatchSize = 100;
+	
+	/**
+	 * the max time, in milliseconds, to wait for other members to complete each phase of a merge reconciliation
+	 */
+	private volatile long mergeSettleTime = 2000;
+	
+	/**
+	 * the root of the nodes where members mark the merge reconciliation phases they completed, per merge view id
+	 */
+	private static final String MERGE_FQN_ROOT = "MC_MERGES";
+	
+	/**
+	 * monitor notified when a merge phase mark replicates
+	 */
+	private final Object mergeMonitor = new Object();
+	
+	/**
+	 * the number of merge phase marks notified, guarded by the merge monitor
+	 */
+	private long mergeMarks;
+	
 	@SuppressWarnings("unchecked")
 	public DefaultMobicentsCluster(MobicentsCache watchedCache, TransactionManager txMgr, ClusterElector elector) {
 		this.failOverListeners = Collections.synchronizedSortedSet(new TreeSet<FailOverListener>(new FailOverListenerPriorityComparator()));
@@ -103,6 +142,45 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 		this.clusteredCacheDataIndexingHandler = new DefaultClusteredCacheDataIndexingHandler();
 	}
 
+	/**
+	 * Retrieves the max number of cache data processed per tx, when
+	 * reconciling ownership after a merge.
+	 * @return
+	 */
+	public int getMergeBatchSize() {
+		return mergeBatchSize;
+	}
+	
+	/**
+	 * Sets the max number of cache data processed per tx, when reconciling
+	 * ownership after a merge.
+	 * @param mergeBatchSize
+	 */
+	public void setMergeBatchSize(int mergeBatchSize) {
+		if (mergeBatchSize <= 0) {
+			throw new IllegalArgumentException("merge batch size must be positive");
+		}
+		this.mergeBatchSize = mergeBatchSize;
+	}
+	
+	/**
+	 * Retrieves the max time, in milliseconds, to wait for other members to
+	 * complete each phase of the ownership reconciliation, after a merge.
+	 * @return
+	 */
+	public long getMergeSettleTime() {
+		return mergeSettleTime;
+	}
+	
+	/**
+	 * Sets the max time, in milliseconds, to wait for other members to
+	 * complete each phase of the ownership reconciliation, after a merge.
+	 * @param mergeSettleTime
+	 */
+	public void setMergeSettleTime(long mergeSettleTime) {
+		this.mergeSettleTime = mergeSettleTime;
+	}
+	
 	/* (non-Javadoc)
 	 * @see MobicentsCluster#getLocalAddress()
 	 */
@@ -205,6 +283,7 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 									cleanAfterTakeOver(localListener, oldMember);
 								}
 							}
+							buddyBackupFqns.remove(oldMember);
 						}
 					}
 				}
@@ -213,6 +292,207 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 			t.start();
 		}
 		
+		if (event.getNewView() instanceof MergeView && localAddress != null) {
+			// partitions healed, members of both sides may own the same data
+			final List<Address> mergedView = currentView;
+			final String mergeId = String.valueOf(event.getNewView().getVid());
+			Runnable runnable = new Runnable() {
+				public void run() {
+					reconcileMerge(mergedView, localAddress, mergeId);
+				}
+			};
+			Thread t = new Thread(runnable);
+			t.start();
+		}
+		
+	}
+	
+	private static final int MERGE_PHASE_CLAIM = 0;
+	private static final int MERGE_PHASE_RESOLVE = 1;
+	private static final int MERGE_PHASE_CLEANUP = 2;
+	
+	private static final String[] MERGE_PHASE_NAMES = { "claimed", "resolved", "cleaned" };
+	
+	/**
+	 * Reconciles the ownership of the cache data of all fail over listeners,
+	 * after a merge. Each member first claims the data it owns, with its
+	 * ownership epoch, then, once all members marked their claims done, each
+	 * claimed data is resolved deterministically: the claim with the highest
+	 * epoch wins, and ties are won by the member first in the merged view. The
+	 * winner reasserts the ownership, and losers notify the listener that
+	 * ownership was lost. Once all members marked the resolution done, claims
+	 * are removed. Data is processed in bounded batches, each in its own tx.
+	 * 
+	 * @param mergedView
+	 * @param localAddress
+	 * @param mergeId
+	 *            the id of the merge view, same in all members
+	 */
+	@SuppressWarnings("unchecked")
+	private void reconcileMerge(List<Address> mergedView, Address localAddress, String mergeId) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("reconcileMerge : " + localAddress + " reconciling ownership in merged view " + mergedView);
+		}
+		final FailOverListener[] listeners;
+		synchronized (failOverListeners) {
+			listeners = failOverListeners.toArray(new FailOverListener[failOverListeners.size()]);
+		}
+		final Fqn mergeFqn = Fqn.fromElements(MERGE_FQN_ROOT, mergeId);
+		try {
+			for (int phase = MERGE_PHASE_CLAIM; phase <= MERGE_PHASE_CLEANUP; phase++) {
+				for (FailOverListener localListener : listeners) {
+					reconcileMerge(localListener, mergedView, localAddress, phase);
+				}
+				markMergePhase(mergeFqn, phase, localAddress);
+				if (phase != MERGE_PHASE_CLEANUP) {
+					awaitMergePhase(mergeFqn, phase, mergedView);
+				}
+			}
+			// the first member removes the marks, once all members are done
+			if (localAddress.equals(mergedView.get(0))) {
+				awaitMergePhase(mergeFqn, MERGE_PHASE_CLEANUP, mergedView);
+				mobicentsCache.getJBossCache().removeNode(mergeFqn);
+			}
+		}
+		catch (InterruptedException e) {
+			logger.warn("reconcileMerge : interrupted", e);
+			Thread.currentThread().interrupt();
+		}
+		catch (Throwable e) {
+			logger.error(e.getMessage(),e);
+		}
+	}
+	
+	/**
+	 * Marks that the local member completed the specified merge phase.
+	 * @param mergeFqn
+	 * @param phase
+	 * @param localAddress
+	 */
+	@SuppressWarnings("unchecked")
+	private void markMergePhase(Fqn mergeFqn, int phase, Address localAddress) {
+		mobicentsCache.getJBossCache().getRoot().addChild(mergeFqn).put(MERGE_PHASE_NAMES[phase] + "/" + localAddress, Boolean.TRUE);
+	}
+	
+	/**
+	 * Waits till all members of the merged view, still in the current view,
+	 * mark the specified merge phase done, or the merge settle time elapses.
+	 * Marks of other members are notified by the cache listener. The cache is
+	 * never read while holding the merge monitor, which the listener takes
+	 * while the writer of a mark holds the node lock.
+	 * 
+	 * @param mergeFqn
+	 * @param phase
+	 * @param mergedView
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	private void awaitMergePhase(Fqn mergeFqn, int phase, List<Address> mergedView) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mergeSettleTime);
+		final Cache jbossCache = mobicentsCache.getJBossCache();
+		for (;;) {
+			final long marks;
+			synchronized (mergeMonitor) {
+				marks = mergeMarks;
+			}
+			final Node mergeNode = jbossCache.getNode(mergeFqn);
+			final List<Address> view = currentView;
+			final List<Address> pending = new ArrayList<Address>();
+			for (Address member : mergedView) {
+				if (view.contains(member) && (mergeNode == null || mergeNode.get(MERGE_PHASE_NAMES[phase] + "/" + member) == null)) {
+					pending.add(member);
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				logger.warn("reconcileMerge : members " + pending + " did not mark merge phase " + MERGE_PHASE_NAMES[phase] + " in time, moving on");
+				return;
+			}
+			synchronized (mergeMonitor) {
+				// only wait if no mark was notified since the node was read
+				if (mergeMarks == marks) {
+					mergeMonitor.wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+				}
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void reconcileMerge(FailOverListener localListener, final List<Address> mergedView, final Address localAddress, final int phase) {
+		final Fqn rootFqn = localListener.getBaseFqn().getFqn();
+		final SubtreeCursor cursor = new SubtreeCursor(mobicentsCache, localListener.getBaseFqn(), mergeBatchSize);
+		for (List<Object> childrenNames = cursor.nextPage(); !childrenNames.isEmpty(); childrenNames = cursor.nextPage()) {
+			final List<Object> page = childrenNames;
+			final List<ClusteredCacheData> lost = new ArrayList<ClusteredCacheData>();
+			try {
+				Transactions.runInTx(txMgr, new Callable<Void>() {
+					public Void call() throws Exception {
+						for (Object childName : page) {
+							final ClusteredCacheData clusteredCacheData = new ClusteredCacheData(FqnWrapper.fromRelativeElementsWrapper(rootFqn, childName),DefaultMobicentsCluster.this);
+							if (!clusteredCacheData.exists()) {
+								continue;
+							}
+							if (phase == MERGE_PHASE_CLAIM) {
+								if (localAddress.equals(clusteredCacheData.getClusterNodeAddress())) {
+									clusteredCacheDataIndexingHandler.claimOwnership(clusteredCacheData, localAddress);
+								}
+								continue;
+							}
+							// resolve or clean up the data claimed, even if the winner already reasserted its ownership
+							if (clusteredCacheDataIndexingHandler.getOwnershipClaim(clusteredCacheData, localAddress) == null) {
+								continue;
+							}
+							if (phase == MERGE_PHASE_CLEANUP) {
+								clusteredCacheDataIndexingHandler.removeOwnershipClaim(clusteredCacheData, localAddress);
+								continue;
+							}
+							// resolve
+							Address winner = null;
+							Long winnerEpoch = null;
+							int claims = 0;
+							for (Address member : mergedView) {
+								final Long epoch = clusteredCacheDataIndexingHandler.getOwnershipClaim(clusteredCacheData, member);
+								if (epoch != null) {
+									claims++;
+									if (winnerEpoch == null || epoch > winnerEpoch) {
+										winner = member;
+										winnerEpoch = epoch;
+									}
+								}
+							}
+							if (claims < 2) {
+								// no conflict
+								continue;
+							}
+							if (localAddress.equals(winner)) {
+								clusteredCacheDataIndexingHandler.reassertOwnership(clusteredCacheData, localAddress);
+							}
+							else {
+								lost.add(clusteredCacheData);
+							}
+						}
+						return null;
+					}
+				});
+			} catch (Exception e) {
+				logger.error(e.getMessage(),e);
+				continue;
+			}
+			for (ClusteredCacheData clusteredCacheData : lost) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("reconcileMerge : " + localAddress + " lost ownership of " + clusteredCacheData.getNodeFqn());
+				}
+				try {
+					localListener.lostOwnership(clusteredCacheData);
+				}
+				catch (Throwable e) {
+					logger.error(e.getMessage(),e);
+				}
+			}
+		}
 	}
 	
 	@BuddyGroupChanged
@@ -238,6 +518,7 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 			
 			boolean createdTx = false;
 			boolean doRollback = true;
+			boolean failingOver = false;
 			
 			try {
 				if (txMgr != null && txMgr.getTransaction() == null) {
@@ -245,13 +526,17 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 					createdTx = true;
 				}
 				
+				localListener.failOverClusterMember(lostMember);
+				failingOver = true;
+				final DeferredTakeOverListener deferringListener = localListener instanceof DeferredTakeOverListener ? (DeferredTakeOverListener) localListener : null;
+				
 				if(isBuddyReplicationEnabled) {     
 					// replace column to underscore in the couple ipaddress:port of the jgroups address
 					// to match the BUDDY GROUP Fqn pattern in the cache
-					String fqn = getBuddyBackupFqn(lostMember)  + localListener.getBaseFqn().getFqn();
+					final Fqn fqn = Fqn.fromRelativeFqn(getBuddyBackupFqn(lostMember), localListener.getBaseFqn().getFqn());
 					
 					
-					Node buddyGroupRootNode = jbossCache.getNode(Fqn.fromString(fqn));
+					Node buddyGroupRootNode = jbossCache.getNode(fqn);
 					if (buddyGroupRootNode != null) {
 						Set<Node> children = buddyGroupRootNode.getChildren();
 						if (logger.isDebugEnabled()) {
@@ -262,7 +547,12 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 						// we want to retrieve from the buddy that died
 						for (Node child : children) {
 	
-							Fqn childFqn = Fqn.fromRelativeElements(localListener.getBaseFqn().getFqn(), child.getFqn().getLastElement());
+							final Object childName = child.getFqn().getLastElement();
+							if (deferringListener != null && deferringListener.deferTakeOver(lostMember, childName)) {
+								// the listener gravitates it when needed
+								continue;
+							}
+							Fqn childFqn = Fqn.fromRelativeElements(rootFqnOfChanges, childName);
 							if (logger.isDebugEnabled()) {
 								logger.debug("forcing data gravitation on following child fqn " + childFqn);
 							}
@@ -287,12 +577,12 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 					createdTx = true;
 				}
 											
-				localListener.failOverClusterMember(lostMember);
-				Set<Object> children = jbossCache.getChildrenNames(rootFqnOfChanges);
-				for (Object childName : children) {
+				// stream the children, instead of materializing all names
+				for (SubtreeCursor children = new SubtreeCursor(mobicentsCache, localListener.getBaseFqn()); children.hasNext();) {
+					final Object childName = children.next();
 					// Here in values we store data and... inet node., we must match
 					// passed one.
-					final ClusteredCacheData clusteredCacheData = new ClusteredCacheData(FqnWrapper.fromRelativeElementsWrapper(new FqnWrapper(rootFqnOfChanges), childName),this);
+					final ClusteredCacheData clusteredCacheData = new ClusteredCacheData(FqnWrapper.fromRelativeElementsWrapper(rootFqnOfChanges, childName),this);
 					if (clusteredCacheData.exists()) {
 						Address address = clusteredCacheData.getClusterNodeAddress();
 						if (address != null && address.equals(lostMember)) {
@@ -303,10 +593,9 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 									continue;
 								}
 							}
-							// call back the listener
-							localListener.wonOwnership(clusteredCacheData);
-							// change ownership
+							// change ownership, before calling back the listener, so it sees the new ownership epoch
 							clusteredCacheData.setClusterNodeAddress(localAddress);							
+							localListener.wonOwnership(clusteredCacheData);
 						}					
 					}else
 					{
@@ -335,6 +624,13 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 						logger.error(e.getMessage(),e);
 					}
 				}
+				if (failingOver && localListener instanceof FailOverCompletionListener) {
+					try {
+						((FailOverCompletionListener) localListener).failOverClusterMemberCompleted(lostMember);
+					} catch (Throwable e) {
+						logger.error(e.getMessage(),e);
+					}
+				}
 			}
 
 	}
@@ -350,6 +646,46 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 		}
 	}
 
+	/**
+	 * Handles the hand over of cache data ownership, by other cluster member,
+	 * to the local member, i.e., a remote write marked as a hand over to the
+	 * local address, notifying the fail over listener of the data. Other
+	 * remote writes of the local address, such as ownership reasserts after a
+	 * merge, are not hand overs.
+	 * @param event
+	 */
+	@NodeModified
+	public void onNodeModifiedEvent(NodeModifiedEvent event) {
+		if (!event.isPre() && event.getFqn().size() == 2 && MERGE_FQN_ROOT.equals(event.getFqn().get(0))) {
+			// a merge phase mark
+			synchronized (mergeMonitor) {
+				mergeMarks++;
+				mergeMonitor.notifyAll();
+			}
+			return;
+		}
+		if(!event.isOriginLocal() && !event.isPre() && event.getData() != null) {
+			final Address newOwner = getLocalAddress();
+			if (newOwner != null && clusteredCacheDataIndexingHandler.isHandOverTo(event.getData(), newOwner)) {
+				final Fqn parentFqn = event.getFqn().getParent();
+				for (FailOverListener localListener : failOverListeners) {
+					if (localListener.getBaseFqn().getFqn().equals(parentFqn)) {
+						if (logger.isDebugEnabled()) {
+							logger.debug("onNodeModifiedEvent : ownership of " + event.getFqn() + " handed over to " + newOwner);
+						}
+						try {
+							localListener.wonOwnership(new ClusteredCacheData(new FqnWrapper(event.getFqn()),this));
+						}
+						catch (Throwable e) {
+							logger.error(e.getMessage(),e);
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+	
 	private List<Address> getElectionView(Address deadMember) {
 		final Cache jbossCache = mobicentsCache.getJBossCache();
 		final Configuration config = jbossCache.getConfiguration();
@@ -367,7 +703,7 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 					createdTx = true;
 				}
 				// than election view is a buddy view
-				String fqnBackupRoot = getBuddyBackupFqn(deadMember);
+				final Fqn fqnBackupRoot = getBuddyBackupFqn(deadMember);
 				// check if we were a buddy
 				Node backupRoot = jbossCache.getNode(fqnBackupRoot);
 				if (backupRoot != null) {
@@ -409,14 +745,33 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 	}
 
 	
-	private String getBuddyBackupFqn(Address owner)
+	@SuppressWarnings("unchecked")
+	private Fqn getBuddyBackupFqn(Address owner)
 	{
 		//FIXME: switch to BuddyFqnTransformer
-		String lostMemberFqnizied = owner.toString().replace(":", "_");
-		String fqn = BUDDY_BACKUP_FQN_ROOT + lostMemberFqnizied ;				
+		Fqn fqn = buddyBackupFqns.get(owner);
+		if (fqn == null) {
+			// built once per owner, without parsing
+			fqn = Fqn.fromElements(BUDDY_BACKUP_FQN_ROOT, getBuddyGroupName(owner));
+			final Fqn previous = buddyBackupFqns.putIfAbsent(owner, fqn);
+			if (previous != null) {
+				fqn = previous;
+			}
+		}
 		return fqn;
 	}
 	
+	/**
+	 * Retrieves the name of the buddy backup node of the specified owner,
+	 * child of {@link #BUDDY_BACKUP_FQN_ROOT}.
+	 * @param owner
+	 * @return
+	 */
+	public static String getBuddyGroupName(Address owner) {
+		// replace column to underscore, as the buddy group name does
+		return owner.toString().replace(":", "_");
+	}
+	
 	private void cleanAfterTakeOver(FailOverListener localListener, Address deadMember)
 	{
 		final Cache jbossCache = mobicentsCache.getJBossCache();
@@ -425,9 +780,9 @@ public class DefaultMobicentsCluster implements MobicentsCluster {
 		if(isBuddyReplicationEnabled)
 		{
 			//1. clean backup of the base fqn only
-			String fqn = getBuddyBackupFqn(deadMember) + localListener.getBaseFqn().getFqn();
+			final Fqn fqn = Fqn.fromRelativeFqn(getBuddyBackupFqn(deadMember), localListener.getBaseFqn().getFqn());
 			jbossCache.getInvocationContext().getOptionOverrides().setCacheModeLocal(true);
-			jbossCache.removeNode(Fqn.fromString(fqn));
+			jbossCache.removeNode(fqn);
 			//2. if that member is our single buddy, we need to clean MC_BUDDIES
 			BuddyGroup bg = config.getRuntimeConfig().getBuddyGroup();
 			if(bg!=null && bg.getBuddies().size() == 1 && bg.getBuddies().contains(deadMember))
@@ -0,0 +1,47 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cluster;
+
+import org.jgroups.Address;
+
+/**
+ * A {@link FailOverListener} which may take over some of the data of a lost
+ * member lazily, when it needs it. Such data is neither gravitated nor has
+ * its ownership changed while the member is failed over, the listener does
+ * it later.
+ * 
+ */
+public interface DeferredTakeOverListener extends FailOverListener {
+
+	/**
+	 * Indicates if the listener defers the take over of the data of the lost
+	 * member with the specified name, which is the last element of the data
+	 * fqn. Invoked after
+	 * {@link FailOverListener#failOverClusterMember(Address)}, for the data
+	 * in the lost member's buddy backup.
+	 * 
+	 * @param lostMember
+	 * @param dataName
+	 * @return true if the data is not to be taken over now
+	 */
+	public boolean deferTakeOver(Address lostMember, Object dataName);
+
+}
@@ -0,0 +1,43 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cluster;
+
+import org.jgroups.Address;
+
+/**
+ * A {@link FailOverListener} which is also notified when the fail over of a
+ * cluster member ends, i.e., after the last
+ * {@link FailOverListener#wonOwnership(org.restcomm.cluster.cache.ClusteredCacheData)}
+ * callback for the member's data.
+ * 
+ */
+public interface FailOverCompletionListener extends FailOverListener {
+
+	/**
+	 * Indicates that the fail over of the cluster node with the specified
+	 * {@link Address} ended, successfully or not, in the same thread which
+	 * got {@link FailOverListener#failOverClusterMember(Address)}.
+	 * 
+	 * @param address
+	 */
+	public void failOverClusterMemberCompleted(Address address);
+
+}
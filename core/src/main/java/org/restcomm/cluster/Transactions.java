@@ -0,0 +1,80 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.cluster;
+
+import java.util.concurrent.Callable;
+
+import javax.transaction.TransactionManager;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs work in a JTA tx.
+ * 
+ */
+public final class Transactions {
+
+	private static final Logger logger = Logger.getLogger(Transactions.class);
+
+	private Transactions() {
+	}
+
+	/**
+	 * Runs the specified callable in the current tx of the specified manager,
+	 * if any, or in a new tx, which is committed if the callable returns, and
+	 * rolled back if it throws.
+	 * 
+	 * @param txManager
+	 *            may be null, to run the callable without tx
+	 * @param callable
+	 * @return the callable result
+	 * @throws Exception
+	 *             if the callable, or the commit of the new tx, fails
+	 */
+	public static <T> T runInTx(TransactionManager txManager, Callable<T> callable) throws Exception {
+		if (txManager == null || txManager.getTransaction() != null) {
+			return callable.call();
+		}
+		txManager.begin();
+		final T result;
+		try {
+			result = callable.call();
+		}
+		catch (Exception e) {
+			rollback(txManager);
+			throw e;
+		}
+		catch (Error e) {
+			rollback(txManager);
+			throw e;
+		}
+		txManager.commit();
+		return result;
+	}
+
+	private static void rollback(TransactionManager txManager) {
+		try {
+			txManager.rollback();
+		}
+		catch (Throwable e) {
+			logger.error(e.getMessage(),e);
+		}
+	}
+}
@@ -75,6 +75,21 @@ public class ClusteredCacheData extends CacheData {
 		indexingHandler.setClusterNodeAddress(this,clusterNodeAddress);
 	}
 	
+	/**
+	 * Hands over the ownership of the cache data to the specified cluster
+	 * node, which is notified it won the ownership. Indexing handlers other
+	 * than the default one only set the address of the new owner.
+	 * @param clusterNodeAddress
+	 */
+	public void handOverOwnership(Address clusterNodeAddress) {
+		if (indexingHandler instanceof DefaultClusteredCacheDataIndexingHandler) {
+			((DefaultClusteredCacheDataIndexingHandler) indexingHandler).handOverOwnership(this,clusterNodeAddress);
+		}
+		else {
+			indexingHandler.setClusterNodeAddress(this,clusterNodeAddress);
+		}
+	}
+	
 	/**
 	 * Retrieves the address of the cluster node, which owns the cache data.
 	 * 
@@ -84,6 +99,20 @@ public class ClusteredCacheData extends CacheData {
 		return indexingHandler.getClusterNodeAddress(this);
 	}
 	
+	/**
+	 * Retrieves the ownership epoch of the cache data, which increases each
+	 * time the cluster node, which owns the cache data, is set.
+	 * 
+	 * @return 0 if this data doesn't have info about the ownership epoch, or
+	 *         the indexing handler does not keep epochs
+	 */
+	public long getClusterNodeEpoch() {
+		if (indexingHandler instanceof EpochClusteredCacheDataIndexingHandler) {
+			return ((EpochClusteredCacheDataIndexingHandler) indexingHandler).getClusterNodeEpoch(this);
+		}
+		return 0L;
+	}
+	
 	/* (non-Javadoc)
 	 * @see CacheData#getNode()
 	 */
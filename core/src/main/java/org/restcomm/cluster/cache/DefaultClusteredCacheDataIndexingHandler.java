@@ -22,6 +22,10 @@
 
 package org.restcomm.cluster.cache;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.cache.Node;
 import org.jgroups.Address;
 
 /**
@@ -31,20 +35,53 @@ import org.jgroups.Address;
  * @author martins
  * 
  */
-public class DefaultClusteredCacheDataIndexingHandler implements ClusteredCacheDataIndexingHandler {
+public class DefaultClusteredCacheDataIndexingHandler implements EpochClusteredCacheDataIndexingHandler {
 	
 	/**
 	 * 
 	 */
 	private static final String CLUSTER_NODE_ADDRESS_NODE_KEY = "cnaddress";
 	
+	/**
+	 * 
+	 */
+	private static final String CLUSTER_NODE_EPOCH_NODE_KEY = "cnepoch";
+	
+	/**
+	 * the prefix of the keys where each member claims ownership, after a merge
+	 */
+	private static final String CLUSTER_NODE_CLAIM_NODE_KEY_PREFIX = "cnclaim/";
+	
+	/**
+	 * the key where the previous owner marks the cluster node it hands over the ownership to
+	 */
+	private static final String CLUSTER_NODE_HAND_OVER_NODE_KEY = "cnhandover";
+	
 	/*
 	 * (non-Javadoc)
 	 * @see ClusteredCacheDataIndexingHandler#setClusterNodeAddress(ClusteredCacheData, org.jgroups.Address)
 	 */
 	@SuppressWarnings("unchecked")
 	public void setClusterNodeAddress(ClusteredCacheData cacheData, Address clusterNodeAddress) {
-		cacheData.getNode().put(CLUSTER_NODE_ADDRESS_NODE_KEY,clusterNodeAddress);
+		final Map<String,Object> data = new HashMap<String,Object>(4);
+		data.put(CLUSTER_NODE_ADDRESS_NODE_KEY,clusterNodeAddress);
+		data.put(CLUSTER_NODE_EPOCH_NODE_KEY,Long.valueOf(getNextClusterNodeEpoch(cacheData)));
+		cacheData.getNode().putAll(data);
+	}
+	
+	/**
+	 * Retrieves the ownership epoch of the cache data, plus one, reading it
+	 * with a write lock, so no other tx can bump it concurrently. The read
+	 * and following write are only atomic if done in the same tx.
+	 * 
+	 * @param cacheData
+	 * @return
+	 */
+	private long getNextClusterNodeEpoch(ClusteredCacheData cacheData) {
+		final Node node = cacheData.getNode();
+		cacheData.getMobicentsCache().getJBossCache().getInvocationContext().getOptionOverrides().setForceWriteLock(true);
+		final Long epoch = (Long) node.get(CLUSTER_NODE_EPOCH_NODE_KEY);
+		return epoch != null ? epoch.longValue() + 1 : 1L;
 	}
 	
 	/*
@@ -55,4 +92,117 @@ public class DefaultClusteredCacheDataIndexingHandler implements ClusteredCacheD
 	public Address getClusterNodeAddress(ClusteredCacheData cacheData) {
 		return (Address) cacheData.getNode().get(CLUSTER_NODE_ADDRESS_NODE_KEY);
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see EpochClusteredCacheDataIndexingHandler#getClusterNodeEpoch(ClusteredCacheData)
+	 */
+	public long getClusterNodeEpoch(ClusteredCacheData cacheData) {
+		final Long epoch = (Long) cacheData.getNode().get(CLUSTER_NODE_EPOCH_NODE_KEY);
+		return epoch != null ? epoch.longValue() : 0L;
+	}
+	
+	/**
+	 * Retrieves the ownership epoch of the cache data, from the specified node
+	 * data map.
+	 * 
+	 * @param nodeData
+	 * @return 0 if the map doesn't have info about the ownership epoch
+	 */
+	public long getClusterNodeEpoch(Map<?,?> nodeData) {
+		final Long epoch = (Long) nodeData.get(CLUSTER_NODE_EPOCH_NODE_KEY);
+		return epoch != null ? epoch.longValue() : 0L;
+	}
+	
+	/**
+	 * Hands over the ownership of the cache data to the specified cluster
+	 * node, setting its address, increasing the ownership epoch and marking
+	 * the change as a hand over, in a single write.
+	 * 
+	 * @param cacheData
+	 * @param clusterNodeAddress
+	 */
+	@SuppressWarnings("unchecked")
+	public void handOverOwnership(ClusteredCacheData cacheData, Address clusterNodeAddress) {
+		final Map<String,Object> data = new HashMap<String,Object>(4);
+		data.put(CLUSTER_NODE_ADDRESS_NODE_KEY,clusterNodeAddress);
+		data.put(CLUSTER_NODE_EPOCH_NODE_KEY,Long.valueOf(getNextClusterNodeEpoch(cacheData)));
+		data.put(CLUSTER_NODE_HAND_OVER_NODE_KEY,clusterNodeAddress);
+		cacheData.getNode().putAll(data);
+	}
+	
+	/**
+	 * Indicates if the specified node data map, such as the one of a node
+	 * modified event, hands over the ownership of the cache data to the
+	 * specified cluster node.
+	 * 
+	 * @param nodeData
+	 * @param clusterNodeAddress
+	 * @return
+	 */
+	public boolean isHandOverTo(Map<?,?> nodeData, Address clusterNodeAddress) {
+		return clusterNodeAddress.equals(nodeData.get(CLUSTER_NODE_HAND_OVER_NODE_KEY));
+	}
+	
+	/**
+	 * Claims the ownership of the cache data, for the specified cluster node,
+	 * with the current ownership epoch. Each cluster node has its own claim
+	 * key, so concurrent claims don't conflict.
+	 * 
+	 * @param cacheData
+	 * @param clusterNodeAddress
+	 */
+	@SuppressWarnings("unchecked")
+	public void claimOwnership(ClusteredCacheData cacheData, Address clusterNodeAddress) {
+		cacheData.getNode().put(CLUSTER_NODE_CLAIM_NODE_KEY_PREFIX + clusterNodeAddress, Long.valueOf(getClusterNodeEpoch(cacheData)));
+	}
+	
+	/**
+	 * Reasserts the ownership of the cache data by the specified cluster node,
+	 * writing the address and current ownership epoch, without increasing the
+	 * epoch, so the tasks armed by the owner are not fenced.
+	 * 
+	 * @param cacheData
+	 * @param clusterNodeAddress
+	 */
+	@SuppressWarnings("unchecked")
+	public void reassertOwnership(ClusteredCacheData cacheData, Address clusterNodeAddress) {
+		final Map<String,Object> data = new HashMap<String,Object>(4);
+		data.put(CLUSTER_NODE_ADDRESS_NODE_KEY,clusterNodeAddress);
+		data.put(CLUSTER_NODE_EPOCH_NODE_KEY,Long.valueOf(getClusterNodeEpoch(cacheData)));
+		cacheData.getNode().putAll(data);
+	}
+	
+	/**
+	 * Retrieves the ownership epoch claimed by the specified cluster node.
+	 * 
+	 * @param cacheData
+	 * @param clusterNodeAddress
+	 * @return null if the cluster node did not claim ownership
+	 */
+	public Long getOwnershipClaim(ClusteredCacheData cacheData, Address clusterNodeAddress) {
+		return (Long) cacheData.getNode().get(CLUSTER_NODE_CLAIM_NODE_KEY_PREFIX + clusterNodeAddress);
+	}
+	
+	/**
+	 * Removes the ownership claim of the specified cluster node.
+	 * 
+	 * @param cacheData
+	 * @param clusterNodeAddress
+	 */
+	public void removeOwnershipClaim(ClusteredCacheData cacheData, Address clusterNodeAddress) {
+		cacheData.getNode().remove(CLUSTER_NODE_CLAIM_NODE_KEY_PREFIX + clusterNodeAddress);
+	}
+	
+	/**
+	 * Retrieves the address of the cluster node, which owns the cache data,
+	 * from the specified node data map, such as the one of a node modified
+	 * event.
+	 * 
+	 * @param nodeData
+	 * @return null if the map doesn't have info about the cluster node
+	 */
+	public Address getClusterNodeAddress(Map<?,?> nodeData) {
+		return (Address) nodeData.get(CLUSTER_NODE_ADDRESS_NODE_KEY);
+	}
 }
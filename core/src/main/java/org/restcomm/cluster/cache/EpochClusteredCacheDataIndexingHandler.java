@@ -0,0 +1,39 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.cluster.cache;
+
+/**
+ * A {@link ClusteredCacheDataIndexingHandler} which also keeps an ownership
+ * epoch, increased each time the cluster node, which owns the cache data, is
+ * set, so a previous owner can detect it lost the data.
+ * 
+ */
+public interface EpochClusteredCacheDataIndexingHandler extends ClusteredCacheDataIndexingHandler {
+
+	/**
+	 * Retrieves the ownership epoch of the cache data, which increases each
+	 * time the cluster node, which owns the cache data, is set.
+	 * 
+	 * @return 0 if this data doesn't have info about the ownership epoch
+	 */
+	public long getClusterNodeEpoch(ClusteredCacheData cacheData);
+	
+}
@@ -0,0 +1,198 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.cluster.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.cache.Fqn;
+import org.jboss.cache.config.Configuration;
+import org.jboss.cache.config.Configuration.CacheMode;
+import org.restcomm.cache.CacheData;
+import org.restcomm.cache.DeltaAware;
+import org.restcomm.cache.DeltaFieldKey;
+import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cache.MobicentsCache;
+
+/**
+ * Compares storing a large session object, of which a single field changes
+ * on each update, as a whole value and as a {@link DeltaAware} value. For
+ * each update it reports the time spent writing to a local cache, and the
+ * size and time of marshalling the modification, i.e. what is replicated in a
+ * clustered cache.
+ * 
+ * Usage: DeltaAwareBenchmark [fields] [field size] [updates]
+ * 
+ */
+public class DeltaAwareBenchmark {
+
+	private static final String KEY = "session";
+
+	public static void main(String[] args) throws IOException {
+		final int fields = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		final int fieldSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		final int updates = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+		final Configuration configuration = new Configuration();
+		configuration.setCacheMode(CacheMode.LOCAL);
+		final MobicentsCache cache = new MobicentsCache(configuration);
+		cache.startCache();
+		try {
+			final CacheData wholeData = new CacheData(new FqnWrapper(Fqn.fromElements("benchmark", "whole")), cache);
+			wholeData.create();
+			final CacheData deltaData = new CacheData(new FqnWrapper(Fqn.fromElements("benchmark", "delta")), cache);
+			deltaData.create();
+
+			// warm up
+			run(wholeData, new SessionValue(fields, fieldSize), false, updates / 10);
+			run(deltaData, new SessionValue(fields, fieldSize), true, updates / 10);
+
+			final long[] whole = run(wholeData, new SessionValue(fields, fieldSize), false, updates);
+			final long[] delta = run(deltaData, new SessionValue(fields, fieldSize), true, updates);
+
+			System.out.println("fields=" + fields + ", field size=" + fieldSize + ", updates=" + updates);
+			print("whole value:", whole, updates);
+			print("delta aware:", delta, updates);
+		}
+		finally {
+			cache.stopCache();
+		}
+	}
+
+	private static void print(String name, long[] result, int updates) {
+		System.out.println(name + " " + (result[0] / updates) + " ns per put, " + (result[1] / updates)
+				+ " bytes and " + (result[2] / updates) + " ns marshalled per update");
+	}
+
+	/**
+	 * Updates one field of the value, and stores it, the specified number of
+	 * times.
+	 * 
+	 * @return the time spent storing, the bytes marshalled and the time spent
+	 *         marshalling
+	 */
+	private static long[] run(CacheData cacheData, SessionValue value, boolean deltaAware, int updates) throws IOException {
+		long putTime = 0;
+		long marshalledBytes = 0;
+		long marshallingTime = 0;
+		if (deltaAware) {
+			cacheData.putDeltaAwareValue(KEY, value);
+		}
+		else {
+			cacheData.setNodeValue(KEY, value);
+		}
+		for (int i = 0; i < updates; i++) {
+			value.setField(i % value.size(), newFieldValue(value.fieldSize, i));
+			// marshal what is replicated
+			long start = System.nanoTime();
+			if (deltaAware) {
+				final Map<Object, Object> modification = new HashMap<Object, Object>();
+				for (Map.Entry<String, Object> field : value.getDelta().entrySet()) {
+					modification.put(new DeltaFieldKey(KEY, field.getKey()), field.getValue());
+				}
+				marshalledBytes += marshal(modification);
+			}
+			else {
+				marshalledBytes += marshal(value);
+			}
+			marshallingTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			if (deltaAware) {
+				cacheData.putDeltaAwareValue(KEY, value);
+			}
+			else {
+				cacheData.setNodeValue(KEY, value);
+			}
+			putTime += System.nanoTime() - start;
+		}
+		return new long[] { putTime, marshalledBytes, marshallingTime };
+	}
+
+	private static int marshal(Object object) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(object);
+		oos.close();
+		return baos.size();
+	}
+
+	private static String newFieldValue(int size, int seed) {
+		final StringBuilder sb = new StringBuilder(size);
+		for (int i = 0; i < size; i++) {
+			sb.append((char) ('a' + (seed + i) % 26));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A session object with string fields.
+	 */
+	public static class SessionValue implements DeltaAware, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashMap<String, Object> fields = new HashMap<String, Object>();
+
+		private transient HashMap<String, Object> delta = new HashMap<String, Object>();
+
+		private transient int fieldSize;
+
+		public SessionValue() {
+		}
+
+		SessionValue(int fields, int fieldSize) {
+			this.fieldSize = fieldSize;
+			for (int i = 0; i < fields; i++) {
+				this.fields.put("field" + i, newFieldValue(fieldSize, i));
+			}
+		}
+
+		int size() {
+			return fields.size();
+		}
+
+		void setField(int index, Object value) {
+			final String name = "field" + index;
+			fields.put(name, value);
+			delta.put(name, value);
+		}
+
+		public Map<String, Object> getFields() {
+			return fields;
+		}
+
+		public Map<String, Object> getDelta() {
+			return delta;
+		}
+
+		public void applyFields(Map<String, Object> fields) {
+			this.fields.putAll(fields);
+		}
+
+		public void commitDelta() {
+			delta = new HashMap<String, Object>();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.cluster.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.cache.Fqn;
+import org.jboss.cache.config.Configuration;
+import org.jboss.cache.config.Configuration.CacheMode;
+import org.restcomm.cache.CacheData;
+import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cache.MobicentsCache;
+import org.restcomm.cache.NodeHandleCache;
+
+/**
+ * Measures the cost of constructing {@link CacheData}s, i.e. looking up their
+ * nodes, in a local cache, walking the tree from the root and then with a
+ * {@link NodeHandleCache}.
+ * 
+ * Usage: NodeHandleCacheBenchmark [nodes] [depth] [iterations]
+ * 
+ */
+public class NodeHandleCacheBenchmark {
+
+	public static void main(String[] args) {
+		final int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		final Configuration configuration = new Configuration();
+		configuration.setCacheMode(CacheMode.LOCAL);
+		final MobicentsCache cache = new MobicentsCache(configuration);
+		cache.startCache();
+		try {
+			final List<FqnWrapper> fqns = new ArrayList<FqnWrapper>(nodes);
+			for (int i = 0; i < nodes; i++) {
+				final Object[] elements = new Object[depth];
+				elements[0] = "benchmark";
+				for (int j = 1; j < depth - 1; j++) {
+					elements[j] = "level" + j + "-" + (i % (j * 10));
+				}
+				elements[depth - 1] = Integer.valueOf(i);
+				final FqnWrapper fqn = new FqnWrapper(Fqn.fromElements(elements));
+				new CacheData(fqn, cache).create();
+				fqns.add(fqn);
+			}
+
+			final long treeWalk = run(cache, fqns, iterations);
+			cache.setNodeHandleCache(new NodeHandleCache(cache, nodes));
+			final long handleCache = run(cache, fqns, iterations);
+
+			final long lookups = (long) nodes * iterations;
+			System.out.println("nodes=" + nodes + ", depth=" + depth + ", lookups=" + lookups);
+			System.out.println("tree walk:    " + (treeWalk / lookups) + " ns per CacheData");
+			System.out.println("handle cache: " + (handleCache / lookups) + " ns per CacheData, " + cache.getNodeHandleCache());
+		}
+		finally {
+			cache.stopCache();
+		}
+	}
+
+	/**
+	 * Constructs a {@link CacheData} for each fqn, the specified number of
+	 * times, after a warm up round.
+	 * 
+	 * @return the time spent, in nanoseconds, excluding the warm up
+	 */
+	private static long run(MobicentsCache cache, List<FqnWrapper> fqns, int iterations) {
+		for (FqnWrapper fqn : fqns) {
+			lookup(cache, fqn);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (FqnWrapper fqn : fqns) {
+				lookup(cache, fqn);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void lookup(MobicentsCache cache, FqnWrapper fqn) {
+		if (!new CacheData(fqn, cache).exists()) {
+			throw new IllegalStateException("node " + fqn + " not found");
+		}
+	}
+
+}
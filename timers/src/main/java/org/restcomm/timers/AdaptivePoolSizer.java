@@ -0,0 +1,263 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Grows and shrinks the worker pool of a {@link FaultTolerantScheduler}, within
+ * configured bounds, from periodic samples of the firing lag, i.e. how late
+ * the most overdue task in the executor queue is, of the queue depth, i.e.
+ * how many queued tasks are ready to run, and of the busy workers.
+ * 
+ * The pool grows one worker per sample while there are more ready tasks than
+ * idle workers, and either the lag is above the grow threshold or the ready
+ * tasks are as many as the workers, thus a burst of tasks due at once grows
+ * the pool before the lag builds up. It shrinks one worker only after a
+ * number of consecutive samples with lag below the shrink threshold, no ready
+ * tasks and idle workers, which avoids oscillation around the thresholds.
+ * 
+ */
+public class AdaptivePoolSizer extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(AdaptivePoolSizer.class);
+
+	/**
+	 * The decision taken on a sample.
+	 */
+	public enum Decision { GROW, SHRINK, HOLD }
+
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	private final long samplePeriod;
+	private final long growLagThreshold;
+	private final long shrinkLagThreshold;
+	private final int shrinkAfterSamples;
+
+	private final AtomicLong growDecisions = new AtomicLong(0);
+	private final AtomicLong shrinkDecisions = new AtomicLong(0);
+
+	private volatile long lastLag;
+	private volatile int lastQueueSize;
+	private volatile int lastReadyTasks;
+	private volatile Decision lastDecision = Decision.HOLD;
+
+	/**
+	 * consecutive samples which allowed shrinking, only accessed by the sampling thread
+	 */
+	private int shrinkableSamples;
+
+
+	/**
+	 * 
+	 * @param minPoolSize
+	 *            the min number of workers
+	 * @param maxPoolSize
+	 *            the max number of workers
+	 * @param samplePeriod
+	 *            the time, in milliseconds, between samples
+	 * @param growLagThreshold
+	 *            the firing lag, in milliseconds, from which the pool grows
+	 * @param shrinkLagThreshold
+	 *            the firing lag, in milliseconds, below which the pool may
+	 *            shrink
+	 * @param shrinkAfterSamples
+	 *            the number of consecutive samples allowing the pool to
+	 *            shrink, before it actually shrinks
+	 */
+	public AdaptivePoolSizer(int minPoolSize, int maxPoolSize, long samplePeriod, long growLagThreshold, long shrinkLagThreshold, int shrinkAfterSamples) {
+		if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+			throw new IllegalArgumentException("invalid pool size bounds "+minPoolSize+" - "+maxPoolSize);
+		}
+		if (samplePeriod <= 0) {
+			throw new IllegalArgumentException("sample period must be positive");
+		}
+		if (shrinkLagThreshold > growLagThreshold) {
+			throw new IllegalArgumentException("shrink lag threshold can't be higher than grow lag threshold");
+		}
+		this.minPoolSize = minPoolSize;
+		this.maxPoolSize = maxPoolSize;
+		this.samplePeriod = samplePeriod;
+		this.growLagThreshold = growLagThreshold;
+		this.shrinkLagThreshold = shrinkLagThreshold;
+		this.shrinkAfterSamples = Math.max(shrinkAfterSamples, 1);
+	}
+
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * Retrieves the current number of core workers of the scheduler's
+	 * executor, not including workers added by the watchdog to compensate
+	 * stuck executions.
+	 * @return
+	 */
+	public int getCurrentPoolSize() {
+		final FaultTolerantScheduler scheduler = this.scheduler;
+		return scheduler != null ? scheduler.getWorkerPoolSize().getBaseSize() : 0;
+	}
+
+	/**
+	 * Retrieves the firing lag, in milliseconds, observed on the last sample.
+	 * @return
+	 */
+	public long getLastLag() {
+		return lastLag;
+	}
+
+	/**
+	 * Retrieves the number of tasks in the executor queue, observed on the last sample.
+	 * @return
+	 */
+	public int getLastQueueSize() {
+		return lastQueueSize;
+	}
+
+	/**
+	 * Retrieves the number of tasks in the executor queue ready to run, i.e.
+	 * due, observed on the last sample.
+	 * @return
+	 */
+	public int getLastReadyTasks() {
+		return lastReadyTasks;
+	}
+
+	/**
+	 * Retrieves the decision taken on the last sample.
+	 * @return
+	 */
+	public Decision getLastDecision() {
+		return lastDecision;
+	}
+
+	/**
+	 * Retrieves how many times the pool was grown.
+	 * @return
+	 */
+	public long getGrowDecisions() {
+		return growDecisions.get();
+	}
+
+	/**
+	 * Retrieves how many times the pool was shrunk.
+	 * @return
+	 */
+	public long getShrinkDecisions() {
+		return shrinkDecisions.get();
+	}
+
+	/**
+	 * Starts sizing the pool of the scheduler, bringing its current size
+	 * within the bounds. The pool keeps its size when the sizer stops.
+	 */
+	@Override
+	void started() {
+		final WorkerPoolSize workerPoolSize = scheduler.getWorkerPoolSize();
+		synchronized (workerPoolSize) {
+			final int poolSize = workerPoolSize.getBaseSize();
+			if (poolSize < minPoolSize) {
+				workerPoolSize.setBaseSize(minPoolSize);
+			}
+			else if (poolSize > maxPoolSize) {
+				workerPoolSize.setBaseSize(maxPoolSize);
+			}
+		}
+	}
+
+	@Override
+	long getPeriod() {
+		return samplePeriod;
+	}
+
+	@Override
+	void runPeriodically() {
+		sample();
+	}
+
+	private void sample() {
+		final ScheduledThreadPoolExecutor executor = scheduler.getExecutor();
+		final BlockingQueue<Runnable> queue = executor.getQueue();
+		final Runnable head = queue.peek();
+		long lag = 0;
+		if (head instanceof Delayed) {
+			lag = Math.max(0, -((Delayed) head).getDelay(TimeUnit.MILLISECONDS));
+		}
+		lastLag = lag;
+		lastQueueSize = queue.size();
+		int readyTasks = 0;
+		if (lag > 0) {
+			for (Runnable r : queue) {
+				if (r instanceof Delayed && ((Delayed) r).getDelay(TimeUnit.MILLISECONDS) <= 0) {
+					readyTasks++;
+				}
+			}
+		}
+		lastReadyTasks = readyTasks;
+
+		Decision decision = Decision.HOLD;
+		final WorkerPoolSize workerPoolSize = scheduler.getWorkerPoolSize();
+		synchronized (workerPoolSize) {
+			// the bounds apply to the base size, workers compensating stuck executions come on top
+			final int poolSize = workerPoolSize.getBaseSize();
+			final int workers = poolSize + workerPoolSize.getCompensation();
+			final int activeCount = executor.getActiveCount();
+			final int idleWorkers = Math.max(0, workers - activeCount);
+			if (readyTasks > idleWorkers && (lag >= growLagThreshold || readyTasks >= workers)) {
+				shrinkableSamples = 0;
+				if (poolSize < maxPoolSize) {
+					workerPoolSize.setBaseSize(poolSize + 1);
+					decision = Decision.GROW;
+				}
+			}
+			else if (lag <= shrinkLagThreshold && readyTasks == 0 && activeCount < workers - 1) {
+				if (++shrinkableSamples >= shrinkAfterSamples && poolSize > minPoolSize) {
+					shrinkableSamples = 0;
+					workerPoolSize.setBaseSize(poolSize - 1);
+					decision = Decision.SHRINK;
+				}
+			}
+			else {
+				shrinkableSamples = 0;
+			}
+		}
+		
+		lastDecision = decision;
+		if (decision == Decision.GROW) {
+			growDecisions.incrementAndGet();
+		}
+		else if (decision == Decision.SHRINK) {
+			shrinkDecisions.incrementAndGet();
+		}
+		if (decision != Decision.HOLD && logger.isDebugEnabled()) {
+			logger.debug(scheduler + " pool sizer decision " + decision + ", lag " + lag + " ms, ready tasks " + readyTasks + ", queue size " + lastQueueSize + ", pool size now " + executor.getCorePoolSize());
+		}
+	}
+}
@@ -29,7 +29,7 @@ package org.restcomm.timers;
  */
 public abstract class AfterTxCommitRunnable implements Runnable {
 
-	public enum Type { SET, CANCEL }
+	public enum Type { SET, CANCEL, RESCHEDULE }
 	
 	protected final TimerTask task;
 	protected final FaultTolerantScheduler scheduler;
@@ -0,0 +1,422 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Node;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeModified;
+import org.jboss.cache.notifications.annotation.NodeRemoved;
+import org.jboss.cache.notifications.event.NodeModifiedEvent;
+import org.jboss.cache.notifications.event.NodeRemovedEvent;
+import org.jgroups.Address;
+import org.restcomm.cluster.DefaultMobicentsCluster;
+import org.restcomm.timers.cache.TimerTaskCacheData;
+
+/**
+ * A warm standby index of the timer tasks of the buddies of the local member,
+ * when the cache uses buddy replication. The index only holds the id and
+ * start time of each task, maintained from the events of the buddy backup
+ * subtree, and nothing is unmarshalled or armed.
+ * 
+ * When the local member takes over a buddy, a placeholder is armed right away
+ * for each of its tasks, and the take over of a task with a placeholder is
+ * simply a claim, the task data is only retrieved and the task scheduled when
+ * the placeholder is due. Placeholders due before claimed wait for a claim up
+ * to a configured time, and are then dropped, e.g. if other member took over.
+ * The take over of tasks with an armed placeholder is deferred, so their data
+ * is only gravitated from the buddy backup when the placeholder is due.
+ * 
+ */
+@CacheListener(sync = false)
+public class BuddyShadowIndex extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(BuddyShadowIndex.class);
+
+	/**
+	 * the name of the root node of the buddy backup subtree
+	 */
+	private static final String BUDDY_BACKUP_ROOT = DefaultMobicentsCluster.BUDDY_BACKUP_FQN_ROOT;
+
+	private static final int ARMED = 0;
+	private static final int DUE = 1;
+	private static final int CLAIMED = 2;
+	private static final int DONE = 3;
+
+	/**
+	 * the max time, in milliseconds, a due placeholder waits to be claimed
+	 */
+	private final long maxClaimWait;
+
+	/**
+	 * the shadowed tasks start times, per buddy backup group name and task id
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Serializable, Long>> shadows = new ConcurrentHashMap<String, ConcurrentHashMap<Serializable, Long>>();
+
+	/**
+	 * the placeholders armed, per task id
+	 */
+	private final ConcurrentHashMap<Serializable, Placeholder> placeholders = new ConcurrentHashMap<Serializable, Placeholder>();
+
+	private final AtomicLong armedPlaceholders = new AtomicLong(0);
+	private final AtomicLong materializedPlaceholders = new AtomicLong(0);
+	private final AtomicLong droppedPlaceholders = new AtomicLong(0);
+
+	private Object schedulerName;
+
+	/**
+	 * 
+	 * @param maxClaimWait
+	 *            the max time, in milliseconds, a due placeholder waits to be
+	 *            claimed
+	 */
+	public BuddyShadowIndex(long maxClaimWait) {
+		if (maxClaimWait <= 0) {
+			throw new IllegalArgumentException("max claim wait must be positive");
+		}
+		this.maxClaimWait = maxClaimWait;
+	}
+
+	public long getMaxClaimWait() {
+		return maxClaimWait;
+	}
+
+	/**
+	 * Retrieves the number of tasks shadowed, from all buddies.
+	 * @return
+	 */
+	public int getShadowedTasks() {
+		int count = 0;
+		for (Map<Serializable, Long> shadow : shadows.values()) {
+			count += shadow.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Retrieves the number of tasks shadowed from the specified buddy.
+	 * @param buddy
+	 * @return
+	 */
+	public int getShadowedTasks(Address buddy) {
+		final Map<Serializable, Long> shadow = shadows.get(DefaultMobicentsCluster.getBuddyGroupName(buddy));
+		return shadow != null ? shadow.size() : 0;
+	}
+
+	/**
+	 * Retrieves the number of placeholders armed, since the index was set.
+	 * @return
+	 */
+	public long getArmedPlaceholders() {
+		return armedPlaceholders.get();
+	}
+
+	/**
+	 * Retrieves the number of placeholders which became scheduled tasks.
+	 * @return
+	 */
+	public long getMaterializedPlaceholders() {
+		return materializedPlaceholders.get();
+	}
+
+	/**
+	 * Retrieves the number of placeholders dropped, not claimed in time or removed.
+	 * @return
+	 */
+	public long getDroppedPlaceholders() {
+		return droppedPlaceholders.get();
+	}
+
+	/**
+	 * Retrieves the number of placeholders currently armed.
+	 * @return
+	 */
+	public int getPendingPlaceholders() {
+		return placeholders.size();
+	}
+
+	/**
+	 * Starts shadowing the buddies' tasks of the scheduler.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	void started() {
+		this.schedulerName = scheduler.getName();
+		final Cache jbossCache = scheduler.getCluster().getMobicentsCache().getJBossCache();
+		jbossCache.addCacheListener(this);
+		// seed from the current buddy backups
+		final Node backupRoot = jbossCache.getNode(Fqn.fromElements(BUDDY_BACKUP_ROOT));
+		if (backupRoot != null) {
+			for (Object groupName : backupRoot.getChildrenNames()) {
+				final Node schedulerNode = jbossCache.getNode(Fqn.fromElements(BUDDY_BACKUP_ROOT, groupName, schedulerName));
+				if (schedulerNode == null) {
+					continue;
+				}
+				for (Object taskID : schedulerNode.getChildrenNames()) {
+					final Node taskNode = schedulerNode.getChild(taskID);
+					final Long startTime = taskNode != null ? TimerTaskCacheData.getStartTime(taskNode.getData()) : null;
+					if (startTime != null) {
+						shadow(groupName.toString(), (Serializable) taskID, startTime);
+					}
+				}
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(scheduler + " shadow index started with " + getShadowedTasks() + " tasks");
+		}
+	}
+
+	/**
+	 * Stops shadowing the buddies' tasks, dropping all placeholders.
+	 */
+	@Override
+	void stopped() {
+		scheduler.getCluster().getMobicentsCache().getJBossCache().removeCacheListener(this);
+		for (Placeholder placeholder : placeholders.values()) {
+			placeholder.drop();
+		}
+		shadows.clear();
+	}
+
+	private void shadow(String groupName, Serializable taskID, long startTime) {
+		ConcurrentHashMap<Serializable, Long> shadow = shadows.get(groupName);
+		if (shadow == null) {
+			final ConcurrentHashMap<Serializable, Long> newShadow = new ConcurrentHashMap<Serializable, Long>();
+			shadow = shadows.putIfAbsent(groupName, newShadow);
+			if (shadow == null) {
+				shadow = newShadow;
+			}
+		}
+		shadow.put(taskID, startTime);
+	}
+
+	/**
+	 * Arms a placeholder for each task shadowed from the specified buddy, which
+	 * the local member is taking over.
+	 * 
+	 * @param buddy
+	 */
+	void armPlaceholders(Address buddy) {
+		final Map<Serializable, Long> shadow = shadows.remove(DefaultMobicentsCluster.getBuddyGroupName(buddy));
+		if (shadow == null) {
+			return;
+		}
+		final long skew = scheduler.getCompensatedSkew(buddy);
+		final long now = System.currentTimeMillis();
+		for (Map.Entry<Serializable, Long> entry : shadow.entrySet()) {
+			final Placeholder placeholder = new Placeholder(entry.getKey(), buddy);
+			if (placeholders.putIfAbsent(entry.getKey(), placeholder) == null) {
+				long delay = entry.getValue() - skew - now;
+				if (delay < 0) {
+					delay = 0;
+				}
+				placeholder.future = scheduler.getExecutor().schedule(placeholder, delay, TimeUnit.MILLISECONDS);
+				armedPlaceholders.incrementAndGet();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(scheduler + " armed " + shadow.size() + " placeholders for tasks of " + buddy);
+		}
+	}
+
+	/**
+	 * Claims the placeholder of a task which ownership was won by the local member.
+	 * 
+	 * @param taskID
+	 * @return false if there is no placeholder for the task, and it must be recovered
+	 */
+	boolean claim(Serializable taskID) {
+		final Placeholder placeholder = placeholders.get(taskID);
+		if (placeholder == null) {
+			return false;
+		}
+		if (placeholder.state.compareAndSet(ARMED, CLAIMED)) {
+			// materialized when due
+			return true;
+		}
+		if (placeholder.state.compareAndSet(DUE, DONE)) {
+			// already due, waiting for the claim
+			placeholder.materialize();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Claims the armed placeholder of a task of the specified buddy, which
+	 * take over is deferred till the placeholder is due.
+	 * 
+	 * @param buddy
+	 * @param taskID
+	 * @return false if there is no armed placeholder for the task, and it
+	 *         must be taken over now
+	 */
+	boolean deferTakeOver(Address buddy, Serializable taskID) {
+		final Placeholder placeholder = placeholders.get(taskID);
+		return placeholder != null && placeholder.buddy.equals(buddy) && placeholder.state.compareAndSet(ARMED, CLAIMED);
+	}
+
+	/**
+	 * Materializes right away the claimed placeholder of a task, so it can be
+	 * canceled or rescheduled.
+	 * 
+	 * @param taskID
+	 * @return true if there was a claimed placeholder for the task
+	 */
+	boolean materializeNow(Serializable taskID) {
+		final Placeholder placeholder = placeholders.get(taskID);
+		if (placeholder == null || !placeholder.state.compareAndSet(CLAIMED, DONE)) {
+			return false;
+		}
+		placeholder.cancelFuture();
+		placeholder.materialize();
+		return true;
+	}
+
+	/**
+	 * Drops the placeholder of a task which data was removed.
+	 * @param taskID
+	 */
+	void taskRemoved(Serializable taskID) {
+		final Placeholder placeholder = placeholders.get(taskID);
+		if (placeholder != null) {
+			placeholder.drop();
+		}
+	}
+
+	private Serializable getShadowedTaskID(Fqn fqn) {
+		if (fqn.size() == 4 && BUDDY_BACKUP_ROOT.equals(fqn.get(0)) && schedulerName.equals(fqn.get(2))) {
+			return (Serializable) fqn.get(3);
+		}
+		return null;
+	}
+
+	@NodeModified
+	public void onNodeModified(NodeModifiedEvent event) {
+		if (event.isPre() || event.getData() == null) {
+			return;
+		}
+		final Fqn fqn = event.getFqn();
+		final Serializable taskID = getShadowedTaskID(fqn);
+		if (taskID != null) {
+			final Long startTime = TimerTaskCacheData.getStartTime(event.getData());
+			if (startTime != null) {
+				shadow(fqn.get(1).toString(), taskID, startTime);
+			}
+		}
+	}
+
+	@NodeRemoved
+	public void onNodeRemoved(NodeRemovedEvent event) {
+		if (event.isPre()) {
+			return;
+		}
+		final Fqn fqn = event.getFqn();
+		if (fqn.size() < 2 || !BUDDY_BACKUP_ROOT.equals(fqn.get(0))) {
+			return;
+		}
+		final String groupName = fqn.get(1).toString();
+		if (fqn.size() == 2 || (fqn.size() == 3 && schedulerName.equals(fqn.get(2)))) {
+			// whole backup removed
+			shadows.remove(groupName);
+			return;
+		}
+		final Serializable taskID = getShadowedTaskID(fqn);
+		if (taskID != null) {
+			final Map<Serializable, Long> shadow = shadows.get(groupName);
+			if (shadow != null) {
+				shadow.remove(taskID);
+			}
+		}
+	}
+
+	/**
+	 * A placeholder of a task of a buddy taken over.
+	 */
+	private class Placeholder implements Runnable {
+
+		private final Serializable taskID;
+		private final Address buddy;
+		private final AtomicInteger state = new AtomicInteger(ARMED);
+		private volatile ScheduledFuture<?> future;
+
+		Placeholder(Serializable taskID, Address buddy) {
+			this.taskID = taskID;
+			this.buddy = buddy;
+		}
+
+		public void run() {
+			if (state.compareAndSet(CLAIMED, DONE)) {
+				materialize();
+			}
+			else if (state.compareAndSet(ARMED, DUE)) {
+				// wait for the claim
+				future = scheduler.getExecutor().schedule(new Runnable() {
+					public void run() {
+						if (state.compareAndSet(DUE, DONE)) {
+							if (logger.isDebugEnabled()) {
+								logger.debug("Placeholder of task " + taskID + " of " + buddy + " not claimed in time, dropping it");
+							}
+							placeholders.remove(taskID, Placeholder.this);
+							droppedPlaceholders.incrementAndGet();
+						}
+					}
+				}, maxClaimWait, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		void materialize() {
+			placeholders.remove(taskID, this);
+			try {
+				scheduler.materializePlaceholder(taskID, buddy);
+				materializedPlaceholders.incrementAndGet();
+			}
+			catch (Throwable e) {
+				logger.error("Failed to materialize placeholder of task " + taskID, e);
+				droppedPlaceholders.incrementAndGet();
+			}
+		}
+
+		void cancelFuture() {
+			final ScheduledFuture<?> future = this.future;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		void drop() {
+			if (state.getAndSet(DONE) != DONE) {
+				cancelFuture();
+				placeholders.remove(taskID, this);
+				droppedPlaceholders.incrementAndGet();
+			}
+		}
+	}
+}
@@ -61,7 +61,7 @@ public class CancelTimerAfterTxCommitRunnable extends AfterTxCommitRunnable {
 			logger.debug("Cancelling timer task for timer ID "+taskID);
 		}
 		
-		scheduler.getLocalRunningTasksMap().remove(taskID);
+		scheduler.removeLocalRunningTask(taskID);
 		
 		try {
 			task.cancel();					
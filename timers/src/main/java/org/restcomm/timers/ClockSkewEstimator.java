@@ -0,0 +1,239 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.Fqn;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeModified;
+import org.jboss.cache.notifications.annotation.NodeRemoved;
+import org.jboss.cache.notifications.event.NodeModifiedEvent;
+import org.jboss.cache.notifications.event.NodeRemovedEvent;
+import org.jgroups.Address;
+import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.timers.cache.TimerMemberClockCacheData;
+
+/**
+ * Estimates the wall clock skew of each cluster member, relative to the local
+ * member, so timers recovered from a member are fired when intended, even if
+ * clocks are not in sync.
+ * 
+ * Each member using an estimator periodically publishes its wall clock time,
+ * and each publication received from other member is a skew sample, the
+ * difference between the remote and local wall clock times. Samples are
+ * smoothed with an exponentially weighted moving average. Samples are taken
+ * by a sync listener, when the publication is applied, thus these include the
+ * replication latency but not notification queueing, and skews below a
+ * configured min are not compensated.
+ * 
+ */
+@CacheListener(sync = true)
+public class ClockSkewEstimator extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(ClockSkewEstimator.class);
+
+	/**
+	 * the time, in milliseconds, between clock publications
+	 */
+	private final long publishPeriod;
+
+	/**
+	 * the weight of a new sample in the estimate, between 0 and 1
+	 */
+	private final double smoothingFactor;
+
+	/**
+	 * the min skew, in milliseconds, which is compensated
+	 */
+	private final long minCompensatedSkew;
+
+	/**
+	 * the skew estimate of each member
+	 */
+	private final Map<Address, Double> estimates = new HashMap<Address, Double>();
+
+	private Fqn clocksBaseFqn;
+
+	/**
+	 * 
+	 * @param publishPeriod
+	 *            the time, in milliseconds, between clock publications
+	 * @param smoothingFactor
+	 *            the weight of a new sample in the estimate, between 0
+	 *            (exclusive) and 1
+	 * @param minCompensatedSkew
+	 *            the min skew, in milliseconds, which is compensated
+	 */
+	public ClockSkewEstimator(long publishPeriod, double smoothingFactor, long minCompensatedSkew) {
+		if (publishPeriod <= 0) {
+			throw new IllegalArgumentException("publish period must be positive");
+		}
+		if (smoothingFactor <= 0 || smoothingFactor > 1) {
+			throw new IllegalArgumentException("smoothing factor must be in ]0,1]");
+		}
+		this.publishPeriod = publishPeriod;
+		this.smoothingFactor = smoothingFactor;
+		this.minCompensatedSkew = minCompensatedSkew;
+	}
+
+	public long getPublishPeriod() {
+		return publishPeriod;
+	}
+
+	public double getSmoothingFactor() {
+		return smoothingFactor;
+	}
+
+	public long getMinCompensatedSkew() {
+		return minCompensatedSkew;
+	}
+
+	/**
+	 * Retrieves the skew estimate of the specified member, i.e., how much its
+	 * wall clock is ahead of the local one.
+	 * 
+	 * @param member
+	 * @return null if there is no estimate for the member
+	 */
+	public Long getSkew(Address member) {
+		synchronized (estimates) {
+			final Double estimate = estimates.get(member);
+			return estimate != null ? Long.valueOf(Math.round(estimate)) : null;
+		}
+	}
+
+	/**
+	 * Retrieves the skew estimates of all members known.
+	 * @return
+	 */
+	public Map<Address, Long> getSkews() {
+		final Map<Address, Long> result = new HashMap<Address, Long>();
+		synchronized (estimates) {
+			for (Map.Entry<Address, Double> entry : estimates.entrySet()) {
+				result.put(entry.getKey(), Long.valueOf(Math.round(entry.getValue())));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves the skew to compensate in times set by the specified member.
+	 * @param member
+	 * @return 0 if there is no estimate for the member or it is below the min compensated skew 
+	 */
+	long getCompensatedSkew(Address member) {
+		final Long skew = getSkew(member);
+		if (skew == null || Math.abs(skew) < minCompensatedSkew) {
+			return 0L;
+		}
+		return skew;
+	}
+
+	/**
+	 * Starts estimating the members skews, for the scheduler.
+	 */
+	@Override
+	void started() {
+		this.clocksBaseFqn = TimerMemberClockCacheData.getClocksBaseFqn(scheduler.getName());
+		scheduler.getCluster().getMobicentsCache().getJBossCache().addCacheListener(this);
+	}
+
+	@Override
+	long getPeriod() {
+		return publishPeriod;
+	}
+
+	@Override
+	long getInitialDelay() {
+		return 0L;
+	}
+
+	/**
+	 * Publishes the local clock.
+	 */
+	@Override
+	void runPeriodically() {
+		final MobicentsCluster cluster = scheduler.getCluster();
+		final Address localAddress = cluster.getLocalAddress();
+		if (localAddress != null) {
+			new TimerMemberClockCacheData(localAddress, clocksBaseFqn, cluster).setWallTime(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Stops publishing the local clock and estimating the members skews, removing the local clock from the cache.
+	 */
+	@Override
+	void stopped() {
+		final MobicentsCluster cluster = scheduler.getCluster();
+		final Cache jbossCache = cluster.getMobicentsCache().getJBossCache();
+		jbossCache.removeCacheListener(this);
+		final Address localAddress = cluster.getLocalAddress();
+		if (localAddress != null) {
+			try {
+				new TimerMemberClockCacheData(localAddress, clocksBaseFqn, cluster).remove();
+			}
+			catch (Throwable e) {
+				logger.error(e.getMessage(),e);
+			}
+		}
+		synchronized (estimates) {
+			estimates.clear();
+		}
+	}
+
+	@NodeModified
+	public void onNodeModified(NodeModifiedEvent event) {
+		if (event.isPre() || event.isOriginLocal() || event.getData() == null) {
+			return;
+		}
+		final Fqn fqn = event.getFqn();
+		if (fqn.size() != clocksBaseFqn.size() + 1 || !fqn.isChildOf(clocksBaseFqn)) {
+			return;
+		}
+		final Long remoteWallTime = TimerMemberClockCacheData.getWallTime(event.getData());
+		if (remoteWallTime == null) {
+			return;
+		}
+		final double sample = remoteWallTime - System.currentTimeMillis();
+		final Address member = (Address) fqn.getLastElement();
+		synchronized (estimates) {
+			final Double estimate = estimates.get(member);
+			estimates.put(member, estimate == null ? sample : estimate + smoothingFactor * (sample - estimate));
+		}
+	}
+
+	@NodeRemoved
+	public void onNodeRemoved(NodeRemovedEvent event) {
+		if (event.isPre() || event.isOriginLocal()) {
+			return;
+		}
+		final Fqn fqn = event.getFqn();
+		if (fqn.size() == clocksBaseFqn.size() + 1 && fqn.isChildOf(clocksBaseFqn)) {
+			synchronized (estimates) {
+				estimates.remove(fqn.getLastElement());
+			}
+		}
+	}
+}
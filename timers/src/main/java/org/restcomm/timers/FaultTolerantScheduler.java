@@ -22,28 +22,47 @@
 package org.restcomm.timers;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
 import org.apache.log4j.Logger;
+import org.jboss.cache.Cache;
+import org.jboss.cache.CacheSPI;
 import org.jboss.cache.Fqn;
 import org.jgroups.Address;
+import org.restcomm.cache.FqnTemplate;
 import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cache.SubtreeCursor;
 import org.restcomm.cluster.DataRemovalListener;
-import org.restcomm.cluster.FailOverListener;
+import org.restcomm.cluster.DeferredTakeOverListener;
+import org.restcomm.cluster.FailOverCompletionListener;
 import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.cluster.Transactions;
 import org.restcomm.cluster.cache.ClusteredCacheData;
 import org.restcomm.cluster.election.ClientLocalListenerElector;
 import org.restcomm.timers.cache.FaultTolerantSchedulerCacheData;
 import org.restcomm.timers.cache.TimerTaskCacheData;
+import org.restcomm.timers.cache.TimerTaskGroupCacheData;
 
 /**
  * 
@@ -59,6 +78,21 @@ public class FaultTolerantScheduler {
 	 */
 	private final ScheduledThreadPoolExecutor executor;
 	
+	/**
+	 * the owner of the executor's core pool size
+	 */
+	private final WorkerPoolSize workerPoolSize;
+	
+	/**
+	 * the shared engine providing the executors, null if the scheduler owns its executors
+	 */
+	private final SharedTimerEngine engine;
+	
+	/**
+	 * the namespace of the scheduler in the shared engine, null if the scheduler owns its executors
+	 */
+	private final SharedTimerEngine.Namespace namespace;
+	
 	/**
 	 * the jta tx manager
 	 */
@@ -69,6 +103,26 @@ public class FaultTolerantScheduler {
 	 */
 	private final ConcurrentHashMap<Serializable, TimerTask> localRunningTasks = new ConcurrentHashMap<Serializable, TimerTask>();
 	
+	/**
+	 * the ids of local running tasks, per group id
+	 */
+	private final Map<Serializable, Set<Serializable>> localGroups = new HashMap<Serializable, Set<Serializable>>();
+	
+	/**
+	 * the local running tasks, indexed by due time
+	 */
+	private final TimerTaskTimeIndex localTimeIndex = new TimerTaskTimeIndex();
+	
+	/**
+	 * all tasks in the cluster, indexed by due time, null if not enabled
+	 */
+	private volatile TimerTaskTimeIndex clusterTimeIndex;
+	
+	/**
+	 * the listener of cache events on the tasks' nodes, null if not needed
+	 */
+	private FaultTolerantSchedulerCacheListener cacheListener;
+	
 	/**
 	 * the timer task factory associated with this scheduler
 	 */
@@ -80,6 +134,16 @@ public class FaultTolerantScheduler {
 	@SuppressWarnings("unchecked")
 	private final Fqn baseFqn;
 	
+	/**
+	 * the template of the fqns used to store tasks data in restcomm cluster's cache
+	 */
+	private final FqnTemplate taskFqnTemplate;
+	
+	/**
+	 * the template of the fqns used to store the groups index in restcomm cluster's cache
+	 */
+	private final FqnTemplate groupFqnTemplate;
+	
 	private FaultTolerantSchedulerCacheData cacheData;
 	
 	/**
@@ -97,6 +161,73 @@ public class FaultTolerantScheduler {
 	 */
 	private final ClientLocalListener clusterClientLocalListener;
 	
+	/**
+	 * single thread executor for the scheduler's own maintenance jobs, such as
+	 * the watchdog checks, which must run even if all timer threads are busy
+	 */
+	private ScheduledExecutorService maintenanceExecutor;
+	
+	/**
+	 * the watchdog for task executions, null if not used
+	 */
+	private volatile TimerTaskWatchdog watchdog;
+	
+	/**
+	 * the sizer of the executor's worker pool, null if the pool size is fixed
+	 */
+	private AdaptivePoolSizer poolSizer;
+	
+	/**
+	 * the checkpointer of periodic tasks progress, null if not used
+	 */
+	private volatile PeriodicTaskCheckpointer checkpointer;
+	
+	/**
+	 * the delegator of tasks to other cluster members, null if not used
+	 */
+	private volatile TimerTaskDelegator delegator;
+	
+	/**
+	 * the number of fires dropped since the task was stale
+	 */
+	private final AtomicLong staleFires = new AtomicLong(0);
+	
+	/**
+	 * the number of local tasks disarmed since another member won its ownership, after a merge
+	 */
+	private final AtomicLong lostTasks = new AtomicLong(0);
+	
+	/**
+	 * the number of ownership events received from the cluster, a task
+	 * verified to be locally owned stays so until the next event
+	 */
+	private final AtomicLong ownershipEvents = new AtomicLong(0);
+	
+	/**
+	 * the estimator of the cluster members clock skews, null if skews are not compensated
+	 */
+	private volatile ClockSkewEstimator skewEstimator;
+	
+	/**
+	 * the sweeper of orphan tasks, null if not used
+	 */
+	private OrphanTimerSweeper sweeper;
+	
+	/**
+	 * the warm standby index of the buddies' tasks, null if not used
+	 */
+	private volatile BuddyShadowIndex shadowIndex;
+	
+	/**
+	 * the cluster member being failed over by the current thread, if any
+	 */
+	private final ThreadLocal<Address> failingOverMember = new ThreadLocal<Address>();
+	
+	/**
+	 * the unit of work of each thread, if one was begun
+	 */
+	private final ThreadLocal<TimerUnitOfWork> unitOfWork = new ThreadLocal<TimerUnitOfWork>();
+	
 	/**
 	 * 
 	 * @param name
@@ -150,27 +281,42 @@ public class FaultTolerantScheduler {
      * @param threadFactory
      */
     public FaultTolerantScheduler(String name, int corePoolSize, MobicentsCluster cluster, byte priority, TransactionManager txManager,TimerTaskFactory timerTaskFactory, int purgePeriod, ThreadFactory threadFactory) {
+        this(name, newExecutor(corePoolSize, purgePeriod, threadFactory), null, 0, cluster, priority, txManager, timerTaskFactory);
+    }
+
+    /**
+     * Creates a scheduler which uses the threads of a shared engine, instead
+     * of its own.
+     *
+     * @param name
+     *            the scheduler name, also its namespace in the engine
+     * @param engine
+     * @param maxTasks
+     *            the max number of local tasks, 0 for no limit
+     * @param cluster
+     * @param priority
+     * @param txManager
+     * @param timerTaskFactory
+     * @throws IllegalStateException
+     *             if the engine already has a namespace with the scheduler name
+     */
+    public FaultTolerantScheduler(String name, SharedTimerEngine engine, int maxTasks, MobicentsCluster cluster, byte priority, TransactionManager txManager,TimerTaskFactory timerTaskFactory) throws IllegalStateException {
+        this(name, engine.getExecutor(), engine, maxTasks, cluster, priority, txManager, timerTaskFactory);
+    }
+
+    private FaultTolerantScheduler(String name, ScheduledThreadPoolExecutor executor, SharedTimerEngine engine, int maxTasks, MobicentsCluster cluster, byte priority, TransactionManager txManager,TimerTaskFactory timerTaskFactory) {
         this.name = name;
-        this.executor = new ScheduledThreadPoolExecutor(corePoolSize, threadFactory);
-        if(purgePeriod > 0) {
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        executor.purge();
-                    }
-                    catch (Exception e) {
-                        logger.error("failed to execute purge",e);
-                    }
-                }
-            };
-            this.executor.scheduleWithFixedDelay(r, purgePeriod, purgePeriod, TimeUnit.MINUTES);
-        }
-        this.baseFqn = Fqn.fromElements(name);
+        this.executor = executor;
+        this.workerPoolSize = engine != null ? engine.getWorkerPoolSize() : new WorkerPoolSize(executor);
+        this.engine = engine;
+        this.namespace = engine != null ? engine.register(name, maxTasks) : null;
+        this.taskFqnTemplate = new FqnTemplate(Fqn.fromElements(name));
+        this.groupFqnTemplate = new FqnTemplate(TimerTaskGroupCacheData.getGroupsBaseFqn(name));
+        this.baseFqn = taskFqnTemplate.getBase();
         this.cluster = cluster;
         this.timerTaskFactory = timerTaskFactory;
         this.txManager = txManager;
-        cacheData = new FaultTolerantSchedulerCacheData(new FqnWrapper(baseFqn),cluster);
+        cacheData = new FaultTolerantSchedulerCacheData(taskFqnTemplate.getBaseWrapper(),cluster);
         if (cluster.isStarted()) {
             cacheData.create();
         }
@@ -179,13 +325,58 @@ public class FaultTolerantScheduler {
         cluster.addDataRemovalListener(clusterClientLocalListener);
     }
 
+	/**
+	 * Creates an executor of timer tasks.
+	 * 
+	 * @param corePoolSize
+	 * @param purgePeriod
+	 *            the period, in minutes, to purge canceled tasks from the
+	 *            executor queue, 0 to not purge
+	 * @param threadFactory
+	 * @return
+	 */
+	static ScheduledThreadPoolExecutor newExecutor(int corePoolSize, int purgePeriod, ThreadFactory threadFactory) {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(corePoolSize, threadFactory);
+		if(purgePeriod > 0) {
+			Runnable r = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						executor.purge();
+					}
+					catch (Exception e) {
+						logger.error("failed to execute purge",e);
+					}
+				}
+			};
+			executor.scheduleWithFixedDelay(r, purgePeriod, purgePeriod, TimeUnit.MINUTES);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Retrieves the shared engine providing the scheduler's executors.
+	 * @return null if the scheduler owns its executors
+	 */
+	public SharedTimerEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * Retrieves the namespace of the scheduler in the shared engine, with its quota and metrics.
+	 * @return null if the scheduler owns its executors
+	 */
+	public SharedTimerEngine.Namespace getNamespace() {
+		return namespace;
+	}
+	
 	/**
 	 * Retrieves the {@link TimerTaskData} associated with the specified taskID. 
 	 * @param taskID
 	 * @return null if there is no such timer task data
 	 */
 	public TimerTaskData getTimerTaskData(Serializable taskID) {
-		TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, baseFqn, cluster);
+		TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
 		if (timerTaskCacheData.exists()) {
 			return timerTaskCacheData.getTaskData();
 		}
@@ -202,6 +393,448 @@ public class FaultTolerantScheduler {
 		return executor;
 	}
 	
+	/**
+	 * Retrieves the owner of the executor's core pool size, which all changes
+	 * of the pool size go through.
+	 * @return
+	 */
+	WorkerPoolSize getWorkerPoolSize() {
+		return workerPoolSize;
+	}
+	
+	/**
+	 * Retrieves the executor for the scheduler's maintenance jobs, creating it
+	 * if needed.
+	 * 
+	 * @return
+	 */
+	synchronized ScheduledExecutorService getMaintenanceExecutor() {
+		if (engine != null) {
+			return engine.getMaintenanceExecutor();
+		}
+		if (maintenanceExecutor == null) {
+			maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, name + "-maintenance");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return maintenanceExecutor;
+	}
+	
+	/**
+	 * Retrieves the watchdog for task executions.
+	 * @return null if there is no watchdog set
+	 */
+	public TimerTaskWatchdog getWatchdog() {
+		return watchdog;
+	}
+	
+	/**
+	 * Sets the watchdog for task executions, replacing and stopping the current
+	 * one, if any.
+	 * 
+	 * @param watchdog
+	 *            the new watchdog, null to stop watching executions
+	 */
+	public synchronized void setWatchdog(TimerTaskWatchdog watchdog) {
+		this.watchdog = SchedulerComponent.replace(this, this.watchdog, watchdog);
+	}
+	
+	/**
+	 * Retrieves the sizer of the executor's worker pool.
+	 * @return null if the pool size is fixed
+	 */
+	public synchronized AdaptivePoolSizer getPoolSizer() {
+		return poolSizer;
+	}
+	
+	/**
+	 * Sets the sizer of the executor's worker pool, replacing and stopping the
+	 * current one, if any.
+	 * 
+	 * @param poolSizer
+	 *            the new pool sizer, null to keep the current pool size fixed
+	 * @throws IllegalStateException
+	 *             if the scheduler uses a shared engine, which is sized as a whole
+	 */
+	public synchronized void setPoolSizer(AdaptivePoolSizer poolSizer) throws IllegalStateException {
+		if (poolSizer != null && engine != null) {
+			throw new IllegalStateException("scheduler "+name+" uses the shared engine "+engine.getName()+", size the engine instead");
+		}
+		this.poolSizer = SchedulerComponent.replace(this, this.poolSizer, poolSizer);
+	}
+	
+	/**
+	 * Retrieves the checkpointer of periodic tasks progress.
+	 * @return null if periodic tasks progress is not checkpointed
+	 */
+	public PeriodicTaskCheckpointer getCheckpointer() {
+		return checkpointer;
+	}
+	
+	/**
+	 * Sets the checkpointer of periodic tasks progress, replacing and stopping
+	 * the current one, if any.
+	 * 
+	 * @param checkpointer
+	 *            the new checkpointer, null to not checkpoint periodic tasks
+	 *            progress
+	 */
+	public synchronized void setCheckpointer(PeriodicTaskCheckpointer checkpointer) {
+		this.checkpointer = SchedulerComponent.replace(this, this.checkpointer, checkpointer);
+	}
+	
+	/**
+	 * Retrieves the delegator of tasks to other cluster members.
+	 * @return null if tasks are not delegated
+	 */
+	public TimerTaskDelegator getDelegator() {
+		return delegator;
+	}
+	
+	/**
+	 * Sets the delegator of tasks to other cluster members, replacing and
+	 * stopping the current one, if any. All cluster members should use a
+	 * delegator, so their load is known.
+	 * 
+	 * @param delegator
+	 *            the new delegator, null to not delegate tasks
+	 */
+	public synchronized void setDelegator(TimerTaskDelegator delegator) {
+		this.delegator = SchedulerComponent.replace(this, this.delegator, delegator);
+	}
+	
+	/**
+	 * Retrieves the estimator of the cluster members clock skews.
+	 * @return null if skews are not compensated
+	 */
+	public ClockSkewEstimator getSkewEstimator() {
+		return skewEstimator;
+	}
+	
+	/**
+	 * Sets the estimator of the cluster members clock skews, replacing and
+	 * stopping the current one, if any. The start time of tasks recovered from
+	 * a failed member is corrected by the member skew estimate.
+	 * 
+	 * @param skewEstimator
+	 *            the new estimator, null to not compensate skews
+	 */
+	public synchronized void setSkewEstimator(ClockSkewEstimator skewEstimator) {
+		this.skewEstimator = SchedulerComponent.replace(this, this.skewEstimator, skewEstimator);
+	}
+	
+	/**
+	 * Retrieves the warm standby index of the buddies' tasks.
+	 * @return null if buddies' tasks are not shadowed
+	 */
+	public BuddyShadowIndex getShadowIndex() {
+		return shadowIndex;
+	}
+	
+	/**
+	 * Sets the warm standby index of the buddies' tasks, replacing and
+	 * stopping the current one, if any. Only useful if the cache uses buddy
+	 * replication.
+	 * 
+	 * @param shadowIndex
+	 *            the new index, null to not shadow buddies' tasks
+	 */
+	public synchronized void setShadowIndex(BuddyShadowIndex shadowIndex) {
+		this.shadowIndex = SchedulerComponent.replace(this, this.shadowIndex, shadowIndex);
+	}
+	
+	/**
+	 * Recovers the task of a placeholder, armed when its former owner was
+	 * taken over.
+	 * 
+	 * @param taskID
+	 * @param formerOwner
+	 */
+	void materializePlaceholder(final Serializable taskID, final Address formerOwner) {
+		if (localRunningTasks.containsKey(taskID)) {
+			return;
+		}
+		try {
+			Transactions.runInTx(txManager, new Callable<Void>() {
+				public Void call() throws Exception {
+					// the take over may have been deferred, with the data still in the buddy backup
+					final Cache jbossCache = cluster.getMobicentsCache().getJBossCache();
+					jbossCache.getInvocationContext().getOptionOverrides().setForceDataGravitation(true);
+					jbossCache.getNode(taskFqnTemplate.child(taskID));
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+					if (timerTaskCacheData.exists()) {
+						final Address localAddress = cluster.getLocalAddress();
+						final Address owner = timerTaskCacheData.getClusterNodeAddress();
+						if (owner != null && owner.equals(formerOwner)) {
+							timerTaskCacheData.setClusterNodeAddress(localAddress);
+						}
+						else if (owner != null && !owner.equals(localAddress)) {
+							if (logger.isDebugEnabled()) {
+								logger.debug("Task with id "+taskID+" of "+formerOwner+" was taken over by "+owner+", not materializing its placeholder");
+							}
+							return null;
+						}
+						recover(timerTaskCacheData, timerTaskCacheData.getTaskData(), formerOwner);
+					}
+					return null;
+				}
+			});
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Failed to materialize placeholder of task with id "+taskID, e);
+		}
+	}
+	
+	/**
+	 * Retrieves the clock skew of the specified member to compensate.
+	 * @param member
+	 * @return 0 if skews are not compensated
+	 */
+	long getCompensatedSkew(Address member) {
+		final ClockSkewEstimator skewEstimator = this.skewEstimator;
+		return skewEstimator != null ? skewEstimator.getCompensatedSkew(member) : 0L;
+	}
+	
+	/**
+	 * Retrieves the sweeper of orphan tasks.
+	 * @return null if orphan tasks are not swept
+	 */
+	public synchronized OrphanTimerSweeper getSweeper() {
+		return sweeper;
+	}
+	
+	/**
+	 * Sets the sweeper of orphan tasks, replacing and stopping the current
+	 * one, if any.
+	 * 
+	 * @param sweeper
+	 *            the new sweeper, null to not sweep orphan tasks
+	 */
+	public synchronized void setSweeper(OrphanTimerSweeper sweeper) {
+		this.sweeper = SchedulerComponent.replace(this, this.sweeper, sweeper);
+	}
+	
+	/**
+	 * Retrieves a weakly consistent iterator of the ids of all tasks in the
+	 * cache, which streams these in pages, instead of materializing all.
+	 * @return
+	 */
+	Iterator<Serializable> getClusterTaskIDs() {
+		final FaultTolerantSchedulerCacheData cacheData = new FaultTolerantSchedulerCacheData(taskFqnTemplate.getBaseWrapper(),cluster);
+		final SubtreeCursor cursor = cacheData.getTaskIDsCursor(SubtreeCursor.DEFAULT_PAGE_SIZE);
+		return new Iterator<Serializable>() {
+			public boolean hasNext() {
+				return cursor.hasNext();
+			}
+			public Serializable next() {
+				return (Serializable) cursor.next();
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Verifies if the task with the specified id is an orphan, i.e., its owner
+	 * is not one of the specified cluster members.
+	 * 
+	 * @param taskID
+	 * @param members
+	 * @return
+	 */
+	boolean isOrphan(Serializable taskID, Collection<Address> members) {
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+		if (!timerTaskCacheData.exists()) {
+			return false;
+		}
+		final Address owner = timerTaskCacheData.getClusterNodeAddress();
+		return owner != null && !members.contains(owner);
+	}
+	
+	/**
+	 * Takes ownership of an orphan task, and recovers it.
+	 * 
+	 * @param taskID
+	 * @return false if the task data is not available
+	 */
+	boolean adoptOrphan(Serializable taskID) {
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+		if (!timerTaskCacheData.exists()) {
+			return false;
+		}
+		final TimerTaskData taskData = timerTaskCacheData.getTaskData();
+		if (taskData == null) {
+			return false;
+		}
+		final Address formerOwner = timerTaskCacheData.getClusterNodeAddress();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Adopting orphan task with id "+taskID+", owned by "+formerOwner);
+		}
+		timerTaskCacheData.setClusterNodeAddress(cluster.getLocalAddress());
+		recover(timerTaskCacheData, taskData, formerOwner);
+		return true;
+	}
+	
+	/**
+	 * Removes the data of an orphan task from the cache.
+	 * @param taskID
+	 */
+	void removeOrphan(Serializable taskID) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Removing orphan task with id "+taskID);
+		}
+		removeTaskCacheData(taskID);
+	}
+	
+	/**
+	 * Hands over the ownership of a local non periodic task to the specified
+	 * cluster member, which will fire it. The task is fenced so it never fires
+	 * locally once delegated.
+	 * 
+	 * @param taskID
+	 * @param member
+	 * @return false if the task is not local, is periodic, is executing or the
+	 *         ownership change failed
+	 */
+	boolean delegate(final Serializable taskID, final Address member) {
+		final TimerTask task = localRunningTasks.get(taskID);
+		if (task == null || task.getData().getPeriod() > 0 || task.getSetTimerTransactionalAction() != null) {
+			return false;
+		}
+		if (!task.delegate()) {
+			// executing right now
+			return false;
+		}
+		// the epoch bump of the hand over is only atomic in a tx
+		boolean handedOver = false;
+		try {
+			handedOver = Transactions.runInTx(txManager, new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+					if (!timerTaskCacheData.exists()) {
+						return Boolean.FALSE;
+					}
+					timerTaskCacheData.handOverOwnership(member);
+					return Boolean.TRUE;
+				}
+			}).booleanValue();
+		}
+		catch (Exception e) {
+			logger.error("Failed to delegate task with id "+taskID+" to "+member, e);
+		}
+		if (!handedOver) {
+			task.undelegate();
+			return false;
+		}
+		task.disarm();
+		removeLocalRunningTask(taskID);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Delegated task with id "+taskID+" to "+member);
+		}
+		return true;
+	}
+	
+	/**
+	 * Verifies that the specified task is still owned by the local member, and
+	 * that it was armed in the current ownership epoch, otherwise the task is
+	 * stale, i.e., the task was recovered or delegated meanwhile, and it is
+	 * removed locally. The cache is only read if an ownership event was
+	 * received since the task was last verified.
+	 * 
+	 * @param task
+	 * @return false if the task is stale and must not be fired
+	 */
+	boolean isLocallyOwned(TimerTask task) {
+		final long events = ownershipEvents.get();
+		if (task.getOwnershipVerifiedAt() == events) {
+			return true;
+		}
+		final Address localAddress = cluster.getLocalAddress();
+		if (localAddress == null) {
+			return true;
+		}
+		final Serializable taskID = task.getData().getTaskID();
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+		if (!timerTaskCacheData.exists()) {
+			return true;
+		}
+		final Address owner = timerTaskCacheData.getClusterNodeAddress();
+		final long epoch = timerTaskCacheData.getClusterNodeEpoch();
+		if ((owner == null || owner.equals(localAddress)) && epoch <= task.getOwnerEpoch()) {
+			task.setOwnershipVerifiedAt(events);
+			return true;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Task with id "+taskID+" armed in ownership epoch "+task.getOwnerEpoch()+" is stale, current owner is "+owner+" with epoch "+epoch+", dropping fire");
+		}
+		staleFires.incrementAndGet();
+		task.disarm();
+		if (localRunningTasks.get(taskID) == task) {
+			removeLocalRunningTask(taskID);
+		}
+		return false;
+	}
+	
+	/**
+	 * Retrieves the number of fires dropped since the task was stale, i.e.,
+	 * owned by other member or in a newer ownership epoch.
+	 * @return
+	 */
+	public long getStaleFires() {
+		return staleFires.get();
+	}
+	
+	/**
+	 * Retrieves the number of local tasks disarmed since another member won
+	 * its ownership, when reconciling a merge of cluster partitions.
+	 * @return
+	 */
+	public long getLostTasks() {
+		return lostTasks.get();
+	}
+	
+	/**
+	 * Accounts the fire of a local task.
+	 * @param task
+	 */
+	void taskFiring(TimerTask task) {
+		if (namespace != null) {
+			namespace.taskFired();
+		}
+	}
+	
+	/**
+	 * Retrieves the earliest due time of the local tasks.
+	 * @return null if there are no local tasks
+	 */
+	Long getEarliestLocalDueTime() {
+		return localTimeIndex.getEarliestDueTime();
+	}
+	
+	/**
+	 * Stores the next due time of a local periodic task in the cache.
+	 * 
+	 * @param taskID
+	 * @param nextDueTime
+	 * @return true if the task is still running locally and its data was updated
+	 */
+	boolean checkpoint(Serializable taskID, long nextDueTime) {
+		if (!localRunningTasks.containsKey(taskID)) {
+			return false;
+		}
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+		if (timerTaskCacheData.exists()) {
+			timerTaskCacheData.setStartTime(nextDueTime);
+			return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Retrieves local running tasks map.
 	 * @return
@@ -210,6 +843,223 @@ public class FaultTolerantScheduler {
 		return localRunningTasks;
 	}
 	
+	/**
+	 * Adds a task to the local running tasks, if there is no task with same id.
+	 * 
+	 * @param task
+	 * @return the task with same id already running locally, null if the task was added
+	 */
+	TimerTask addLocalRunningTask(TimerTask task) {
+		final TimerTaskData taskData = task.getData();
+		final TimerTask previousTask = localRunningTasks.putIfAbsent(taskData.getTaskID(), task);
+		if (previousTask != null) {
+			// the quota was reserved when the task was scheduled
+			releaseQuota();
+		}
+		else if (taskData.getGroupID() != null) {
+			synchronized (localGroups) {
+				Set<Serializable> group = localGroups.get(taskData.getGroupID());
+				if (group == null) {
+					group = new HashSet<Serializable>();
+					localGroups.put(taskData.getGroupID(), group);
+				}
+				group.add(taskData.getTaskID());
+			}
+		}
+		return previousTask;
+	}
+	
+	/**
+	 * Releases the quota of a local task in the scheduler's namespace, if
+	 * any, reserved when the task was scheduled.
+	 */
+	void releaseQuota() {
+		if (namespace != null) {
+			namespace.release();
+		}
+	}
+	
+	/**
+	 * Removes a task from the local running tasks.
+	 * 
+	 * @param taskID
+	 * @return the task removed, null if there was no such task running locally
+	 */
+	TimerTask removeLocalRunningTask(Serializable taskID) {
+		final TimerTask task = localRunningTasks.remove(taskID);
+		if (task != null) {
+			localTimeIndex.remove(taskID);
+			releaseQuota();
+			final PeriodicTaskCheckpointer checkpointer = this.checkpointer;
+			if (checkpointer != null) {
+				checkpointer.taskRemoved(taskID);
+			}
+			final Serializable groupID = task.getData().getGroupID();
+			if (groupID != null) {
+				synchronized (localGroups) {
+					final Set<Serializable> group = localGroups.get(groupID);
+					if (group != null && group.remove(taskID) && group.isEmpty()) {
+						localGroups.remove(groupID);
+					}
+				}
+			}
+		}
+		return task;
+	}
+	
+	/**
+	 * Indicates that a local periodic task fired, to update its due time in the local time index.
+	 * @param task
+	 */
+	void periodicTaskFired(TimerTask task) {
+		final TimerTaskData taskData = task.getData();
+		final Long dueTime = localTimeIndex.getDueTime(taskData.getTaskID());
+		if (dueTime == null) {
+			// not running locally anymore
+			return;
+		}
+		long nextDueTime;
+		if (taskData.getPeriodicScheduleStrategy() == PeriodicScheduleStrategy.withFixedDelay) {
+			nextDueTime = System.currentTimeMillis() + taskData.getPeriod();
+		}
+		else {
+			nextDueTime = dueTime + taskData.getPeriod();
+		}
+		localTimeIndex.put(taskData.getTaskID(), nextDueTime);
+		final PeriodicTaskCheckpointer checkpointer = this.checkpointer;
+		if (checkpointer != null) {
+			checkpointer.taskFired(taskData.getTaskID(), nextDueTime);
+		}
+	}
+	
+	/**
+	 * Retrieves the cluster wide time index.
+	 * @return null if not enabled
+	 */
+	TimerTaskTimeIndex getClusterTimeIndex() {
+		return clusterTimeIndex;
+	}
+	
+	/**
+	 * Indicates if the cluster wide time index is enabled, allowing
+	 * {@link TimerQueryScope#CLUSTER} queries.
+	 * 
+	 * @return
+	 */
+	public boolean isClusterTimeIndexEnabled() {
+		return clusterTimeIndex != null;
+	}
+	
+	/**
+	 * Enables or disables the cluster wide time index, which allows
+	 * {@link TimerQueryScope#CLUSTER} queries. Once enabled, the index is built
+	 * from the tasks' start time stored in the cache, and then maintained from
+	 * local and replicated cache events, thus its scope is all tasks
+	 * replicated to the local cluster member.
+	 * 
+	 * @param enabled
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void setClusterTimeIndexEnabled(boolean enabled) {
+		if (enabled == isClusterTimeIndexEnabled()) {
+			return;
+		}
+		if (enabled) {
+			final TimerTaskTimeIndex index = new TimerTaskTimeIndex();
+			clusterTimeIndex = index;
+			addCacheListener();
+			if (cacheData.exists()) {
+				for (SubtreeCursor cursor = cacheData.getTaskIDsCursor(SubtreeCursor.DEFAULT_PAGE_SIZE); cursor.hasNext();) {
+					final Object taskID = cursor.next();
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData((Serializable) taskID, taskFqnTemplate, cluster);
+					if (timerTaskCacheData.exists()) {
+						Long startTime = timerTaskCacheData.getStartTime();
+						if (startTime == null) {
+							// data stored without start time, need to retrieve it from task data
+							final TimerTaskData taskData = timerTaskCacheData.getTaskData();
+							if (taskData == null) {
+								continue;
+							}
+							startTime = taskData.getStartTime();
+						}
+						if (index.getDueTime((Serializable) taskID) == null) {
+							index.put((Serializable) taskID, startTime);
+						}
+					}
+				}
+			}
+		}
+		else {
+			clusterTimeIndex = null;
+			removeCacheListener();
+		}
+	}
+	
+	private void addCacheListener() {
+		if (cacheListener == null) {
+			cacheListener = new FaultTolerantSchedulerCacheListener(this, baseFqn);
+			cluster.getMobicentsCache().getJBossCache().addCacheListener(cacheListener);
+		}
+	}
+	
+	private void removeCacheListener() {
+		if (cacheListener != null) {
+			cluster.getMobicentsCache().getJBossCache().removeCacheListener(cacheListener);
+			cacheListener = null;
+		}
+	}
+	
+	/**
+	 * Retrieves the ids of the tasks due in the specified time window, sorted by due time.
+	 * 
+	 * @param from the window start, inclusive
+	 * @param to the window end, exclusive
+	 * @param scope
+	 * @return
+	 * @throws IllegalStateException if the scope is {@link TimerQueryScope#CLUSTER} and the cluster time index is not enabled
+	 */
+	public List<Serializable> getTaskIDsDueBetween(long from, long to, TimerQueryScope scope) throws IllegalStateException {
+		return getTimeIndex(scope).getTaskIDs(from, to);
+	}
+	
+	/**
+	 * Counts the tasks due in the specified time window.
+	 * 
+	 * @param from the window start, inclusive
+	 * @param to the window end, exclusive
+	 * @param scope
+	 * @return
+	 * @throws IllegalStateException if the scope is {@link TimerQueryScope#CLUSTER} and the cluster time index is not enabled
+	 */
+	public int countTasksDueBetween(long from, long to, TimerQueryScope scope) throws IllegalStateException {
+		return getTimeIndex(scope).count(from, to);
+	}
+	
+	/**
+	 * Counts the tasks due from now and until the specified time elapses.
+	 * 
+	 * @param time
+	 * @param unit
+	 * @param scope
+	 * @return
+	 * @throws IllegalStateException if the scope is {@link TimerQueryScope#CLUSTER} and the cluster time index is not enabled
+	 */
+	public int countTasksDueWithin(long time, TimeUnit unit, TimerQueryScope scope) throws IllegalStateException {
+		final long now = System.currentTimeMillis();
+		return countTasksDueBetween(now, now + unit.toMillis(time), scope);
+	}
+	
+	private TimerTaskTimeIndex getTimeIndex(TimerQueryScope scope) throws IllegalStateException {
+		if (scope == TimerQueryScope.LOCAL) {
+			return localTimeIndex;
+		}
+		final TimerTaskTimeIndex index = clusterTimeIndex;
+		if (index == null) {
+			throw new IllegalStateException("cluster time index is not enabled");
+		}
+		return index;
+	}
+	
 	/**
 	 * Retrieves a set containing all local running tasks. Removals on the set
 	 * will not be propagated to the internal state of the scheduler.
@@ -229,6 +1079,14 @@ public class FaultTolerantScheduler {
 		return localRunningTasks.get(taskId);
 	}
 	
+	/**
+	 *  Retrieves the restcomm cluster used by the scheduler.
+	 * @return the cluster
+	 */
+	public MobicentsCluster getCluster() {
+		return cluster;
+	}
+	
 	/**
 	 *  Retrieves the scheduler name.
 	 * @return the name
@@ -267,14 +1125,67 @@ public class FaultTolerantScheduler {
 		schedule(task, true);
 	}
 	/**
-	 * Schedules the specified task.
+	 * Schedules the specified task.
+	 * 
+	 * @param task
+	 * @throws IllegalStateException
+	 *             if the task is already scheduled and checkIfAlreadyPresent is
+	 *             true, or the quota of local tasks, of the scheduler's
+	 *             namespace in a shared engine, is exceeded
+	 */
+	public void schedule(TimerTask task, boolean checkIfAlreadyPresent) throws IllegalStateException {
+		schedule(task, checkIfAlreadyPresent, true);
+	}
+	
+	private void schedule(TimerTask task, boolean checkIfAlreadyPresent, boolean enforceQuota) {
+		
+		final TimerTaskData taskData = task.getData(); 
+		final Serializable taskID = taskData.getTaskID();
+		
+		// the quota is reserved now, and released if the schedule is discarded
+		if (namespace != null && !namespace.reserve(enforceQuota)) {
+			throw new IllegalStateException("quota of " + namespace.getMaxTasks() + " local tasks exceeded in scheduler " + name);
+		}
+		try {
+			store(task, checkIfAlreadyPresent);
+		}
+		catch (RuntimeException e) {
+			releaseQuota();
+			throw e;
+		}
+				
+		// schedule task
+		task.updateStartDeadline();
+		final SetTimerAfterTxCommitRunnable setTimerAction = new SetTimerAfterTxCommitRunnable(task, this);
+		final TransactionContext txContext;
+		try {
+			txContext = getTransactionContext(true);
+		}
+		catch (RuntimeException e) {
+			remove(taskID,true);
+			releaseQuota();
+			throw e;
+		}
+		if (txContext != null) {
+			txContext.put(taskID, setTimerAction);					
+			task.setSetTimerTransactionalAction(setTimerAction);
+		}
+		else {
+			setTimerAction.run();
+		}		
+	}
+	
+	/**
+	 * Stores the data of a task being scheduled in the cache.
 	 * 
 	 * @param task
+	 * @param checkIfAlreadyPresent
 	 */
-	public void schedule(TimerTask task, boolean checkIfAlreadyPresent) {
+	private void store(TimerTask task, boolean checkIfAlreadyPresent) {
 		
 		final TimerTaskData taskData = task.getData(); 
 		final Serializable taskID = taskData.getTaskID();
+		
 		task.setScheduler(this);
 		
 		if (logger.isDebugEnabled()) {
@@ -282,39 +1193,18 @@ public class FaultTolerantScheduler {
 		}
 		
 		// store the task and data
-		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, baseFqn, cluster);
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
 		if (timerTaskCacheData.create()) {
 			timerTaskCacheData.setTaskData(taskData);
+			if (taskData.getGroupID() != null) {
+				new TimerTaskGroupCacheData(taskData.getGroupID(), groupFqnTemplate, cluster).addTask(taskID);
+			}
 		} else if(checkIfAlreadyPresent) {
             throw new IllegalStateException("timer task " + taskID + " already scheduled");
 		}
-				
-		// schedule task
-		final SetTimerAfterTxCommitRunnable setTimerAction = new SetTimerAfterTxCommitRunnable(task, this);
-		if (txManager != null) {
-			try {
-				Transaction tx = txManager.getTransaction();
-				if (tx != null) {
-					TransactionContext txContext = TransactionContextThreadLocal.getTransactionContext();
-					if (txContext == null) {
-						txContext = new TransactionContext();
-						tx.registerSynchronization(new TransactionSynchronization(txContext));
-					}
-					txContext.put(taskID, setTimerAction);					
-					task.setSetTimerTransactionalAction(setTimerAction);
-				}
-				else {
-					setTimerAction.run();
-				}
-			}
-			catch (Throwable e) {
-				remove(taskID,true);
-				throw new RuntimeException("Unable to register tx synchronization object",e);
-			}
-		}
-		else {
-			setTimerAction.run();
-		}		
+		// the task fires only while the ownership epoch does not change
+		task.setOwnershipVerifiedAt(ownershipEvents.get());
+		task.setOwnerEpoch(timerTaskCacheData.getClusterNodeEpoch());
 	}
 
 	/**
@@ -329,10 +1219,10 @@ public class FaultTolerantScheduler {
 			logger.debug("Canceling task with timer id "+taskID);
 		}
 		
-		TimerTask task = localRunningTasks.get(taskID);
+		TimerTask task = getLocalOrPlaceholderTask(taskID);
 		if (task != null) {
 			// remove task data
-			new TimerTaskCacheData(taskID, baseFqn, cluster).remove();
+			removeTaskCacheData(taskID);
 
 			final SetTimerAfterTxCommitRunnable setAction = task.getSetTimerTransactionalAction();
 			if (setAction != null) {
@@ -342,24 +1232,9 @@ public class FaultTolerantScheduler {
 			else {
 				// do cancellation
 				AfterTxCommitRunnable runnable = new CancelTimerAfterTxCommitRunnable(task,this);
-				if (txManager != null) {
-					try {
-						Transaction tx = txManager.getTransaction();
-						if (tx != null) {
-							TransactionContext txContext = TransactionContextThreadLocal.getTransactionContext();
-							if (txContext == null) {
-								txContext = new TransactionContext();
-								tx.registerSynchronization(new TransactionSynchronization(txContext));
-							}
-							txContext.put(taskID, runnable);					
-						}
-						else {
-							runnable.run();
-						}
-					}
-					catch (Throwable e) {
-						throw new RuntimeException("Unable to register tx synchronization object",e);
-					}
+				final TransactionContext txContext = getTransactionContext(true);
+				if (txContext != null) {
+					txContext.put(taskID, runnable);					
 				}
 				else {
 					runnable.run();
@@ -369,47 +1244,523 @@ public class FaultTolerantScheduler {
 		else {
 			// not found locally
 			// if there is a tx context there may be a set timer action there
-			if (txManager != null) {
-				try {
-					Transaction tx = txManager.getTransaction();
-					if (tx != null) {
-						TransactionContext txContext = TransactionContextThreadLocal.getTransactionContext();
-						if (txContext != null) {
-							final AfterTxCommitRunnable r = txContext.remove(taskID);
-							if (r != null) {
-								task = r.task;
-								// remove from cluster
-								new TimerTaskCacheData(taskID, baseFqn, cluster).remove();
-							}							
-						}											
+			final TransactionContext txContext = getTransactionContext(false);
+			if (txContext != null) {
+				final AfterTxCommitRunnable r = txContext.remove(taskID);
+				if (r != null) {
+					if (r.getType() == AfterTxCommitRunnable.Type.SET) {
+						((SetTimerAfterTxCommitRunnable) r).discard();
 					}
+					task = r.task;
+					// remove from cluster
+					removeTaskCacheData(taskID);
+				}							
+			}			
+		}
+		
+		return task;
+	}
+	
+	/**
+	 * Reschedules the task with the specified ID, to start at the specified
+	 * time. The task data is updated in the existing cache node, with a single
+	 * put, and the task moved in the local executor once the tx, if any,
+	 * commits. Only local running tasks, or tasks scheduled in the current tx,
+	 * may be rescheduled.
+	 * 
+	 * @param taskID
+	 * @param newStartTime
+	 * @return the task rescheduled, null if it was not found
+	 */
+	public TimerTask reschedule(Serializable taskID, long newStartTime) {
+		
+		if (logger.isDebugEnabled()) {
+			logger.debug("Rescheduling task with timer id "+taskID+" to start at "+newStartTime);
+		}
+		
+		TimerTask task = getLocalOrPlaceholderTask(taskID);
+		if (task != null) {
+			final TransactionContext txContext = getTransactionContext(true);
+			if (txContext != null) {
+				final AfterTxCommitRunnable r = txContext.get(taskID);
+				if (r != null && r.getType() == AfterTxCommitRunnable.Type.CANCEL) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Task with timer id "+taskID+" was canceled in the current tx, not rescheduling");
+					}
+					return null;
 				}
-				catch (Throwable e) {
-					throw new RuntimeException("Failed to check tx context.",e);
-				}
+				// the start time is restored if the tx rolls back
+				txContext.rescheduling(task);
+			}
+			// update task data, a pending checkpoint of the old schedule is now stale
+			task.getData().setStartTime(newStartTime);
+			task.updateStartDeadline();
+			final PeriodicTaskCheckpointer checkpointer = this.checkpointer;
+			if (checkpointer != null) {
+				checkpointer.taskRemoved(taskID);
+			}
+			final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+			if (timerTaskCacheData.exists()) {
+				timerTaskCacheData.setTaskData(task.getData());
+			}
+			
+			if (task.getSetTimerTransactionalAction() != null) {
+				// we have a tx action scheduled to run when tx commits, to set the timer, it will use the new start time
+				return task;
+			}
+			
+			// move the task in the executor
+			AfterTxCommitRunnable runnable = new RescheduleTimerAfterTxCommitRunnable(task,this);
+			if (txContext != null) {
+				txContext.put(taskID, runnable);					
+			}
+			else {
+				runnable.run();
+			}
+		}
+		else {
+			// not found locally
+			// if there is a tx context there may be a set timer action there
+			final TransactionContext txContext = getTransactionContext(false);
+			if (txContext != null) {
+				final AfterTxCommitRunnable r = txContext.get(taskID);
+				if (r != null && r.getType() == AfterTxCommitRunnable.Type.SET) {
+					task = r.task;
+					txContext.rescheduling(task);
+					task.getData().setStartTime(newStartTime);
+					task.updateStartDeadline();
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+					if (timerTaskCacheData.exists()) {
+						timerTaskCacheData.setTaskData(task.getData());
+					}
+				}							
 			}			
 		}
 		
 		return task;
 	}
 	
+	/**
+	 * Retrieves a local running task, materializing it first if it has a
+	 * claimed placeholder.
+	 * 
+	 * @param taskID
+	 * @return null if the task is not running locally
+	 */
+	private TimerTask getLocalOrPlaceholderTask(Serializable taskID) {
+		final TimerTask task = localRunningTasks.get(taskID);
+		if (task == null) {
+			final BuddyShadowIndex shadowIndex = this.shadowIndex;
+			if (shadowIndex != null && shadowIndex.materializeNow(taskID)) {
+				return localRunningTasks.get(taskID);
+			}
+		}
+		return task;
+	}
+	
+	/**
+	 * Retrieves the context where actions on local timers are deferred, which
+	 * is the one of the current unit of work, if any, otherwise the one of the
+	 * current JTA tx.
+	 * 
+	 * @param create
+	 *            if true and there is a JTA tx without context, a context is
+	 *            created and bound to the tx
+	 * @return null if actions on local timers should be done right away
+	 */
+	private TransactionContext getTransactionContext(boolean create) {
+		final TimerUnitOfWork unitOfWork = this.unitOfWork.get();
+		if (unitOfWork != null) {
+			return unitOfWork.getTransactionContext();
+		}
+		if (txManager == null) {
+			return null;
+		}
+		try {
+			final Transaction tx = txManager.getTransaction();
+			if (tx == null) {
+				return null;
+			}
+			TransactionContext txContext = TransactionContextThreadLocal.getTransactionContext();
+			if (txContext == null && create) {
+				txContext = new TransactionContext();
+				tx.registerSynchronization(new TransactionSynchronization(txContext));
+			}
+			return txContext;
+		}
+		catch (Throwable e) {
+			throw new RuntimeException("Unable to register tx synchronization object",e);
+		}
+	}
+	
+	/**
+	 * Begins a unit of work in the current thread, a lightweight alternative
+	 * to a JTA tx, for applications without a tx manager. All tasks scheduled,
+	 * canceled or rescheduled by the thread are only armed or disarmed locally
+	 * when the unit commits. If the cache has invocation batching enabled the
+	 * cache writes are also done in a single batch, otherwise these are
+	 * applied right away and compensated if the unit rolls back. If the thread
+	 * already has a cache batch, for instance the unit of work of another
+	 * scheduler, the unit joins it, and its local timers are only armed or
+	 * disarmed once that batch ends.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the thread already has a unit of work or a JTA tx
+	 */
+	public void begin() throws IllegalStateException {
+		if (unitOfWork.get() != null) {
+			throw new IllegalStateException("unit of work already begun in current thread");
+		}
+		if (txManager != null) {
+			try {
+				if (txManager.getTransaction() != null) {
+					throw new IllegalStateException("current thread has a JTA tx");
+				}
+			}
+			catch (IllegalStateException e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new RuntimeException("Failed to check current JTA tx",e);
+			}
+		}
+		final Cache jbossCache = cluster.getMobicentsCache().getJBossCache();
+		final boolean batching = jbossCache.getConfiguration().isInvocationBatchingEnabled();
+		Transaction joinedBatch = null;
+		if (batching) {
+			joinedBatch = getActiveBatch(jbossCache);
+			if (joinedBatch == null) {
+				jbossCache.startBatch();
+			}
+		}
+		unitOfWork.set(new TimerUnitOfWork(batching, joinedBatch));
+		if (logger.isDebugEnabled()) {
+			logger.debug(this + " began unit of work, batching = " + batching + ", joined batch = " + (joinedBatch != null));
+		}
+	}
+	
+	/**
+	 * Retrieves the tx of the cache batch active in the current thread.
+	 * @param jbossCache
+	 * @return null if there is no batch active
+	 */
+	@SuppressWarnings("unchecked")
+	private Transaction getActiveBatch(Cache jbossCache) {
+		final TransactionManager batchTxManager = ((CacheSPI) jbossCache).getTransactionManager();
+		if (batchTxManager == null) {
+			return null;
+		}
+		try {
+			return batchTxManager.getTransaction();
+		}
+		catch (Throwable e) {
+			throw new RuntimeException("Failed to check current cache batch",e);
+		}
+	}
+	
+	/**
+	 * Indicates if the current thread has a unit of work.
+	 * @return
+	 */
+	public boolean isUnitOfWorkActive() {
+		return unitOfWork.get() != null;
+	}
+	
+	/**
+	 * Commits the unit of work of the current thread, writing the batched
+	 * cache changes, if any, and arming or disarming the local timers.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the thread has no unit of work
+	 */
+	public void commit() throws IllegalStateException {
+		final TimerUnitOfWork unitOfWork = this.unitOfWork.get();
+		if (unitOfWork == null) {
+			throw new IllegalStateException("no unit of work in current thread");
+		}
+		this.unitOfWork.remove();
+		final Transaction joinedBatch = unitOfWork.getJoinedBatch();
+		if (joinedBatch != null) {
+			// the batch is ended by whoever started it, local timers follow its outcome
+			// not a TransactionSynchronization, which would replace the tx context of the thread's tx
+			final TransactionContext txContext = unitOfWork.getTransactionContext();
+			try {
+				joinedBatch.registerSynchronization(new Synchronization() {
+					public void beforeCompletion() {}
+					public void afterCompletion(int status) {
+						if (status == Status.STATUS_COMMITTED) {
+							txContext.run();
+						}
+						else {
+							txContext.rollback();
+						}
+					}
+				});
+			}
+			catch (Throwable e) {
+				rollback(unitOfWork);
+				throw new RuntimeException("Unable to register batch synchronization object",e);
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug(this + " committed unit of work, pending the end of the joined batch");
+			}
+			return;
+		}
+		if (unitOfWork.isBatching()) {
+			try {
+				cluster.getMobicentsCache().getJBossCache().endBatch(true);
+			}
+			catch (RuntimeException e) {
+				// the cache changes are gone, do not touch local timers
+				rollback(unitOfWork);
+				throw e;
+			}
+		}
+		unitOfWork.getTransactionContext().run();
+		if (logger.isDebugEnabled()) {
+			logger.debug(this + " committed unit of work");
+		}
+	}
+	
+	/**
+	 * Rolls back the unit of work of the current thread. Local timers are left
+	 * untouched, and the cache changes are discarded, if batched, or
+	 * compensated otherwise.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the thread has no unit of work
+	 */
+	public void rollback() throws IllegalStateException {
+		final TimerUnitOfWork unitOfWork = this.unitOfWork.get();
+		if (unitOfWork == null) {
+			throw new IllegalStateException("no unit of work in current thread");
+		}
+		this.unitOfWork.remove();
+		final Transaction joinedBatch = unitOfWork.getJoinedBatch();
+		if (joinedBatch != null) {
+			// the cache writes are shared with the joined batch, which can only be doomed
+			try {
+				joinedBatch.setRollbackOnly();
+			}
+			catch (Throwable e) {
+				logger.error(e.getMessage(),e);
+			}
+		}
+		else if (unitOfWork.isBatching()) {
+			cluster.getMobicentsCache().getJBossCache().endBatch(false);
+		}
+		rollback(unitOfWork);
+		if (logger.isDebugEnabled()) {
+			logger.debug(this + " rolled back unit of work");
+		}
+	}
+	
+	private void rollback(TimerUnitOfWork unitOfWork) {
+		final boolean compensate = !unitOfWork.isBatching();
+		final TransactionContext txContext = unitOfWork.getTransactionContext();
+		final Collection<AfterTxCommitRunnable> runnables = new ArrayList<AfterTxCommitRunnable>(txContext.getRunnables());
+		// restore start times of rescheduled tasks
+		final Set<TimerTask> rescheduledTasks = new HashSet<TimerTask>(txContext.getPreviousStartTimes().keySet());
+		txContext.rollback();
+		if (compensate) {
+			for (TimerTask task : rescheduledTasks) {
+				final Serializable taskID = task.getData().getTaskID();
+				if (localRunningTasks.get(taskID) == task) {
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+					if (timerTaskCacheData.exists()) {
+						timerTaskCacheData.setTaskData(task.getData());
+					}
+				}
+			}
+		}
+		for (AfterTxCommitRunnable r : runnables) {
+			final TimerTaskData taskData = r.task.getData();
+			switch (r.getType()) {
+			case SET:
+				if (compensate) {
+					removeTaskCacheData(taskData.getTaskID());
+				}
+				break;
+			case CANCEL:
+				if (compensate) {
+					final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskData.getTaskID(), taskFqnTemplate, cluster);
+					if (timerTaskCacheData.create()) {
+						timerTaskCacheData.setTaskData(taskData);
+						if (taskData.getGroupID() != null) {
+							new TimerTaskGroupCacheData(taskData.getGroupID(), groupFqnTemplate, cluster).addTask(taskData.getTaskID());
+						}
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Schedules the specified task in the local executor, using its data.
+	 * 
+	 * @param task
+	 * @return the future returned by the executor
+	 */
+	ScheduledFuture<?> arm(TimerTask task) {
+		final TimerTaskData taskData = task.getData();
+		// calculate delay, against the monotonic clock, the wall clock start time is only used for replication
+		long delay = task.getStartDelay();
+		if (delay < 0) {
+			delay = 0;
+		}
+		localTimeIndex.put(taskData.getTaskID(), taskData.getStartTime());
+		// schedule runnable
+		if (taskData.getPeriod() < 0) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Scheduling one-shot timer with id "
+						+ taskData.getTaskID() + ", delay " + TimeUnit.NANOSECONDS.toMillis(delay));
+			}
+			return executor.schedule(task, delay, TimeUnit.NANOSECONDS);
+		} else {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Scheduling periodic timer with id "
+						+ taskData.getTaskID() + ", scheduling strategy " + taskData.getPeriodicScheduleStrategy() + ", delay " + TimeUnit.NANOSECONDS.toMillis(delay) + ", period " + taskData.getPeriod());
+			}
+			final long period = TimeUnit.MILLISECONDS.toNanos(taskData.getPeriod());
+			if (taskData.getPeriodicScheduleStrategy() == PeriodicScheduleStrategy.withFixedDelay) {
+				return executor.scheduleWithFixedDelay(task, delay, period, TimeUnit.NANOSECONDS);
+			}
+			else {
+				// default
+				return executor.scheduleAtFixedRate(task, delay, period, TimeUnit.NANOSECONDS);
+			}					
+		}
+	}
+	
 	void remove(Serializable taskID,boolean removeFromCache) {
 		if(logger.isDebugEnabled())
 		{
 			logger.debug("remove() : "+taskID+" - "+removeFromCache);
 		}
 		
-		localRunningTasks.remove(taskID);
+		removeLocalRunningTask(taskID);
 		if(removeFromCache)
-			new TimerTaskCacheData(taskID, baseFqn, cluster).remove();
+			removeTaskCacheData(taskID);
+	}
+	
+	/**
+	 * Removes the task data from the cache, including the task from its group index.
+	 * @param taskID
+	 */
+	private void removeTaskCacheData(Serializable taskID) {
+		final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+		if (timerTaskCacheData.exists()) {
+			final Serializable groupID = timerTaskCacheData.getGroupID();
+			timerTaskCacheData.remove();
+			if (groupID != null) {
+				new TimerTaskGroupCacheData(groupID, groupFqnTemplate, cluster).removeTask(taskID);
+			}
+		}
+	}
+	
+	/**
+	 * Retrieves the ids of all tasks in the specified group, in the cluster.
+	 * The cost is proportional to the group size.
+	 * 
+	 * @param groupID
+	 * @return
+	 */
+	public Set<Serializable> getGroup(Serializable groupID) {
+		final Set<Serializable> taskIDs = new TimerTaskGroupCacheData(groupID, groupFqnTemplate, cluster).getTaskIDs();
+		synchronized (localGroups) {
+			final Set<Serializable> localGroup = localGroups.get(groupID);
+			if (localGroup != null) {
+				taskIDs.addAll(localGroup);
+			}
+		}
+		return taskIDs;
 	}
 	
 	/**
-	 * Recovers a timer task that was running in another node.
+	 * Retrieves the local running tasks in the specified group. 
 	 * 
+	 * @param groupID
+	 * @return
+	 */
+	public Set<TimerTask> getLocalGroup(Serializable groupID) {
+		final Set<TimerTask> tasks = new HashSet<TimerTask>();
+		synchronized (localGroups) {
+			final Set<Serializable> localGroup = localGroups.get(groupID);
+			if (localGroup != null) {
+				for (Serializable taskID : localGroup) {
+					final TimerTask task = localRunningTasks.get(taskID);
+					if (task != null) {
+						tasks.add(task);
+					}
+				}
+			}
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Cancels all tasks in the specified group, in the cluster. Local tasks
+	 * are canceled as in {@link #cancel(Serializable)}, tasks running in other
+	 * cluster members are removed from the cache, which makes the owner cancel
+	 * them. The cost is proportional to the group size.
+	 * 
+	 * @param groupID
+	 * @return the ids of the tasks canceled
+	 */
+	public Set<Serializable> cancelGroup(Serializable groupID) {
+		
+		if (logger.isDebugEnabled()) {
+			logger.debug("Canceling tasks of group with id "+groupID);
+		}
+		
+		final Set<Serializable> taskIDs = getGroup(groupID);
+		for (Serializable taskID : taskIDs) {
+			if (cancel(taskID) == null) {
+				// not running locally
+				removeTaskCacheData(taskID);
+			}
+		}
+		return taskIDs;
+	}
+	
+	/**
+	 * Recovers a timer task that was running in another node, resuming it from
+	 * its checkpointed start time, if it is a periodic task.
+	 * 
+	 * Times were set with the clock of the former owner, if known, and are
+	 * corrected by its skew estimate. A corrected start time is written back
+	 * to the cache, in the tx of the ownership change, if any, thus a later
+	 * owner does not apply the skew of the wrong member.
+	 * 
+	 * @param timerTaskCacheData
 	 * @param taskData
+	 * @param formerOwner
 	 */
-	private void recover(TimerTaskData taskData) {
+	private void recover(TimerTaskCacheData timerTaskCacheData, TimerTaskData taskData, Address formerOwner) {
+		final long storedStartTime = taskData.getStartTime();
+		final Long checkpointedStartTime = timerTaskCacheData.getStartTime();
+		if (taskData.getPeriod() > 0 && checkpointedStartTime != null && checkpointedStartTime > taskData.getStartTime()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Resuming task with id "+taskData.getTaskID()+" from checkpointed start time "+checkpointedStartTime);
+			}
+			taskData.setStartTime(checkpointedStartTime);
+		}
+		final ClockSkewEstimator skewEstimator = this.skewEstimator;
+		if (skewEstimator != null && formerOwner != null) {
+			final long skew = skewEstimator.getCompensatedSkew(formerOwner);
+			if (skew != 0L) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Correcting start time of task with id "+taskData.getTaskID()+" by clock skew "+skew+" of former owner "+formerOwner);
+				}
+				taskData.setStartTime(taskData.getStartTime() - skew);
+			}
+		}
+		if (taskData.getStartTime() != storedStartTime) {
+			timerTaskCacheData.setTaskData(taskData);
+		}
 		TimerTask task = timerTaskFactory.newTimerTask(taskData);
 		if(task != null) {
 			if (logger.isDebugEnabled()) {
@@ -417,8 +1768,8 @@ public class FaultTolerantScheduler {
 			}
 			task.beforeRecover();
 			// on recovery the task will already be in the cache so we don't check for it
-			// or an IllegalStateException will be thrown
-			schedule(task, false);
+			// or an IllegalStateException will be thrown, nor enforce the quota, the task must not be lost
+			schedule(task, false, false);
 		}
 	}
 
@@ -429,8 +1780,37 @@ public class FaultTolerantScheduler {
 		cluster.removeFailOverListener(clusterClientLocalListener);
 		cluster.removeDataRemovalListener(clusterClientLocalListener);
 		
-		executor.shutdownNow();
+		setWatchdog(null);
+		setPoolSizer(null);
+		setCheckpointer(null);
+		setDelegator(null);
+		setSkewEstimator(null);
+		setSweeper(null);
+		setShadowIndex(null);
+		setClusterTimeIndexEnabled(false);
+		synchronized (this) {
+			if (maintenanceExecutor != null) {
+				maintenanceExecutor.shutdownNow();
+				maintenanceExecutor = null;
+			}
+		}
+		
+		if (engine == null) {
+			executor.shutdownNow();
+		}
+		else {
+			// the executor is shared, only cancel the scheduler's tasks
+			for (TimerTask task : localRunningTasks.values()) {
+				task.disarm();
+			}
+			namespace.clear();
+			engine.unregister(name);
+		}
 		localRunningTasks.clear();
+		localTimeIndex.clear();
+		synchronized (localGroups) {
+			localGroups.clear();
+		}
 	}
 	
 	@Override
@@ -439,14 +1819,14 @@ public class FaultTolerantScheduler {
 	}
 	
 	public String toDetailedString() {		
-		return "FaultTolerantScheduler [ name = "+name+" , local tasks = "+localRunningTasks.size()+" , all tasks "+cacheData.getTaskIDs().size()+" ]";
+		return "FaultTolerantScheduler [ name = "+name+" , local tasks = "+localRunningTasks.size()+" , all tasks "+cacheData.getTaskCount()+" ]";
 	}
 	
 	public void stop() {
 		this.shutdownNow();		
 	}
 	
-	private class ClientLocalListener implements FailOverListener, DataRemovalListener {
+	private class ClientLocalListener implements FailOverCompletionListener, DeferredTakeOverListener, DataRemovalListener {
 
 		/**
 		 * the priority of the scheduler as a client local listener of the restcomm cluster
@@ -466,7 +1846,7 @@ public class FaultTolerantScheduler {
 		 */
 		@SuppressWarnings("unchecked")
 		public FqnWrapper getBaseFqn() {
-			return new FqnWrapper(baseFqn);
+			return taskFqnTemplate.getBaseWrapper();
 		}
 
 		/*
@@ -490,7 +1870,31 @@ public class FaultTolerantScheduler {
 		 * @see FailOverListener#failOverClusterMember(org.jgroups.Address)
 		 */
 		public void failOverClusterMember(Address address) {
-			
+			ownershipEvents.incrementAndGet();
+			// the member's tasks are now recovered by this thread
+			failingOverMember.set(address);
+			final BuddyShadowIndex shadowIndex = FaultTolerantScheduler.this.shadowIndex;
+			if (shadowIndex != null) {
+				shadowIndex.armPlaceholders(address);
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see FailOverCompletionListener#failOverClusterMemberCompleted(org.jgroups.Address)
+		 */
+		public void failOverClusterMemberCompleted(Address address) {
+			// later ownership changes in this thread are not recoveries of the member
+			failingOverMember.remove();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see DeferredTakeOverListener#deferTakeOver(org.jgroups.Address, java.lang.Object)
+		 */
+		public boolean deferTakeOver(Address lostMember, Object dataName) {
+			final BuddyShadowIndex shadowIndex = FaultTolerantScheduler.this.shadowIndex;
+			return shadowIndex != null && shadowIndex.deferTakeOver(lostMember, (Serializable) dataName);
 		}
 		
 		/* 
@@ -499,6 +1903,27 @@ public class FaultTolerantScheduler {
 		 */
 		public void lostOwnership(ClusteredCacheData clusteredCacheData) {
 			
+			if (logger.isDebugEnabled()) {
+				logger.debug("lostOwnership( clusterCacheData = "+clusteredCacheData+")");
+			}
+			ownershipEvents.incrementAndGet();
+			
+			try {
+				Serializable taskID = TimerTaskCacheData.getTaskID(clusteredCacheData);
+				final BuddyShadowIndex shadowIndex = FaultTolerantScheduler.this.shadowIndex;
+				if (shadowIndex != null) {
+					shadowIndex.taskRemoved(taskID);
+				}
+				// the cache data now belongs to the winner, only the local task is disarmed
+				final TimerTask task = removeLocalRunningTask(taskID);
+				if (task != null) {
+					task.cancel();
+					lostTasks.incrementAndGet();
+				}
+			}
+			catch (Throwable e) {
+				logger.error(e.getMessage(),e);
+			}
 		}
 
 		/* 
@@ -510,11 +1935,17 @@ public class FaultTolerantScheduler {
 			if (logger.isDebugEnabled()) {
 				logger.debug("wonOwnership( clusterCacheData = "+clusteredCacheData+")");
 			}
+			ownershipEvents.incrementAndGet();
 
 			try {
 				Serializable taskID = TimerTaskCacheData.getTaskID(clusteredCacheData);
-				TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, baseFqn, cluster);
-				recover(timerTaskCacheData.getTaskData());
+				final BuddyShadowIndex shadowIndex = FaultTolerantScheduler.this.shadowIndex;
+				if (shadowIndex != null && shadowIndex.claim(taskID)) {
+					// a placeholder is armed, the task is recovered when due
+					return;
+				}
+				TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData(taskID, taskFqnTemplate, cluster);
+				recover(timerTaskCacheData, timerTaskCacheData.getTaskData(), failingOverMember.get());
 			}
 			catch (Throwable e) {
 				logger.error(e.getMessage(),e);
@@ -532,7 +1963,11 @@ public class FaultTolerantScheduler {
 			if (logger.isDebugEnabled()) {
 				logger.debug("remote notification dataRemoved( clusterCacheDataFqn = "+clusteredCacheDataFqn+"), lastElement " + lastElement);
 			}
-			final TimerTask task = localRunningTasks.remove(lastElement);
+			final BuddyShadowIndex shadowIndex = FaultTolerantScheduler.this.shadowIndex;
+			if (shadowIndex != null) {
+				shadowIndex.taskRemoved((Serializable) lastElement);
+			}
+			final TimerTask task = removeLocalRunningTask((Serializable) lastElement);
 			if (task != null) {
 				if (logger.isDebugEnabled()) {
 					logger.debug("remote notification dataRemoved( task = "+task.getData().getTaskID()+" removed locally cancelling it");
@@ -0,0 +1,93 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.jboss.cache.Fqn;
+import org.jboss.cache.notifications.annotation.CacheListener;
+import org.jboss.cache.notifications.annotation.NodeModified;
+import org.jboss.cache.notifications.annotation.NodeRemoved;
+import org.jboss.cache.notifications.event.NodeModifiedEvent;
+import org.jboss.cache.notifications.event.NodeRemovedEvent;
+import org.restcomm.timers.cache.TimerTaskCacheData;
+
+/**
+ * Listener of cache events on the timer task nodes of a
+ * {@link FaultTolerantScheduler}, both local and replicated, used to maintain
+ * the scheduler's cluster wide time index. The listener is synchronous, so
+ * the events of a node are applied to the index in the order they happen,
+ * the index updates are cheap.
+ * 
+ */
+@CacheListener(sync = true)
+public class FaultTolerantSchedulerCacheListener {
+
+	private final FaultTolerantScheduler scheduler;
+	
+	@SuppressWarnings("unchecked")
+	private final Fqn baseFqn;
+
+	@SuppressWarnings("unchecked")
+	FaultTolerantSchedulerCacheListener(FaultTolerantScheduler scheduler, Fqn baseFqn) {
+		this.scheduler = scheduler;
+		this.baseFqn = baseFqn;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Serializable getTaskID(Fqn fqn) {
+		if (fqn.size() == baseFqn.size() + 1 && fqn.isChildOf(baseFqn)) {
+			return (Serializable) fqn.getLastElement();
+		}
+		return null;
+	}
+
+	@NodeModified
+	public void onNodeModifiedEvent(NodeModifiedEvent event) {
+		if (event.isPre()) {
+			return;
+		}
+		final Serializable taskID = getTaskID(event.getFqn());
+		if (taskID != null) {
+			final Long startTime = TimerTaskCacheData.getStartTime((Map<?,?>) event.getData());
+			if (startTime != null) {
+				final TimerTaskTimeIndex clusterTimeIndex = scheduler.getClusterTimeIndex();
+				if (clusterTimeIndex != null) {
+					clusterTimeIndex.put(taskID, startTime);
+				}
+			}
+		}
+	}
+
+	@NodeRemoved
+	public void onNodeRemovedEvent(NodeRemovedEvent event) {
+		if (event.isPre()) {
+			return;
+		}
+		final Serializable taskID = getTaskID(event.getFqn());
+		if (taskID != null) {
+			final TimerTaskTimeIndex clusterTimeIndex = scheduler.getClusterTimeIndex();
+			if (clusterTimeIndex != null) {
+				clusterTimeIndex.remove(taskID);
+			}
+		}
+	}
+}
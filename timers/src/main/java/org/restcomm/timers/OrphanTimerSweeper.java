@@ -0,0 +1,290 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jgroups.Address;
+import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.cluster.Transactions;
+
+/**
+ * Sweeps the cache data of a {@link FaultTolerantScheduler} for orphan timer
+ * tasks, i.e. tasks owned by a member which is not in the cluster view, left
+ * behind when no member took them over, e.g. due to a failed take over tx.
+ * 
+ * The sweep is incremental: each run checks at most a configured number of
+ * tasks, from a live cursor over the task ids, and stops at the end of the
+ * cursor, which is reopened on the next run, thus a run never makes more than
+ * one pass. A task is only considered an orphan once found in two
+ * consecutive passes, at least a sweep period apart, so a take over still in
+ * progress is not disturbed. Orphans are then adopted by the local member, or
+ * removed, by policy. Only the head member of the cluster sweeps.
+ * 
+ */
+public class OrphanTimerSweeper extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(OrphanTimerSweeper.class);
+
+	/**
+	 * what is done with an orphan task
+	 */
+	public enum Policy {
+		/**
+		 * the local member takes ownership of the task, and schedules it
+		 */
+		ADOPT,
+		/**
+		 * the task data is removed from the cache
+		 */
+		REMOVE
+	}
+
+	/**
+	 * the time, in milliseconds, between sweeps
+	 */
+	private final long sweepPeriod;
+
+	/**
+	 * the max number of tasks checked per sweep
+	 */
+	private final int maxTasksPerSweep;
+
+	/**
+	 * what is done with orphan tasks
+	 */
+	private final Policy policy;
+
+	private final AtomicLong checkedTasks = new AtomicLong(0);
+	private final AtomicLong passes = new AtomicLong(0);
+	private final AtomicLong adoptedTasks = new AtomicLong(0);
+	private final AtomicLong removedTasks = new AtomicLong(0);
+	private final AtomicLong failedSweeps = new AtomicLong(0);
+
+	/**
+	 * the cursor over the task ids of the current pass
+	 */
+	private Iterator<Serializable> cursor;
+
+	/**
+	 * the orphan suspects found, and when first found
+	 */
+	private Map<Serializable, Suspicion> suspects = new HashMap<Serializable, Suspicion>();
+
+
+	/**
+	 * 
+	 * @param sweepPeriod
+	 *            the time, in milliseconds, between sweeps
+	 * @param maxTasksPerSweep
+	 *            the max number of tasks checked per sweep
+	 * @param policy
+	 *            what is done with orphan tasks
+	 */
+	public OrphanTimerSweeper(long sweepPeriod, int maxTasksPerSweep, Policy policy) {
+		if (sweepPeriod <= 0) {
+			throw new IllegalArgumentException("sweep period must be positive");
+		}
+		if (maxTasksPerSweep <= 0) {
+			throw new IllegalArgumentException("max tasks per sweep must be positive");
+		}
+		if (policy == null) {
+			throw new NullPointerException("null policy");
+		}
+		this.sweepPeriod = sweepPeriod;
+		this.maxTasksPerSweep = maxTasksPerSweep;
+		this.policy = policy;
+	}
+
+	public long getSweepPeriod() {
+		return sweepPeriod;
+	}
+
+	public int getMaxTasksPerSweep() {
+		return maxTasksPerSweep;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Retrieves the number of tasks checked.
+	 * @return
+	 */
+	public long getCheckedTasks() {
+		return checkedTasks.get();
+	}
+
+	/**
+	 * Retrieves the number of complete passes over the scheduler's tasks.
+	 * @return
+	 */
+	public long getPasses() {
+		return passes.get();
+	}
+
+	/**
+	 * Retrieves the number of orphan tasks adopted.
+	 * @return
+	 */
+	public long getAdoptedTasks() {
+		return adoptedTasks.get();
+	}
+
+	/**
+	 * Retrieves the number of orphan tasks removed.
+	 * @return
+	 */
+	public long getRemovedTasks() {
+		return removedTasks.get();
+	}
+
+	/**
+	 * Retrieves the number of sweeps which failed.
+	 * @return
+	 */
+	public long getFailedSweeps() {
+		return failedSweeps.get();
+	}
+
+	@Override
+	long getPeriod() {
+		return sweepPeriod;
+	}
+
+	@Override
+	void runPeriodically() {
+		sweep();
+	}
+
+	private void sweep() {
+		final MobicentsCluster cluster = scheduler.getCluster();
+		if (cluster.getLocalAddress() == null || !cluster.isHeadMember()) {
+			// local mode, or other member sweeps, start from scratch if becoming head
+			cursor = null;
+			suspects.clear();
+			return;
+		}
+		final List<Address> members = cluster.getClusterMembers();
+		final int[] result;
+		try {
+			result = Transactions.runInTx(scheduler.getTransactionManager(), new Callable<int[]>() {
+				public int[] call() throws Exception {
+					return sweep(members);
+				}
+			});
+		}
+		catch (Exception e) {
+			logger.error("failed to sweep orphan tasks of " + scheduler, e);
+			failedSweeps.incrementAndGet();
+			return;
+		}
+		final int adopted = result[0];
+		final int removed = result[1];
+		adoptedTasks.addAndGet(adopted);
+		removedTasks.addAndGet(removed);
+		if ((adopted > 0 || removed > 0) && logger.isDebugEnabled()) {
+			logger.debug(scheduler + " sweeper adopted " + adopted + " and removed " + removed + " orphan tasks");
+		}
+	}
+
+	/**
+	 * Checks the next tasks of the cursor, up to the max per sweep.
+	 * 
+	 * @param members
+	 *            the cluster members
+	 * @return the number of tasks adopted and removed
+	 */
+	private int[] sweep(List<Address> members) {
+		int adopted = 0;
+		int removed = 0;
+		if (cursor == null) {
+			cursor = scheduler.getClusterTaskIDs();
+		}
+		final long pass = passes.get();
+		final long now = System.currentTimeMillis();
+		int checked = 0;
+		while (checked < maxTasksPerSweep && cursor.hasNext()) {
+			final Serializable taskID = cursor.next();
+			checked++;
+			if (!scheduler.isOrphan(taskID, members)) {
+				suspects.remove(taskID);
+				continue;
+			}
+			final Suspicion suspicion = suspects.get(taskID);
+			if (suspicion == null) {
+				// first sighting, wait for the next pass
+				suspects.put(taskID, new Suspicion(pass, now));
+				continue;
+			}
+			if (suspicion.pass == pass || now - suspicion.since < sweepPeriod) {
+				// too soon, the take over may still be in progress
+				suspicion.pass = pass;
+				continue;
+			}
+			suspects.remove(taskID);
+			if (policy == Policy.ADOPT) {
+				if (scheduler.adoptOrphan(taskID)) {
+					adopted++;
+				}
+			}
+			else {
+				scheduler.removeOrphan(taskID);
+				removed++;
+			}
+		}
+		checkedTasks.addAndGet(checked);
+		if (!cursor.hasNext()) {
+			// end of the pass, the next sweep starts a new one
+			cursor = null;
+			passes.incrementAndGet();
+			// only suspects found in this pass remain
+			for (Iterator<Suspicion> it = suspects.values().iterator(); it.hasNext();) {
+				if (it.next().pass < pass) {
+					it.remove();
+				}
+			}
+		}
+		return new int[] { adopted, removed };
+	}
+
+	/**
+	 * An orphan suspect, the last pass where found and when first found.
+	 */
+	private static class Suspicion {
+
+		private long pass;
+
+		private final long since;
+
+		Suspicion(long pass, long since) {
+			this.pass = pass;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.restcomm.cluster.Transactions;
+
+/**
+ * Records the progress of periodic timer tasks in the cache, so that a task
+ * recovered after fail over resumes from its last fire, instead of its
+ * original start time.
+ * 
+ * Fires only update a pending checkpoint per task, which a background job
+ * writes to the cache periodically, at most a configured number of
+ * checkpoints per flush and all in the same tx, thus a task firing several
+ * times between flushes costs a single cache write.
+ * 
+ */
+public class PeriodicTaskCheckpointer extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(PeriodicTaskCheckpointer.class);
+
+	/**
+	 * the time, in milliseconds, between flushes
+	 */
+	private final long flushPeriod;
+
+	/**
+	 * the max number of checkpoints written per flush
+	 */
+	private final int maxCheckpointsPerFlush;
+
+	/**
+	 * the pending checkpoints, the next due time per task id
+	 */
+	private final ConcurrentHashMap<Serializable, Long> pendingCheckpoints = new ConcurrentHashMap<Serializable, Long>();
+
+	private final AtomicLong recordedFires = new AtomicLong(0);
+	private final AtomicLong writtenCheckpoints = new AtomicLong(0);
+	private final AtomicLong flushes = new AtomicLong(0);
+	private final AtomicLong failedFlushes = new AtomicLong(0);
+
+
+	/**
+	 * 
+	 * @param flushPeriod
+	 *            the time, in milliseconds, between flushes
+	 * @param maxCheckpointsPerFlush
+	 *            the max number of checkpoints written per flush
+	 */
+	public PeriodicTaskCheckpointer(long flushPeriod, int maxCheckpointsPerFlush) {
+		if (flushPeriod <= 0) {
+			throw new IllegalArgumentException("flush period must be positive");
+		}
+		if (maxCheckpointsPerFlush <= 0) {
+			throw new IllegalArgumentException("max checkpoints per flush must be positive");
+		}
+		this.flushPeriod = flushPeriod;
+		this.maxCheckpointsPerFlush = maxCheckpointsPerFlush;
+	}
+
+	public long getFlushPeriod() {
+		return flushPeriod;
+	}
+
+	public int getMaxCheckpointsPerFlush() {
+		return maxCheckpointsPerFlush;
+	}
+
+	/**
+	 * Retrieves the number of periodic task fires recorded.
+	 * @return
+	 */
+	public long getRecordedFires() {
+		return recordedFires.get();
+	}
+
+	/**
+	 * Retrieves the number of checkpoints written to the cache.
+	 * @return
+	 */
+	public long getWrittenCheckpoints() {
+		return writtenCheckpoints.get();
+	}
+
+	/**
+	 * Retrieves the number of flushes done.
+	 * @return
+	 */
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * Retrieves the number of flushes which failed.
+	 * @return
+	 */
+	public long getFailedFlushes() {
+		return failedFlushes.get();
+	}
+
+	/**
+	 * Retrieves the number of checkpoints waiting to be written.
+	 * @return
+	 */
+	public int getPendingCheckpoints() {
+		return pendingCheckpoints.size();
+	}
+
+	@Override
+	long getPeriod() {
+		return flushPeriod;
+	}
+
+	@Override
+	void runPeriodically() {
+		flush();
+	}
+
+	/**
+	 * Stops checkpointing, pending checkpoints are discarded.
+	 */
+	@Override
+	void stopped() {
+		pendingCheckpoints.clear();
+	}
+
+	/**
+	 * Records that a periodic task fired.
+	 * @param taskID
+	 * @param nextDueTime
+	 */
+	void taskFired(Serializable taskID, long nextDueTime) {
+		recordedFires.incrementAndGet();
+		pendingCheckpoints.put(taskID, nextDueTime);
+	}
+
+	/**
+	 * Discards the pending checkpoint of the specified task, if any.
+	 * @param taskID
+	 */
+	void taskRemoved(Serializable taskID) {
+		pendingCheckpoints.remove(taskID);
+	}
+
+	private void flush() {
+		if (pendingCheckpoints.isEmpty()) {
+			return;
+		}
+		flushes.incrementAndGet();
+		// the checkpoints taken from the pending ones, requeued if the tx does not commit
+		final Map<Serializable, Long> taken = new HashMap<Serializable, Long>();
+		final int written;
+		try {
+			written = Transactions.runInTx(scheduler.getTransactionManager(), new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int count = 0;
+					final Iterator<Map.Entry<Serializable, Long>> it = pendingCheckpoints.entrySet().iterator();
+					while (it.hasNext() && count < maxCheckpointsPerFlush) {
+						final Map.Entry<Serializable, Long> entry = it.next();
+						final Serializable taskID = entry.getKey();
+						final Long nextDueTime = entry.getValue();
+						// only remove if not updated meanwhile
+						if (pendingCheckpoints.remove(taskID, nextDueTime)) {
+							taken.put(taskID, nextDueTime);
+							if (scheduler.checkpoint(taskID, nextDueTime)) {
+								count++;
+							}
+						}
+					}
+					return Integer.valueOf(count);
+				}
+			}).intValue();
+		}
+		catch (Exception e) {
+			logger.error("failed to flush periodic task checkpoints of " + scheduler, e);
+			failedFlushes.incrementAndGet();
+			// a newer checkpoint of the task, recorded meanwhile, prevails
+			for (Map.Entry<Serializable, Long> entry : taken.entrySet()) {
+				pendingCheckpoints.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+			return;
+		}
+		writtenCheckpoints.addAndGet(written);
+		if (logger.isDebugEnabled()) {
+			logger.debug(scheduler + " checkpointed " + written + " periodic tasks, " + pendingCheckpoints.size() + " pending");
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A pluggable component of a {@link FaultTolerantScheduler}, started when set
+ * in the scheduler, and stopped when replaced. A component may have a job,
+ * run periodically by the scheduler's maintenance executor while started.
+ * 
+ */
+abstract class SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(SchedulerComponent.class);
+
+	/**
+	 * the scheduler the component was started for, null if never started
+	 */
+	FaultTolerantScheduler scheduler;
+
+	private boolean running;
+
+	private ScheduledFuture<?> future;
+
+	/**
+	 * Starts the component for the specified scheduler.
+	 * 
+	 * @param scheduler
+	 * @throws IllegalStateException
+	 *             if the component was already started
+	 */
+	final synchronized void start(FaultTolerantScheduler scheduler) throws IllegalStateException {
+		if (this.scheduler != null) {
+			throw new IllegalStateException(getClass().getSimpleName() + " already started");
+		}
+		this.scheduler = scheduler;
+		this.running = true;
+		started();
+		final long period = getPeriod();
+		if (period > 0) {
+			final Runnable r = new Runnable() {
+				public void run() {
+					try {
+						runPeriodically();
+					}
+					catch (Throwable e) {
+						logger.error(SchedulerComponent.this.getClass().getSimpleName() + " of " + SchedulerComponent.this.scheduler + " failed", e);
+					}
+				}
+			};
+			future = scheduler.getMaintenanceExecutor().scheduleWithFixedDelay(r, getInitialDelay(), period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the component, if running.
+	 */
+	final synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+		}
+		stopped();
+	}
+
+	/**
+	 * Invoked when the component starts, before its periodic job is scheduled.
+	 */
+	void started() {
+	}
+
+	/**
+	 * Invoked when the component stops, after its periodic job is canceled.
+	 */
+	void stopped() {
+	}
+
+	/**
+	 * Retrieves the time, in milliseconds, between runs of the periodic job.
+	 * 
+	 * @return 0 if the component has no periodic job
+	 */
+	long getPeriod() {
+		return 0L;
+	}
+
+	/**
+	 * Retrieves the time, in milliseconds, before the first run of the
+	 * periodic job.
+	 * 
+	 * @return
+	 */
+	long getInitialDelay() {
+		return getPeriod();
+	}
+
+	/**
+	 * The periodic job of the component.
+	 */
+	void runPeriodically() {
+	}
+
+	/**
+	 * Replaces a component of the specified scheduler, stopping the current
+	 * one, if any, and starting the new one, if any.
+	 * 
+	 * @param scheduler
+	 * @param current
+	 * @param replacement
+	 * @return the replacement
+	 */
+	static <T extends SchedulerComponent> T replace(FaultTolerantScheduler scheduler, T current, T replacement) {
+		if (current != null) {
+			current.stop();
+		}
+		if (replacement != null) {
+			replacement.start(scheduler);
+		}
+		return replacement;
+	}
+}
@@ -22,8 +22,6 @@
 
 package org.restcomm.timers;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.log4j.Logger;
 
 
@@ -65,7 +63,7 @@ public class SetTimerAfterTxCommitRunnable extends AfterTxCommitRunnable {
 		
 		if (!canceled) {
 			
-			TimerTask previousTask = scheduler.getLocalRunningTasksMap().putIfAbsent(task.getData().getTaskID(), task);
+			TimerTask previousTask = scheduler.addLocalRunningTask(task);
 			if(previousTask != null) {
 				if (logger.isDebugEnabled()) {
 					logger.debug("A task with id " + task.getData().getTaskID() + " has already been added to the local tasks, not rescheduling");
@@ -73,33 +71,8 @@ public class SetTimerAfterTxCommitRunnable extends AfterTxCommitRunnable {
 			}
 			
 			final TimerTaskData taskData = task.getData();
-			// calculate delay
-			long delay = taskData.getStartTime() - System.currentTimeMillis();
-			if (delay < 0) {
-				delay = 0;
-			}
-			
 			try {
-				// schedule runnable
-				if (taskData.getPeriod() < 0) {
-					if (logger.isDebugEnabled()) {
-						logger.debug("Scheduling one-shot timer with id "
-								+ task.getData().getTaskID() + ", delay " + delay);
-					}
-					task.setScheduledFuture(scheduler.getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS));
-				} else {
-					if (logger.isDebugEnabled()) {
-						logger.debug("Scheduling periodic timer with id "
-								+ task.getData().getTaskID() + ", scheduling strategy " + taskData.getPeriodicScheduleStrategy() + ", delay " + delay + ", period " + taskData.getPeriod());
-					}
-					if (taskData.getPeriodicScheduleStrategy() == PeriodicScheduleStrategy.withFixedDelay) {
-						task.setScheduledFuture(scheduler.getExecutor().scheduleWithFixedDelay(task, delay, taskData.getPeriod(),TimeUnit.MILLISECONDS));
-					}
-					else {
-						// default
-						task.setScheduledFuture(scheduler.getExecutor().scheduleAtFixedRate(task, delay, taskData.getPeriod(),TimeUnit.MILLISECONDS));
-					}					
-				}		
+				task.setScheduledFuture(scheduler.arm(task));
 			} catch (Throwable e) {
 				logger.error(e.getMessage(), e);
 				scheduler.remove(taskData.getTaskID(),true);
@@ -116,8 +89,20 @@ public class SetTimerAfterTxCommitRunnable extends AfterTxCommitRunnable {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Canceling set timer action for task with timer id "+task.getData().getTaskID());
 		}
-		canceled = true;
+		discard();
 		scheduler.remove(task.getData().getTaskID(),true);
 	}
 
+	/**
+	 * Discards the action, since the task was canceled or the tx rolled
+	 * back, releasing the quota reserved when the task was scheduled.
+	 */
+	void discard() {
+		task.setSetTimerTransactionalAction(null);
+		if (!canceled) {
+			canceled = true;
+			scheduler.releaseQuota();
+		}
+	}
+
 }
@@ -0,0 +1,320 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An engine of timer threads shared by multiple {@link FaultTolerantScheduler}
+ * instances, so the number of threads does not grow with the number of
+ * schedulers.
+ * 
+ * Each scheduler registers in the engine with its own namespace, its name,
+ * which has a quota of local tasks and metrics.
+ * 
+ */
+public class SharedTimerEngine {
+
+	private static final Logger logger = Logger.getLogger(SharedTimerEngine.class);
+
+	/**
+	 * the engine name
+	 */
+	private final String name;
+
+	/**
+	 * the executor of timer tasks, shared by all schedulers
+	 */
+	private final ScheduledThreadPoolExecutor executor;
+	
+	/**
+	 * the owner of the executor's core pool size
+	 */
+	private final WorkerPoolSize workerPoolSize;
+
+	/**
+	 * single thread executor for the maintenance jobs of all schedulers
+	 */
+	private final ScheduledExecutorService maintenanceExecutor;
+
+	/**
+	 * the namespaces registered, by name
+	 */
+	private final ConcurrentHashMap<String, Namespace> namespaces = new ConcurrentHashMap<String, Namespace>();
+
+	/**
+	 * 
+	 * @param name
+	 * @param corePoolSize
+	 */
+	public SharedTimerEngine(String name, int corePoolSize) {
+		this(name, corePoolSize, 0, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @param corePoolSize
+	 * @param purgePeriod
+	 *            the period, in minutes, to purge canceled tasks from the
+	 *            executor queue, 0 to not purge
+	 * @param threadFactory
+	 */
+	public SharedTimerEngine(final String name, int corePoolSize, int purgePeriod, ThreadFactory threadFactory) {
+		this.name = name;
+		this.executor = FaultTolerantScheduler.newExecutor(corePoolSize, purgePeriod, threadFactory);
+		this.workerPoolSize = new WorkerPoolSize(executor);
+		this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, name + "-maintenance");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the engine name.
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Retrieves the executor of timer tasks.
+	 * @return
+	 */
+	ScheduledThreadPoolExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Retrieves the owner of the executor's core pool size.
+	 * @return
+	 */
+	WorkerPoolSize getWorkerPoolSize() {
+		return workerPoolSize;
+	}
+
+	/**
+	 * Retrieves the executor for the maintenance jobs of all schedulers.
+	 * @return
+	 */
+	ScheduledExecutorService getMaintenanceExecutor() {
+		return maintenanceExecutor;
+	}
+
+	/**
+	 * Retrieves the number of core threads of the engine.
+	 * @return
+	 */
+	public int getCorePoolSize() {
+		return workerPoolSize.getBaseSize();
+	}
+
+	/**
+	 * Sets the number of core threads of the engine.
+	 * @param corePoolSize
+	 */
+	public void setCorePoolSize(int corePoolSize) {
+		workerPoolSize.setBaseSize(corePoolSize);
+	}
+
+	/**
+	 * Retrieves the names of the namespaces registered.
+	 * @return
+	 */
+	public Set<String> getNamespaceNames() {
+		return Collections.unmodifiableSet(new HashSet<String>(namespaces.keySet()));
+	}
+
+	/**
+	 * Retrieves the namespace with the specified name.
+	 * @param namespace
+	 * @return null if there is no such namespace registered
+	 */
+	public Namespace getNamespace(String namespace) {
+		return namespaces.get(namespace);
+	}
+
+	/**
+	 * Registers a namespace.
+	 * @param namespace
+	 * @param maxTasks
+	 *            the max number of local tasks, 0 for no limit
+	 * @return
+	 * @throws IllegalStateException
+	 *             if the namespace is already registered or the engine is shutdown
+	 */
+	Namespace register(String namespace, int maxTasks) throws IllegalStateException {
+		if (executor.isShutdown()) {
+			throw new IllegalStateException("engine " + name + " is shutdown");
+		}
+		final Namespace ns = new Namespace(namespace, maxTasks);
+		if (namespaces.putIfAbsent(namespace, ns) != null) {
+			throw new IllegalStateException("namespace " + namespace + " already registered in engine " + name);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Registered namespace " + namespace + " in engine " + name + ", max tasks " + maxTasks);
+		}
+		return ns;
+	}
+
+	/**
+	 * Unregisters a namespace.
+	 * @param namespace
+	 */
+	void unregister(String namespace) {
+		namespaces.remove(namespace);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Unregistered namespace " + namespace + " from engine " + name);
+		}
+	}
+
+	/**
+	 * Shuts down the engine, all schedulers using it should be shutdown first.
+	 */
+	public void shutdownNow() {
+		if (!namespaces.isEmpty()) {
+			logger.warn("Shutting down engine " + name + " with namespaces still registered: " + namespaces.keySet());
+		}
+		maintenanceExecutor.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "SharedTimerEngine [ name = " + name + " , namespaces = " + namespaces.keySet() + " ]";
+	}
+
+	/**
+	 * A namespace of the engine, used by a single scheduler, with a quota of
+	 * local tasks and metrics.
+	 */
+	public static class Namespace {
+
+		private final String name;
+		private final int maxTasks;
+		private final AtomicInteger tasks = new AtomicInteger(0);
+		private final AtomicLong fires = new AtomicLong(0);
+		private final AtomicLong rejectedTasks = new AtomicLong(0);
+
+		Namespace(String name, int maxTasks) {
+			this.name = name;
+			this.maxTasks = maxTasks;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Retrieves the max number of local tasks.
+		 * @return 0 if there is no limit
+		 */
+		public int getMaxTasks() {
+			return maxTasks;
+		}
+
+		/**
+		 * Retrieves the number of local tasks, including the ones scheduled
+		 * in txs not yet committed.
+		 * @return
+		 */
+		public int getTasks() {
+			return tasks.get();
+		}
+
+		/**
+		 * Retrieves the number of task fires.
+		 * @return
+		 */
+		public long getFires() {
+			return fires.get();
+		}
+
+		/**
+		 * Retrieves the number of tasks rejected since the quota was exceeded.
+		 * @return
+		 */
+		public long getRejectedTasks() {
+			return rejectedTasks.get();
+		}
+
+		/**
+		 * Reserves the quota of one more local task, when the task is
+		 * scheduled, accounting a rejection if the quota is exceeded.
+		 * @param enforce
+		 *            if false the task is accounted even if the quota is
+		 *            exceeded
+		 * @return false if the quota is exceeded
+		 */
+		boolean reserve(boolean enforce) {
+			if (!enforce || maxTasks <= 0) {
+				tasks.incrementAndGet();
+				return true;
+			}
+			for (;;) {
+				final int current = tasks.get();
+				if (current >= maxTasks) {
+					rejectedTasks.incrementAndGet();
+					return false;
+				}
+				if (tasks.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Releases the quota of a local task, removed or whose schedule was
+		 * discarded.
+		 */
+		void release() {
+			tasks.decrementAndGet();
+		}
+
+		void taskFired() {
+			fires.incrementAndGet();
+		}
+
+		void clear() {
+			tasks.set(0);
+		}
+
+		@Override
+		public String toString() {
+			return "Namespace [ name = " + name + " , tasks = " + tasks + " , max tasks = " + maxTasks + " , fires = " + fires + " , rejected tasks = " + rejectedTasks + " ]";
+		}
+	}
+}
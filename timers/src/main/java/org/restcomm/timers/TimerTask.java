@@ -23,6 +23,8 @@
 package org.restcomm.timers;
 
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -59,6 +61,36 @@ public abstract class TimerTask implements Runnable {
 	 */
 	protected boolean autoRemoval = true;
 	
+	private static final int IDLE = 0;
+	private static final int EXECUTING = 1;
+	private static final int DELEGATED = 2;
+	
+	/**
+	 * the execution state of the task, used to fence the delegation of the task to other cluster member
+	 */
+	private final AtomicInteger executionState = new AtomicInteger(IDLE);
+	
+	/**
+	 * the ownership epoch of the task data when the task was scheduled
+	 */
+	private volatile long ownerEpoch;
+	
+	/**
+	 * the scheduler's count of ownership events when the task ownership was
+	 * last verified
+	 */
+	private volatile long ownershipVerifiedAt = -1L;
+	
+	/**
+	 * the task start deadline, in the local monotonic clock, i.e. {@link System#nanoTime()}
+	 */
+	private volatile long startDeadline;
+	
+	/**
+	 * if true the start deadline was set, otherwise the start time, in wall clock, is used
+	 */
+	private volatile boolean startDeadlineSet;
+	
 	/**
 	 * 
 	 * @param data
@@ -126,7 +158,114 @@ public abstract class TimerTask implements Runnable {
 		}
 	}
 	
-	public final void run() {		
+	/**
+	 * Cancels the current schedule future, if any, without canceling the task,
+	 * so it may be scheduled again.
+	 */
+	void disarm() {
+		final ScheduledFuture<?> scheduledFuture = this.scheduledFuture;
+		if (scheduledFuture != null) {
+			scheduledFuture.cancel(false);
+		}
+	}
+	
+	/**
+	 * Retrieves the ownership epoch of the task data when the task was scheduled.
+	 * @return
+	 */
+	long getOwnerEpoch() {
+		return ownerEpoch;
+	}
+	
+	/**
+	 * Sets the ownership epoch of the task data when the task was scheduled.
+	 * @param ownerEpoch
+	 */
+	void setOwnerEpoch(long ownerEpoch) {
+		this.ownerEpoch = ownerEpoch;
+	}
+	
+	/**
+	 * Retrieves the scheduler's count of ownership events when the task
+	 * ownership was last verified.
+	 * @return
+	 */
+	long getOwnershipVerifiedAt() {
+		return ownershipVerifiedAt;
+	}
+	
+	/**
+	 * Sets the scheduler's count of ownership events when the task ownership
+	 * was last verified.
+	 * @param ownershipVerifiedAt
+	 */
+	void setOwnershipVerifiedAt(long ownershipVerifiedAt) {
+		this.ownershipVerifiedAt = ownershipVerifiedAt;
+	}
+	
+	/**
+	 * Converts the task start time, in wall clock, to a deadline in the local
+	 * monotonic clock, so the task is armed on that deadline even if the wall
+	 * clock is changed meanwhile.
+	 */
+	void updateStartDeadline() {
+		startDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(data.getStartTime() - System.currentTimeMillis());
+		startDeadlineSet = true;
+	}
+	
+	/**
+	 * Retrieves the time left till the task start, in nanoseconds.
+	 * @return
+	 */
+	long getStartDelay() {
+		if (startDeadlineSet) {
+			return startDeadline - System.nanoTime();
+		}
+		else {
+			return TimeUnit.MILLISECONDS.toNanos(data.getStartTime() - System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Marks the task as delegated to other cluster member, so it never
+	 * executes locally again.
+	 * 
+	 * @return false if the task is executing or was already delegated
+	 */
+	boolean delegate() {
+		return executionState.compareAndSet(IDLE, DELEGATED);
+	}
+	
+	/**
+	 * Reverts a delegation which could not be completed.
+	 */
+	void undelegate() {
+		executionState.compareAndSet(DELEGATED, IDLE);
+	}
+	
+	public final void run() {
+		if (!executionState.compareAndSet(IDLE, EXECUTING)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Task with id "
+						+ data.getTaskID() + " was delegated to other cluster member, not firing");
+			}
+			return;
+		}
+		try {
+			if (scheduler != null) {
+				if (!scheduler.isLocallyOwned(this)) {
+					return;
+				}
+				scheduler.taskFiring(this);
+			}
+			execute();
+		}
+		finally {
+			executionState.compareAndSet(EXECUTING, IDLE);
+		}
+	}
+	
+	private void execute() {		
 		// Fix for Issue 1612 : Restcomm Cluster does not remove non recurring tasks when they fired
 		if(data.getPeriod() < 0 && autoRemoval) {
 			if (logger.isDebugEnabled()) {
@@ -145,7 +284,22 @@ public abstract class TimerTask implements Runnable {
 			logger.debug("Firing Timer with id "
 					+ data.getTaskID());
 		}
-		runTask();
+		final TimerTaskWatchdog watchdog = scheduler != null ? scheduler.getWatchdog() : null;
+		if (watchdog != null) {
+			watchdog.executionStarted(this);
+			try {
+				runTask();
+			}
+			finally {
+				watchdog.executionEnded();
+			}
+		}
+		else {
+			runTask();
+		}
+		if (data.getPeriod() > 0 && scheduler != null) {
+			scheduler.periodicTaskFired(this);
+		}
 	}
 	
 	/**
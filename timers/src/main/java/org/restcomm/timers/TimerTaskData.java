@@ -58,6 +58,11 @@ public class TimerTaskData implements Serializable {
 	 */
 	private final PeriodicScheduleStrategy periodicScheduleStrategy;
 	
+	/**
+	 * the id of the group the associated timer task belongs, can be null if it is not in a group
+	 */
+	private final Serializable groupID;
+	
 	/**
 	 * 
 	 * @param id
@@ -65,10 +70,23 @@ public class TimerTaskData implements Serializable {
 	 * @param period
 	 */
 	public TimerTaskData(Serializable id, long startTime, long period, PeriodicScheduleStrategy periodicScheduleStrategy) {
+		this(id, startTime, period, periodicScheduleStrategy, null);
+	}
+	
+	/**
+	 * 
+	 * @param id
+	 * @param startTime
+	 * @param period
+	 * @param periodicScheduleStrategy
+	 * @param groupID
+	 */
+	public TimerTaskData(Serializable id, long startTime, long period, PeriodicScheduleStrategy periodicScheduleStrategy, Serializable groupID) {
 		this.taskID = id;
 		this.startTime = startTime;
 		this.period = period;
 		this.periodicScheduleStrategy = periodicScheduleStrategy;
+		this.groupID = groupID;
 	}
 	
 	/**
@@ -111,6 +129,14 @@ public class TimerTaskData implements Serializable {
 		return periodicScheduleStrategy;
 	}
 	
+	/**
+	 * Retrieves the id of the group the associated timer task belongs, can be null if it is not in a group.
+	 * @return
+	 */
+	public Serializable getGroupID() {
+		return groupID;
+	}
+	
 	@Override
 	public int hashCode() {		
 		return taskID.hashCode();
@@ -0,0 +1,303 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jboss.cache.Fqn;
+import org.jgroups.Address;
+import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.timers.cache.TimerMemberLoadCacheData;
+
+/**
+ * Delegates due timer tasks of an overloaded cluster member to less loaded
+ * members.
+ * 
+ * Each member using a delegator periodically publishes its firing backlog, the
+ * number of local tasks overdue, and the lag of the most overdue task. When the
+ * local member is overloaded it hands over the ownership of overdue non
+ * periodic tasks to the least loaded member, by writing a hand over of the
+ * task data to the member, and the new owner fires them. A member's
+ * publication is fresh while it was seen changing recently, in the local
+ * clock, so clock skew between members does not matter.
+ * 
+ * A task never fires twice: a delegated task is fenced locally, so it can't
+ * fire once delegated, nor be delegated while firing, and before firing a
+ * task its owner address and ownership epoch are checked, so a member that
+ * lost a task drops the fire, see {@link FaultTolerantScheduler#getStaleFires()}.
+ * 
+ */
+public class TimerTaskDelegator extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(TimerTaskDelegator.class);
+
+	/**
+	 * the time, in milliseconds, between load publications
+	 */
+	private final long publishPeriod;
+
+	/**
+	 * the min local backlog to consider the member overloaded
+	 */
+	private final int overloadBacklog;
+
+	/**
+	 * the min lag, in milliseconds, to consider the member overloaded
+	 */
+	private final long overloadLag;
+
+	/**
+	 * the max backlog of a member to delegate tasks to it
+	 */
+	private final int underloadBacklog;
+
+	/**
+	 * the max number of tasks delegated per publication
+	 */
+	private final int maxDelegationsPerRun;
+
+	private final AtomicLong publications = new AtomicLong(0);
+	private final AtomicLong delegatedTasks = new AtomicLong(0);
+
+	private Fqn membersBaseFqn;
+
+	/**
+	 * the last publication seen of each member, with the local time it was
+	 * seen, so freshness never depends on the member's clock
+	 */
+	private final Map<Address, PublicationSeen> publicationsSeen = new HashMap<Address, PublicationSeen>();
+
+	/**
+	 * 
+	 * @param publishPeriod
+	 *            the time, in milliseconds, between load publications
+	 * @param overloadBacklog
+	 *            the min local backlog to consider the member overloaded
+	 * @param overloadLag
+	 *            the min lag, in milliseconds, to consider the member
+	 *            overloaded
+	 * @param underloadBacklog
+	 *            the max backlog of a member to delegate tasks to it
+	 * @param maxDelegationsPerRun
+	 *            the max number of tasks delegated per publication
+	 */
+	public TimerTaskDelegator(long publishPeriod, int overloadBacklog, long overloadLag, int underloadBacklog, int maxDelegationsPerRun) {
+		if (publishPeriod <= 0) {
+			throw new IllegalArgumentException("publish period must be positive");
+		}
+		if (underloadBacklog >= overloadBacklog) {
+			throw new IllegalArgumentException("underload backlog must be lower than overload backlog");
+		}
+		if (maxDelegationsPerRun <= 0) {
+			throw new IllegalArgumentException("max delegations per run must be positive");
+		}
+		this.publishPeriod = publishPeriod;
+		this.overloadBacklog = overloadBacklog;
+		this.overloadLag = overloadLag;
+		this.underloadBacklog = underloadBacklog;
+		this.maxDelegationsPerRun = maxDelegationsPerRun;
+	}
+
+	public long getPublishPeriod() {
+		return publishPeriod;
+	}
+
+	public int getOverloadBacklog() {
+		return overloadBacklog;
+	}
+
+	public long getOverloadLag() {
+		return overloadLag;
+	}
+
+	public int getUnderloadBacklog() {
+		return underloadBacklog;
+	}
+
+	public int getMaxDelegationsPerRun() {
+		return maxDelegationsPerRun;
+	}
+
+	/**
+	 * Retrieves the number of load publications done.
+	 * @return
+	 */
+	public long getPublications() {
+		return publications.get();
+	}
+
+	/**
+	 * Retrieves the number of tasks delegated to other members.
+	 * @return
+	 */
+	public long getDelegatedTasks() {
+		return delegatedTasks.get();
+	}
+
+	/**
+	 * Starts publishing the load, and delegating tasks, of the scheduler.
+	 */
+	@Override
+	void started() {
+		this.membersBaseFqn = TimerMemberLoadCacheData.getMembersBaseFqn(scheduler.getName());
+		publicationsSeen.clear();
+	}
+
+	@Override
+	long getPeriod() {
+		return publishPeriod;
+	}
+
+	@Override
+	void runPeriodically() {
+		publishAndDelegate();
+	}
+
+	/**
+	 * Stops publishing the load and delegating tasks, removing the local load from the cache.
+	 */
+	@Override
+	void stopped() {
+		final MobicentsCluster cluster = scheduler.getCluster();
+		final Address localAddress = cluster.getLocalAddress();
+		if (localAddress != null) {
+			try {
+				new TimerMemberLoadCacheData(localAddress, membersBaseFqn, cluster).remove();
+			}
+			catch (Throwable e) {
+				logger.error(e.getMessage(),e);
+			}
+		}
+	}
+
+	private void publishAndDelegate() {
+		final MobicentsCluster cluster = scheduler.getCluster();
+		final Address localAddress = cluster.getLocalAddress();
+		if (localAddress == null) {
+			// local mode, nobody to delegate to
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final int backlog = scheduler.countTasksDueBetween(Long.MIN_VALUE, now + 1, TimerQueryScope.LOCAL);
+		final Long earliestDueTime = scheduler.getEarliestLocalDueTime();
+		final long lag = earliestDueTime != null && earliestDueTime < now ? now - earliestDueTime : 0L;
+		new TimerMemberLoadCacheData(localAddress, membersBaseFqn, cluster).setLoad(backlog, lag, now);
+		publications.incrementAndGet();
+		final List<Address> members = cluster.getClusterMembers();
+		trackPublications(members, localAddress);
+		if (backlog < overloadBacklog || lag < overloadLag || cluster.isSingleMember()) {
+			return;
+		}
+		// find the least loaded member with a fresh publication
+		final long receivedSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(3 * publishPeriod);
+		Address delegate = null;
+		int delegateBacklog = Integer.MAX_VALUE;
+		for (Address member : members) {
+			if (member.equals(localAddress)) {
+				continue;
+			}
+			final PublicationSeen publicationSeen = publicationsSeen.get(member);
+			if (publicationSeen == null || !publicationSeen.received || publicationSeen.receivedAt - receivedSince < 0) {
+				continue;
+			}
+			final int memberBacklog = new TimerMemberLoadCacheData(member, membersBaseFqn, cluster).getBacklog();
+			if (memberBacklog <= underloadBacklog && memberBacklog < delegateBacklog) {
+				delegate = member;
+				delegateBacklog = memberBacklog;
+			}
+		}
+		if (delegate == null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(scheduler + " is overloaded, backlog = " + backlog + ", lag = " + lag + ", but no member is available to delegate tasks");
+			}
+			return;
+		}
+		// even out both backlogs, at most max delegations per run
+		final int toDelegate = Math.min(maxDelegationsPerRun, (backlog - delegateBacklog) / 2);
+		int delegated = 0;
+		final List<Serializable> dueTaskIDs = scheduler.getTaskIDsDueBetween(Long.MIN_VALUE, now + 1, TimerQueryScope.LOCAL);
+		for (Serializable taskID : dueTaskIDs) {
+			if (delegated >= toDelegate) {
+				break;
+			}
+			if (scheduler.delegate(taskID, delegate)) {
+				delegated++;
+			}
+		}
+		delegatedTasks.addAndGet(delegated);
+		if (logger.isDebugEnabled()) {
+			logger.debug(scheduler + " is overloaded, backlog = " + backlog + ", lag = " + lag + ", delegated " + delegated + " tasks to " + delegate);
+		}
+	}
+
+	/**
+	 * Records, in the local clock, when a new load publication of each
+	 * member is seen. A publication already present when first looked at
+	 * is not considered received, it may be left by a member that stopped.
+	 * @param members
+	 * @param localAddress
+	 */
+	private void trackPublications(List<Address> members, Address localAddress) {
+		publicationsSeen.keySet().retainAll(members);
+		for (Address member : members) {
+			if (member.equals(localAddress)) {
+				continue;
+			}
+			final long publishedAt = new TimerMemberLoadCacheData(member, membersBaseFqn, scheduler.getCluster()).getPublishedAt();
+			final PublicationSeen publicationSeen = publicationsSeen.get(member);
+			if (publicationSeen == null) {
+				publicationsSeen.put(member, new PublicationSeen(publishedAt, 0L, false));
+			}
+			else if (publishedAt >= 0 && publishedAt != publicationSeen.publishedAt) {
+				publicationsSeen.put(member, new PublicationSeen(publishedAt, System.nanoTime(), true));
+			}
+		}
+	}
+
+	private static class PublicationSeen {
+
+		/**
+		 * the publication time, in the member's clock, only used to detect new publications
+		 */
+		private final long publishedAt;
+
+		/**
+		 * the local monotonic time the publication was seen
+		 */
+		private final long receivedAt;
+
+		/**
+		 * if false the publication was already present when first looked at
+		 */
+		private final boolean received;
+
+		PublicationSeen(long publishedAt, long receivedAt, boolean received) {
+			this.publishedAt = publishedAt;
+			this.receivedAt = receivedAt;
+			this.received = received;
+		}
+	}
+}
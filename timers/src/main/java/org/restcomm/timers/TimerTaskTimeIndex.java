@@ -0,0 +1,227 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An index of timer task ids, sorted by the time the tasks are due, to answer
+ * time window queries without iterating all tasks or retrieving their data.
+ * 
+ * Updates are serialized, queries are lock free and weakly consistent.
+ * 
+ */
+public class TimerTaskTimeIndex {
+
+	/**
+	 * the index entries, sorted by due time
+	 */
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+
+	/**
+	 * the index entries, per task id
+	 */
+	private final ConcurrentHashMap<Serializable, Entry> entriesByTaskID = new ConcurrentHashMap<Serializable, Entry>();
+
+	/**
+	 * sequence to order entries with same due time
+	 */
+	private final AtomicLong sequence = new AtomicLong(0);
+
+	/**
+	 * the due time before which all entries are accounted in the due count
+	 */
+	private long dueWatermark = Long.MIN_VALUE;
+
+	/**
+	 * the number of entries due before the watermark, maintained by updates
+	 * and advanced by queries, so counting the tasks due till now only walks
+	 * the entries which became due since the last count
+	 */
+	private int dueCount;
+
+	/**
+	 * Adds the task with the specified id to the index, or updates its due time if already indexed.
+	 * @param taskID
+	 * @param dueTime
+	 */
+	public synchronized void put(Serializable taskID, long dueTime) {
+		final Entry previous = entriesByTaskID.get(taskID);
+		if (previous != null) {
+			if (previous.dueTime == dueTime) {
+				return;
+			}
+			entries.remove(previous);
+			if (previous.dueTime < dueWatermark) {
+				dueCount--;
+			}
+		}
+		if (dueTime < dueWatermark) {
+			dueCount++;
+		}
+		final Entry entry = new Entry(dueTime, sequence.incrementAndGet(), taskID);
+		entriesByTaskID.put(taskID, entry);
+		entries.add(entry);
+	}
+
+	/**
+	 * Removes the task with the specified id from the index.
+	 * @param taskID
+	 * @return true if the task was indexed
+	 */
+	public synchronized boolean remove(Serializable taskID) {
+		final Entry entry = entriesByTaskID.remove(taskID);
+		if (entry != null) {
+			entries.remove(entry);
+			if (entry.dueTime < dueWatermark) {
+				dueCount--;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all tasks from the index.
+	 */
+	public synchronized void clear() {
+		entriesByTaskID.clear();
+		entries.clear();
+		dueCount = 0;
+	}
+
+	/**
+	 * Retrieves the due time of the task with the specified id.
+	 * @param taskID
+	 * @return null if the task is not indexed
+	 */
+	public Long getDueTime(Serializable taskID) {
+		final Entry entry = entriesByTaskID.get(taskID);
+		return entry != null ? entry.dueTime : null;
+	}
+
+	/**
+	 * Retrieves the ids of the tasks due in the specified time window, sorted by due time.
+	 * @param from the window start, inclusive
+	 * @param to the window end, exclusive
+	 * @return
+	 */
+	public List<Serializable> getTaskIDs(long from, long to) {
+		final List<Serializable> result = new ArrayList<Serializable>();
+		for (Entry entry : window(from, to)) {
+			result.add(entry.taskID);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the tasks due in the specified time window. Windows without
+	 * start are answered from a maintained counter.
+	 * @param from the window start, inclusive
+	 * @param to the window end, exclusive
+	 * @return
+	 */
+	public int count(long from, long to) {
+		if (from == Long.MIN_VALUE) {
+			return countDueBefore(to);
+		}
+		int count = 0;
+		for (@SuppressWarnings("unused") Entry entry : window(from, to)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the tasks due before the specified time. If the time is not
+	 * before the one of the previous count, only the entries due in between
+	 * are walked.
+	 * @param to
+	 * @return
+	 */
+	public synchronized int countDueBefore(long to) {
+		if (to < dueWatermark) {
+			int count = 0;
+			for (@SuppressWarnings("unused") Entry entry : window(Long.MIN_VALUE, to)) {
+				count++;
+			}
+			return count;
+		}
+		for (@SuppressWarnings("unused") Entry entry : window(dueWatermark, to)) {
+			dueCount++;
+		}
+		dueWatermark = to;
+		return dueCount;
+	}
+
+	/**
+	 * Retrieves the earliest due time of the tasks indexed.
+	 * @return null if there are no tasks indexed
+	 */
+	public Long getEarliestDueTime() {
+		final Iterator<Entry> it = entries.iterator();
+		return it.hasNext() ? it.next().dueTime : null;
+	}
+
+	/**
+	 * Retrieves the number of tasks indexed.
+	 * @return
+	 */
+	public int size() {
+		return entriesByTaskID.size();
+	}
+
+	private NavigableSet<Entry> window(long from, long to) {
+		if (to <= from) {
+			return new ConcurrentSkipListSet<Entry>();
+		}
+		return entries.subSet(new Entry(from, Long.MIN_VALUE, null), true, new Entry(to, Long.MIN_VALUE, null), false);
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final long dueTime;
+		private final long sequence;
+		private final Serializable taskID;
+
+		Entry(long dueTime, long sequence, Serializable taskID) {
+			this.dueTime = dueTime;
+			this.sequence = sequence;
+			this.taskID = taskID;
+		}
+
+		public int compareTo(Entry other) {
+			if (dueTime != other.dueTime) {
+				return dueTime < other.dueTime ? -1 : 1;
+			}
+			if (sequence != other.sequence) {
+				return sequence < other.sequence ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watchdog for {@link TimerTask} executions, which detects callbacks running
+ * longer than a configured budget. A timed out execution is always reported,
+ * with the stack trace of the thread running it, and depending on the
+ * configured {@link Action} the thread is interrupted or a replacement worker
+ * is added to the scheduler's executor, until the execution returns.
+ * 
+ */
+public class TimerTaskWatchdog extends SchedulerComponent {
+
+	private static final Logger logger = Logger.getLogger(TimerTaskWatchdog.class);
+
+	/**
+	 * What the watchdog does, besides reporting, with a timed out execution.
+	 */
+	public enum Action { 
+		
+		/**
+		 * only report the execution
+		 */
+		LOG, 
+		
+		/**
+		 * interrupt the thread running the execution
+		 */
+		INTERRUPT, 
+		
+		/**
+		 * add a worker to the executor while the execution does not return
+		 */
+		COMPENSATE 
+	}
+
+	/**
+	 * the max time, in milliseconds, a task execution may take
+	 */
+	private final long executionTimeout;
+
+	/**
+	 * the action applied to timed out executions
+	 */
+	private final Action action;
+
+	/**
+	 * the executions in progress, per thread running them
+	 */
+	private final ConcurrentHashMap<Thread, Execution> executions = new ConcurrentHashMap<Thread, Execution>();
+
+	private final AtomicLong timedOutExecutions = new AtomicLong(0);
+	private final AtomicLong interruptedExecutions = new AtomicLong(0);
+	private final AtomicLong compensatingWorkers = new AtomicLong(0);
+
+
+	/**
+	 * 
+	 * @param executionTimeout
+	 *            the max time, in milliseconds, a task execution may take
+	 * @param action
+	 *            the action applied to timed out executions
+	 */
+	public TimerTaskWatchdog(long executionTimeout, Action action) {
+		if (executionTimeout <= 0) {
+			throw new IllegalArgumentException("execution timeout must be positive");
+		}
+		if (action == null) {
+			throw new NullPointerException("null action");
+		}
+		this.executionTimeout = executionTimeout;
+		this.action = action;
+	}
+
+	/**
+	 * Retrieves the max time, in milliseconds, a task execution may take.
+	 * @return
+	 */
+	public long getExecutionTimeout() {
+		return executionTimeout;
+	}
+
+	/**
+	 * Retrieves the action applied to timed out executions.
+	 * @return
+	 */
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * Retrieves the number of executions which exceeded the timeout.
+	 * @return
+	 */
+	public long getTimedOutExecutions() {
+		return timedOutExecutions.get();
+	}
+
+	/**
+	 * Retrieves the number of timed out executions which were interrupted.
+	 * @return
+	 */
+	public long getInterruptedExecutions() {
+		return interruptedExecutions.get();
+	}
+
+	/**
+	 * Retrieves the number of workers currently added to the executor, to
+	 * compensate timed out executions.
+	 * @return
+	 */
+	public long getCompensatingWorkers() {
+		return compensatingWorkers.get();
+	}
+
+	/**
+	 * Retrieves the number of task executions in progress.
+	 * @return
+	 */
+	public int getExecutionsInProgress() {
+		return executions.size();
+	}
+
+	/**
+	 * Checks the executions four times per execution timeout.
+	 */
+	@Override
+	long getPeriod() {
+		return Math.max(executionTimeout / 4, 10);
+	}
+
+	@Override
+	void runPeriodically() {
+		check();
+	}
+
+	/**
+	 * Stops watching executions.
+	 */
+	@Override
+	void stopped() {
+		for (Execution execution : executions.values()) {
+			execution.end();
+		}
+		executions.clear();
+	}
+
+	/**
+	 * Indicates that the current thread started the execution of the specified task.
+	 * @param task
+	 */
+	void executionStarted(TimerTask task) {
+		executions.put(Thread.currentThread(), new Execution(task.getData().getTaskID()));
+	}
+
+	/**
+	 * Indicates that the current thread ended the execution of a task.
+	 */
+	void executionEnded() {
+		final Execution execution = executions.remove(Thread.currentThread());
+		if (execution != null) {
+			execution.end();
+		}
+	}
+
+	private void check() {
+		final long now = System.nanoTime();
+		final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(executionTimeout);
+		for (Map.Entry<Thread, Execution> entry : executions.entrySet()) {
+			final Execution execution = entry.getValue();
+			if (!execution.timedOut && now - execution.startTime > timeoutNanos) {
+				execution.timeout(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(now - execution.startTime));
+			}
+		}
+	}
+
+	private void addWorker(int delta) {
+		scheduler.getWorkerPoolSize().compensate(delta);
+	}
+
+	/**
+	 * A task execution in progress.
+	 */
+	private class Execution {
+
+		private final Serializable taskID;
+		private final long startTime = System.nanoTime();
+		private boolean timedOut;
+		private boolean compensated;
+		private boolean ended;
+
+		Execution(Serializable taskID) {
+			this.taskID = taskID;
+		}
+
+		synchronized void timeout(Thread thread, long elapsed) {
+			if (ended) {
+				return;
+			}
+			timedOut = true;
+			timedOutExecutions.incrementAndGet();
+			final Throwable stackTrace = new Throwable("stack trace of thread " + thread.getName());
+			stackTrace.setStackTrace(thread.getStackTrace());
+			logger.warn(scheduler + " timer task with id " + taskID + " is running for " + elapsed + " ms, execution timeout is " + executionTimeout + " ms, action " + action, stackTrace);
+			switch (action) {
+			case INTERRUPT:
+				interruptedExecutions.incrementAndGet();
+				thread.interrupt();
+				break;
+			case COMPENSATE:
+				compensated = true;
+				compensatingWorkers.incrementAndGet();
+				addWorker(1);
+				break;
+			default:
+			}
+		}
+
+		synchronized void end() {
+			ended = true;
+			if (compensated) {
+				compensated = false;
+				compensatingWorkers.decrementAndGet();
+				addWorker(-1);
+			}
+		}
+	}
+}
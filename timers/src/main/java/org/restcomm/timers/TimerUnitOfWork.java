@@ -0,0 +1,85 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers;
+
+import javax.transaction.Transaction;
+
+/**
+ * A lightweight unit of work of a {@link FaultTolerantScheduler}, grouping
+ * timer operations done by a thread without a JTA transaction. The arming and
+ * disarming of local timers is deferred till the unit commits, and discarded
+ * if it rolls back.
+ * 
+ */
+class TimerUnitOfWork {
+
+	/**
+	 * the actions to run when the unit commits
+	 */
+	private final TransactionContext txContext = new TransactionContext();
+
+	/**
+	 * if true the cache writes are done in a cache invocation batch
+	 */
+	private final boolean batching;
+
+	/**
+	 * the tx of a batch already active in the thread, which the unit joined,
+	 * null if the unit started its own batch, or is not batching
+	 */
+	private final Transaction joinedBatch;
+
+	/**
+	 * 
+	 * @param batching
+	 * @param joinedBatch
+	 */
+	TimerUnitOfWork(boolean batching, Transaction joinedBatch) {
+		this.batching = batching;
+		this.joinedBatch = joinedBatch;
+	}
+
+	/**
+	 * Retrieves the actions to run when the unit commits.
+	 * @return
+	 */
+	TransactionContext getTransactionContext() {
+		return txContext;
+	}
+
+	/**
+	 * Indicates if the cache writes are done in a cache invocation batch, and
+	 * thus discarded by the cache on rollback.
+	 * @return
+	 */
+	boolean isBatching() {
+		return batching;
+	}
+
+	/**
+	 * Retrieves the tx of the batch the unit joined, which the unit must
+	 * not end.
+	 * @return null if the unit did not join a batch
+	 */
+	Transaction getJoinedBatch() {
+		return joinedBatch;
+	}
+
+}
@@ -23,6 +23,7 @@
 package org.restcomm.timers;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,18 +33,80 @@ public class TransactionContext implements Runnable {
 	
 	private Map<Serializable,AfterTxCommitRunnable> map = new HashMap<Serializable, AfterTxCommitRunnable>(); 
 	
+	/**
+	 * the start times of rescheduled tasks, before the first reschedule
+	 */
+	private final Map<TimerTask,Long> previousStartTimes = new HashMap<TimerTask, Long>();
+	
 	public void put(Serializable taskId, AfterTxCommitRunnable r) {
 		final AfterTxCommitRunnable q = map.put(taskId,r);
-		if (q != null && q.getType() == Type.SET) {
-			// if there was a set timer runnable then we don't need to keep the cancel one
-			map.remove(taskId);
+		if (q != null && q.getType() == Type.CANCEL && r.getType() == Type.RESCHEDULE) {
+			// a canceled task is never rearmed
+			map.put(taskId,q);
+		}
+		else if (q != null && q.getType() == Type.SET) {
+			if (r.getType() == Type.RESCHEDULE) {
+				// the set timer runnable will use the new start time
+				map.put(taskId,q);
+			}
+			else {
+				// if there was a set timer runnable then we don't need to keep the cancel one
+				map.remove(taskId);
+				((SetTimerAfterTxCommitRunnable) q).discard();
+			}
 		}
 	}
 	
+	public AfterTxCommitRunnable get(Serializable taskId) {
+		return map.get(taskId);
+	}
+	
 	public AfterTxCommitRunnable remove(Serializable taskId) {
 		return map.remove(taskId);
 	}
 	
+	Collection<AfterTxCommitRunnable> getRunnables() {
+		return map.values();
+	}
+	
+	/**
+	 * Records the start time of a task about to be rescheduled, if it is the
+	 * first reschedule of the task in this context.
+	 * @param task
+	 */
+	void rescheduling(TimerTask task) {
+		if (!previousStartTimes.containsKey(task)) {
+			previousStartTimes.put(task, task.getData().getStartTime());
+		}
+	}
+	
+	/**
+	 * Retrieves the start times of rescheduled tasks, before the first
+	 * reschedule.
+	 * @return
+	 */
+	Map<TimerTask,Long> getPreviousStartTimes() {
+		return previousStartTimes;
+	}
+	
+	/**
+	 * Discards the set timer runnables and restores the start times of
+	 * rescheduled tasks, since the tx rolled back.
+	 */
+	void rollback() {
+		for (AfterTxCommitRunnable r : map.values()) {
+			if (r.getType() == Type.SET) {
+				((SetTimerAfterTxCommitRunnable) r).discard();
+			}
+		}
+		for (Map.Entry<TimerTask, Long> entry : previousStartTimes.entrySet()) {
+			final TimerTask task = entry.getKey();
+			task.getData().setStartTime(entry.getValue());
+			task.updateStartDeadline();
+		}
+		map = null;
+	}
+	
 	@Override
 	public void run() {
 		for(AfterTxCommitRunnable r : map.values()) {
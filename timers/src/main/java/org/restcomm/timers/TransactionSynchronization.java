@@ -51,7 +51,8 @@ public class TransactionSynchronization implements Synchronization {
 			case Status.STATUS_COMMITTED:
 				txContext.run();
 				break;
-			default:				
+			default:
+				txContext.rollback();
 		}
 		TransactionContextThreadLocal.setTransactionContext(null);
 	}
@@ -0,0 +1,84 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * The single owner of the core pool size of a timer tasks executor, which is
+ * the base size, set by its configuration or an {@link AdaptivePoolSizer},
+ * plus the workers added by a {@link TimerTaskWatchdog} to compensate
+ * executions stuck past their timeout. Keeping both apart ensures that
+ * neither overrides the other's changes.
+ * 
+ */
+class WorkerPoolSize {
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * the base number of core workers
+	 */
+	private int baseSize;
+
+	/**
+	 * the number of workers added to compensate stuck executions
+	 */
+	private int compensation;
+
+	WorkerPoolSize(ScheduledThreadPoolExecutor executor) {
+		this.executor = executor;
+		this.baseSize = executor.getCorePoolSize();
+	}
+
+	ScheduledThreadPoolExecutor getExecutor() {
+		return executor;
+	}
+
+	synchronized int getBaseSize() {
+		return baseSize;
+	}
+
+	synchronized void setBaseSize(int baseSize) {
+		if (baseSize < 1) {
+			throw new IllegalArgumentException("pool size must be positive");
+		}
+		this.baseSize = baseSize;
+		apply();
+	}
+
+	synchronized int getCompensation() {
+		return compensation;
+	}
+
+	/**
+	 * Adds or removes compensating workers.
+	 * @param delta
+	 */
+	synchronized void compensate(int delta) {
+		compensation = Math.max(0, compensation + delta);
+		apply();
+	}
+
+	private void apply() {
+		executor.setCorePoolSize(baseSize + compensation);
+	}
+}
@@ -28,6 +28,7 @@ import java.util.Set;
 import org.jboss.cache.Node;
 import org.restcomm.cache.CacheData;
 import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cache.SubtreeCursor;
 import org.restcomm.cluster.MobicentsCluster;
 
 
@@ -62,4 +63,22 @@ public class FaultTolerantSchedulerCacheData extends CacheData {
 		}
 	}
 	
+	/**
+	 * Retrieves a cursor over the ids of the tasks, which streams them in
+	 * pages of the specified size, instead of materializing all.
+	 * @param pageSize
+	 * @return
+	 */
+	public SubtreeCursor getTaskIDsCursor(int pageSize) {
+		return new SubtreeCursor(getMobicentsCache(), getNodeFqnWrapper(), pageSize);
+	}
+	
+	/**
+	 * Retrieves the number of tasks, without materializing their ids.
+	 * @return
+	 */
+	public int getTaskCount() {
+		return SubtreeCursor.countChildren(getMobicentsCache(), getNodeFqnWrapper());
+	}
+	
 }
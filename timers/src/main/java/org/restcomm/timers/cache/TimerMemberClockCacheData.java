@@ -0,0 +1,88 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers.cache;
+
+import java.util.Map;
+
+import org.jboss.cache.Fqn;
+import org.jgroups.Address;
+import org.restcomm.cache.CacheData;
+import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cluster.MobicentsCluster;
+
+/**
+ * 
+ * Proxy object for the wall clock time published by a cluster member, through
+ * JBoss Cache.
+ * 
+ */
+public class TimerMemberClockCacheData extends CacheData {
+
+	/**
+	 * the suffix appended to the scheduler name, to get the name of the node
+	 * which holds the clock of each member
+	 */
+	private static final String CLOCKS_NODE_NAME_SUFFIX = "-clocks";
+
+	/**
+	 * the node's data map key where the member wall clock time is stored
+	 */
+	private static final String WALL_TIME_NODE_MAP_KEY = "walltime";
+
+	/**
+	 * 
+	 * @param member
+	 * @param clocksBaseFqn
+	 * @param cluster
+	 */
+	public TimerMemberClockCacheData(Address member, Fqn clocksBaseFqn, MobicentsCluster cluster) {
+		super(FqnWrapper.fromRelativeElementsWrapper(clocksBaseFqn, member),cluster.getMobicentsCache());
+	}
+
+	/**
+	 * Retrieves the fqn of the node which holds the members clocks of the scheduler with the specified name.
+	 * @param schedulerName
+	 * @return
+	 */
+	public static Fqn getClocksBaseFqn(String schedulerName) {
+		return Fqn.fromElements(schedulerName + CLOCKS_NODE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Publishes the member wall clock time.
+	 * @param wallTime
+	 */
+	@SuppressWarnings("unchecked")
+	public void setWallTime(long wallTime) {
+		create();
+		getNode().put(WALL_TIME_NODE_MAP_KEY,Long.valueOf(wallTime));
+	}
+
+	/**
+	 * Retrieves the member wall clock time from the specified node data map,
+	 * such as the one of a node modified event.
+	 * @param nodeData
+	 * @return null if the map has no wall clock time
+	 */
+	public static Long getWallTime(Map<?,?> nodeData) {
+		return (Long) nodeData.get(WALL_TIME_NODE_MAP_KEY);
+	}
+
+}
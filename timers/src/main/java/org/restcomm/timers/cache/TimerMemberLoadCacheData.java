@@ -0,0 +1,131 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.cache.Fqn;
+import org.jgroups.Address;
+import org.restcomm.cache.CacheData;
+import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cluster.MobicentsCluster;
+
+/**
+ * 
+ * Proxy object for the timer firing load published by a cluster member,
+ * through JBoss Cache.
+ * 
+ */
+public class TimerMemberLoadCacheData extends CacheData {
+
+	/**
+	 * the suffix appended to the scheduler name, to get the name of the node
+	 * which holds the load of each member
+	 */
+	private static final String MEMBERS_NODE_NAME_SUFFIX = "-members";
+
+	/**
+	 * the node's data map key where the number of overdue tasks is stored
+	 */
+	private static final String BACKLOG_NODE_MAP_KEY = "backlog";
+
+	/**
+	 * the node's data map key where the lag of the most overdue task is stored
+	 */
+	private static final String LAG_NODE_MAP_KEY = "lag";
+
+	/**
+	 * the node's data map key where the time the load was published is stored
+	 */
+	private static final String PUBLISHED_AT_NODE_MAP_KEY = "publishedat";
+
+	/**
+	 * 
+	 * @param member
+	 * @param membersBaseFqn
+	 * @param cluster
+	 */
+	public TimerMemberLoadCacheData(Address member, Fqn membersBaseFqn, MobicentsCluster cluster) {
+		super(FqnWrapper.fromRelativeElementsWrapper(membersBaseFqn, member),cluster.getMobicentsCache());
+	}
+
+	/**
+	 * Retrieves the fqn of the node which holds the members load of the scheduler with the specified name.
+	 * @param schedulerName
+	 * @return
+	 */
+	public static Fqn getMembersBaseFqn(String schedulerName) {
+		return Fqn.fromElements(schedulerName + MEMBERS_NODE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Publishes the member load, with a single put.
+	 * @param backlog
+	 * @param lag
+	 * @param publishedAt
+	 */
+	@SuppressWarnings("unchecked")
+	public void setLoad(int backlog, long lag, long publishedAt) {
+		create();
+		final Map<String,Object> data = new HashMap<String,Object>(4);
+		data.put(BACKLOG_NODE_MAP_KEY,Integer.valueOf(backlog));
+		data.put(LAG_NODE_MAP_KEY,Long.valueOf(lag));
+		data.put(PUBLISHED_AT_NODE_MAP_KEY,Long.valueOf(publishedAt));
+		getNode().putAll(data);
+	}
+
+	/**
+	 * Retrieves the number of overdue tasks of the member.
+	 * @return -1 if the member did not publish its load
+	 */
+	public int getBacklog() {
+		if (!exists()) {
+			return -1;
+		}
+		final Integer backlog = (Integer) getNode().get(BACKLOG_NODE_MAP_KEY);
+		return backlog != null ? backlog.intValue() : -1;
+	}
+
+	/**
+	 * Retrieves the lag, in milliseconds, of the most overdue task of the member.
+	 * @return -1 if the member did not publish its load
+	 */
+	public long getLag() {
+		if (!exists()) {
+			return -1L;
+		}
+		final Long lag = (Long) getNode().get(LAG_NODE_MAP_KEY);
+		return lag != null ? lag.longValue() : -1L;
+	}
+
+	/**
+	 * Retrieves the time the member load was published.
+	 * @return -1 if the member did not publish its load
+	 */
+	public long getPublishedAt() {
+		if (!exists()) {
+			return -1L;
+		}
+		final Long publishedAt = (Long) getNode().get(PUBLISHED_AT_NODE_MAP_KEY);
+		return publishedAt != null ? publishedAt.longValue() : -1L;
+	}
+
+}
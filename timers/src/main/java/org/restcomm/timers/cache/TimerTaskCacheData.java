@@ -22,10 +22,18 @@
 
 package org.restcomm.timers.cache;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.log4j.Logger;
 import org.jboss.cache.Fqn;
+import org.restcomm.cache.FqnTemplate;
 import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cache.MobicentsCache;
+import org.restcomm.cache.ValueCodec;
+import org.restcomm.cache.ValueCodec.EncodedValue;
 import org.restcomm.cluster.MobicentsCluster;
 import org.restcomm.cluster.cache.ClusteredCacheData;
 import org.restcomm.timers.TimerTask;
@@ -41,17 +49,41 @@ import org.restcomm.timers.TimerTaskData;
 
 public class TimerTaskCacheData extends ClusteredCacheData {
 	
+	private static final Logger logger = Logger.getLogger(TimerTaskCacheData.class);
+	
 	/**
 	 * the node's data map key where task data is stored
 	 */
 	private static final String CACHE_NODE_MAP_KEY = "taskdata";
 	
+	/**
+	 * the node's data map key where the task group id is stored
+	 */
+	private static final String GROUP_NODE_MAP_KEY = "group";
+	
+	/**
+	 * the node's data map key where the task start time is stored, to be
+	 * available without retrieving the task data
+	 */
+	private static final String START_TIME_NODE_MAP_KEY = "starttime";
+	
 	/**
 	 * 
 	 */
 	@SuppressWarnings("unchecked")
 	public TimerTaskCacheData(Serializable taskID, Fqn baseFqn, MobicentsCluster mobicentsCluster) {
-		super(FqnWrapper.fromRelativeElementsWrapper(new FqnWrapper(baseFqn), taskID),mobicentsCluster);
+		super(FqnWrapper.fromRelativeElementsWrapper(baseFqn, taskID),mobicentsCluster);
+	}
+
+	/**
+	 * 
+	 * @param taskID
+	 * @param baseFqnTemplate
+	 *            the template of the tasks fqns
+	 * @param mobicentsCluster
+	 */
+	public TimerTaskCacheData(Serializable taskID, FqnTemplate baseFqnTemplate, MobicentsCluster mobicentsCluster) {
+		super(baseFqnTemplate.childWrapper(taskID),mobicentsCluster);
 	}
 
 	/**
@@ -63,13 +95,25 @@ public class TimerTaskCacheData extends ClusteredCacheData {
 	}
 	
 	/**
-	 * Sets the task data.
+	 * Sets the task data. If the cache is not local, the task data is stored
+	 * encoded with the {@link ValueCodec} of its region, or just marshalled if
+	 * the region has no codec, so replicas hold bytes instead of the task's
+	 * object graph, and it is only unmarshalled when retrieved, i.e., when the
+	 * task is recovered. If the task data can't be marshalled, it is stored as
+	 * is.
 	 * 
 	 * @param taskData
 	 */
 	@SuppressWarnings("unchecked")
 	public void setTaskData(TimerTaskData taskData) {
-		getNode().put(CACHE_NODE_MAP_KEY,taskData);
+		final Map<String,Object> data = new HashMap<String,Object>(4);
+		data.put(CACHE_NODE_MAP_KEY,getMobicentsCache().isLocalMode() ? taskData : encode(taskData));
+		data.put(START_TIME_NODE_MAP_KEY,Long.valueOf(taskData.getStartTime()));
+		final Serializable groupID = taskData.getGroupID();
+		if (groupID != null) {
+			data.put(GROUP_NODE_MAP_KEY,groupID);
+		}
+		getNode().putAll(data);
 	}
 
 	/**
@@ -78,7 +122,70 @@ public class TimerTaskCacheData extends ClusteredCacheData {
 	 */
 	@SuppressWarnings("unchecked")
 	public TimerTaskData getTaskData() {
-		return (TimerTaskData) getNode().get(CACHE_NODE_MAP_KEY);		
+		final Object value = getNode().get(CACHE_NODE_MAP_KEY);
+		if (value instanceof EncodedValue) {
+			final MobicentsCache mobicentsCache = getMobicentsCache();
+			final Fqn fqn = getNodeFqn();
+			return (TimerTaskData) ValueCodec.decode(value, mobicentsCache.getClassLoader(fqn), mobicentsCache.getValueCodec(fqn), mobicentsCache.getClassIdRegistry());
+		}
+		// local mode, not serializable, or stored by an older version
+		return (TimerTaskData) value;		
+	}
+
+	/**
+	 * Encodes the specified task data.
+	 * @param taskData
+	 * @return the encoded value, or the task data itself if it can't be marshalled
+	 */
+	private Object encode(TimerTaskData taskData) {
+		final MobicentsCache mobicentsCache = getMobicentsCache();
+		final ValueCodec codec = mobicentsCache.getValueCodec(getNodeFqn());
+		try {
+			return codec != null ? codec.encodeMarshalled(taskData,mobicentsCache.getClassIdRegistry()) : ValueCodec.marshall(taskData,mobicentsCache.getClassIdRegistry());
+		}
+		catch (IOException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Unable to marshall data of task with id "+taskData.getTaskID()+", storing it as is",e);
+			}
+			return taskData;
+		}
+	}
+
+	/**
+	 * Retrieves the task group id, without retrieving the task data.
+	 * @return null if the task is not in a group
+	 */
+	@SuppressWarnings("unchecked")
+	public Serializable getGroupID() {
+		return (Serializable) getNode().get(GROUP_NODE_MAP_KEY);		
+	}
+
+	/**
+	 * Retrieves the task start time, without retrieving the task data.
+	 * @return null if the start time was not stored
+	 */
+	@SuppressWarnings("unchecked")
+	public Long getStartTime() {
+		return (Long) getNode().get(START_TIME_NODE_MAP_KEY);		
+	}
+
+	/**
+	 * Sets the task start time, without updating the task data.
+	 * @param startTime
+	 */
+	@SuppressWarnings("unchecked")
+	public void setStartTime(long startTime) {
+		getNode().put(START_TIME_NODE_MAP_KEY,Long.valueOf(startTime));		
+	}
+
+	/**
+	 * Retrieves the task start time from the specified node data map.
+	 * 
+	 * @param nodeData
+	 * @return null if the map has no start time
+	 */
+	public static Long getStartTime(Map<?,?> nodeData) {
+		return nodeData != null ? (Long) nodeData.get(START_TIME_NODE_MAP_KEY) : null;
 	}
 
 	/**
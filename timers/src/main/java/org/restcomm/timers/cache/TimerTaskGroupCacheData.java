@@ -0,0 +1,117 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.restcomm.timers.cache;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.cache.Fqn;
+import org.jboss.cache.Node;
+import org.restcomm.cache.CacheData;
+import org.restcomm.cache.FqnTemplate;
+import org.restcomm.cache.FqnWrapper;
+import org.restcomm.cluster.MobicentsCluster;
+
+/**
+ * 
+ * Proxy object for the index of a timer task group, through JBoss Cache. The
+ * ids of the group's tasks are stored as child nodes, thus group operations
+ * only touch the group's node.
+ * 
+ */
+public class TimerTaskGroupCacheData extends CacheData {
+
+	/**
+	 * the suffix appended to the scheduler name, to get the name of the node
+	 * which holds the scheduler's groups
+	 */
+	private static final String GROUPS_NODE_NAME_SUFFIX = "-groups";
+
+	/**
+	 * 
+	 * @param groupID
+	 * @param groupsBaseFqn
+	 * @param cluster
+	 */
+	public TimerTaskGroupCacheData(Serializable groupID, Fqn groupsBaseFqn, MobicentsCluster cluster) {
+		super(FqnWrapper.fromRelativeElementsWrapper(groupsBaseFqn, groupID),cluster.getMobicentsCache());
+	}
+
+	/**
+	 * 
+	 * @param groupID
+	 * @param groupsBaseFqnTemplate
+	 *            the template of the groups fqns
+	 * @param cluster
+	 */
+	public TimerTaskGroupCacheData(Serializable groupID, FqnTemplate groupsBaseFqnTemplate, MobicentsCluster cluster) {
+		super(groupsBaseFqnTemplate.childWrapper(groupID),cluster.getMobicentsCache());
+	}
+
+	/**
+	 * Retrieves the fqn of the node which holds the groups of the scheduler with the specified name.
+	 * @param schedulerName
+	 * @return
+	 */
+	public static Fqn getGroupsBaseFqn(String schedulerName) {
+		return Fqn.fromElements(schedulerName + GROUPS_NODE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Adds the task with the specified id to the group, creating the group node if needed.
+	 * @param taskID
+	 */
+	@SuppressWarnings("unchecked")
+	public void addTask(Serializable taskID) {
+		create();
+		getNode().addChild(Fqn.fromElements(taskID));
+	}
+
+	/**
+	 * Removes the task with the specified id from the group. The group node is
+	 * kept even if it becomes empty, removing it would race with another
+	 * member adding a task to the group.
+	 * @param taskID
+	 */
+	public void removeTask(Serializable taskID) {
+		if (exists()) {
+			getNode().removeChild(taskID);
+		}
+	}
+
+	/**
+	 * Retrieves the ids of the group's tasks.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<Serializable> getTaskIDs() {
+		if (!exists()) {
+			return Collections.emptySet();
+		}
+		final Node<?,?> node = getNode();
+		if (node.isLeaf()) {
+			return Collections.emptySet();
+		}
+		return new HashSet<Serializable>((Set<Serializable>)(Set<?>)node.getChildrenNames());
+	}
+
+}
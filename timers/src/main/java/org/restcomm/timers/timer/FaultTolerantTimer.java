@@ -32,6 +32,7 @@ import javax.transaction.TransactionManager;
 import org.restcomm.cluster.MobicentsCluster;
 import org.restcomm.timers.FaultTolerantScheduler;
 import org.restcomm.timers.PeriodicScheduleStrategy;
+import org.restcomm.timers.SharedTimerEngine;
 
 /**
  * A fault tolerant implementation of a {@link Timer}, using the
@@ -44,6 +45,11 @@ import org.restcomm.timers.PeriodicScheduleStrategy;
  */
 public class FaultTolerantTimer extends java.util.Timer {
 
+	/**
+	 * the number of core threads of the scheduler, if not specified
+	 */
+	public static final int DEFAULT_CORE_POOL_SIZE = 16;
+
 	/**
 	 * 
 	 */
@@ -74,8 +80,59 @@ public class FaultTolerantTimer extends java.util.Timer {
 	 * @param purgePeriod
 	 */
 	public FaultTolerantTimer(String name, MobicentsCluster cluster, byte priority, TransactionManager txManager, int purgePeriod) {
-		timerTaskFactory = new FaultTolerantTimerTimerTaskFactory();
-		scheduler = new FaultTolerantScheduler(name,16, cluster, priority, txManager, timerTaskFactory,purgePeriod);
+		this(name, DEFAULT_CORE_POOL_SIZE, cluster, priority, txManager, purgePeriod);
+	}
+	
+	/**
+	 * 
+	 * @param name
+	 * @param corePoolSize
+	 * @param cluster
+	 * @param priority
+	 * @param txManager
+	 * @param purgePeriod
+	 */
+	public FaultTolerantTimer(String name, int corePoolSize, MobicentsCluster cluster, byte priority, TransactionManager txManager, int purgePeriod) {
+		this(new FaultTolerantTimerTimerTaskFactory(), name, corePoolSize, null, 0, cluster, priority, txManager, purgePeriod);
+	}
+	
+	/**
+	 * Creates a timer which uses the threads of a shared engine.
+	 * 
+	 * @param name
+	 * @param engine
+	 * @param maxTasks
+	 *            the max number of local tasks, 0 for no limit
+	 * @param cluster
+	 * @param priority
+	 * @param txManager
+	 */
+	public FaultTolerantTimer(String name, SharedTimerEngine engine, int maxTasks, MobicentsCluster cluster, byte priority, TransactionManager txManager) {
+		this(new FaultTolerantTimerTimerTaskFactory(), name, 0, engine, maxTasks, cluster, priority, txManager, 0);
+	}
+	
+	/**
+	 * 
+	 * @param timerTaskFactory
+	 * @param name
+	 * @param corePoolSize
+	 *            ignored if the engine is not null
+	 * @param engine
+	 *            the shared engine, null for a scheduler with its own threads
+	 * @param maxTasks
+	 * @param cluster
+	 * @param priority
+	 * @param txManager
+	 * @param purgePeriod
+	 */
+	private FaultTolerantTimer(FaultTolerantTimerTimerTaskFactory timerTaskFactory, String name, int corePoolSize, SharedTimerEngine engine, int maxTasks, MobicentsCluster cluster, byte priority, TransactionManager txManager, int purgePeriod) {
+		this.timerTaskFactory = timerTaskFactory;
+		if (engine != null) {
+			scheduler = new FaultTolerantScheduler(name, engine, maxTasks, cluster, priority, txManager, timerTaskFactory);
+		}
+		else {
+			scheduler = new FaultTolerantScheduler(name, corePoolSize, cluster, priority, txManager, timerTaskFactory,purgePeriod);
+		}
 		timerTaskFactory.setScheduler(scheduler);
 	}
 	
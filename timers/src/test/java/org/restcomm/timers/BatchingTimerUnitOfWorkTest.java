@@ -0,0 +1,86 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jboss.cache.Cache;
+import org.junit.Test;
+
+/**
+ * Tests the commit and rollback of {@link TimerUnitOfWork}s, on a cache with
+ * invocation batching, where the cache writes of a unit are done in a batch,
+ * possibly joined from the thread.
+ * 
+ */
+public class BatchingTimerUnitOfWorkTest extends TimerUnitOfWorkTest {
+
+	@Override
+	protected boolean isBatching() {
+		return true;
+	}
+
+	@Test
+	public void testJoinedBatchCommitArmsScheduledTask() {
+		final TestTimerTask task = newTask("joined", FAR_DELAY);
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		scheduler.begin();
+		scheduler.schedule(task);
+		scheduler.commit();
+		assertNull("task armed before the joined batch ended", scheduler.getLocalRunningTask("joined"));
+		// the unit must not replace the tx context of the thread
+		assertNull(TransactionContextThreadLocal.getTransactionContext());
+		jBossCache.endBatch(true);
+		assertSame(task, scheduler.getLocalRunningTask("joined"));
+	}
+
+	@Test
+	public void testJoinedBatchRollbackDiscardsScheduledTask() {
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		scheduler.begin();
+		scheduler.schedule(newTask("joined", FAR_DELAY));
+		scheduler.commit();
+		jBossCache.endBatch(false);
+		assertNull(scheduler.getLocalRunningTask("joined"));
+		assertNull(scheduler.getTimerTaskData("joined"));
+	}
+
+	@Test
+	public void testJoinedBatchIsDoomedByRollback() {
+		final Cache<?, ?> jBossCache = mobicentsCache.getJBossCache();
+		jBossCache.startBatch();
+		scheduler.begin();
+		scheduler.schedule(newTask("joined", FAR_DELAY));
+		scheduler.rollback();
+		try {
+			jBossCache.endBatch(true);
+		}
+		catch (RuntimeException e) {
+			// expected, the batch is rolled back
+		}
+		assertNull(scheduler.getLocalRunningTask("joined"));
+		assertNull(scheduler.getTimerTaskData("joined"));
+	}
+
+}
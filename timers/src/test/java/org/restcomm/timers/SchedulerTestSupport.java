@@ -0,0 +1,124 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.cache.config.Configuration;
+import org.jboss.cache.config.Configuration.CacheMode;
+import org.junit.After;
+import org.junit.Before;
+import org.restcomm.cache.MobicentsCache;
+import org.restcomm.cluster.DefaultMobicentsCluster;
+import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.cluster.election.DefaultClusterElector;
+
+/**
+ * Base of the scheduler tests, which run a {@link FaultTolerantScheduler} on
+ * a local cache, without tx manager.
+ * 
+ */
+public abstract class SchedulerTestSupport {
+
+	/**
+	 * the delay of tasks which should not fire on their own during a test
+	 */
+	protected static final long FAR_DELAY = 60 * 60 * 1000L;
+
+	protected MobicentsCache mobicentsCache;
+
+	protected DefaultMobicentsCluster cluster;
+
+	protected FaultTolerantScheduler scheduler;
+
+	/**
+	 * the ids of the tasks fired, in order
+	 */
+	protected final List<Serializable> fired = Collections.synchronizedList(new ArrayList<Serializable>());
+
+	/**
+	 * Indicates if the cache has invocation batching enabled.
+	 * @return
+	 */
+	protected boolean isBatching() {
+		return false;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		final Configuration configuration = new Configuration();
+		configuration.setCacheMode(CacheMode.LOCAL);
+		configuration.setInvocationBatchingEnabled(isBatching());
+		mobicentsCache = new MobicentsCache(configuration);
+		cluster = new DefaultMobicentsCluster(mobicentsCache, null, new DefaultClusterElector());
+		cluster.startCluster();
+		scheduler = newScheduler("test", cluster);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		scheduler.shutdownNow();
+		cluster.stopCluster();
+	}
+
+	/**
+	 * Creates a scheduler of {@link TestTimerTask}s on the specified cluster.
+	 * @param name
+	 * @param cluster
+	 * @return
+	 */
+	protected FaultTolerantScheduler newScheduler(String name, MobicentsCluster cluster) {
+		return new FaultTolerantScheduler(name, 1, cluster, (byte) 0, null, new TimerTaskFactory() {
+			public TimerTask newTimerTask(TimerTaskData data) {
+				return new TestTimerTask(data);
+			}
+		});
+	}
+
+	/**
+	 * Creates a one-shot task starting after the specified delay.
+	 * @param taskID
+	 * @param delay
+	 * @return
+	 */
+	protected TestTimerTask newTask(Serializable taskID, long delay) {
+		return new TestTimerTask(new TimerTaskData(taskID, System.currentTimeMillis() + delay, -1, null));
+	}
+
+	/**
+	 * A task which records its id when fired.
+	 */
+	protected class TestTimerTask extends TimerTask {
+
+		public TestTimerTask(TimerTaskData data) {
+			super(data);
+		}
+
+		@Override
+		public void runTask() {
+			fired.add(getData().getTaskID());
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.cache.Fqn;
+import org.jgroups.Address;
+import org.jgroups.stack.IpAddress;
+import org.junit.Test;
+import org.restcomm.cache.MobicentsCache;
+import org.restcomm.cluster.DataRemovalListener;
+import org.restcomm.cluster.FailOverListener;
+import org.restcomm.cluster.MobicentsCluster;
+import org.restcomm.cluster.cache.ClusteredCacheDataIndexingHandler;
+import org.restcomm.timers.cache.TimerTaskCacheData;
+
+/**
+ * Tests the fencing of {@link TimerTask} executions, by execution state and
+ * by ownership epoch.
+ * 
+ */
+public class TimerTaskTest extends SchedulerTestSupport {
+
+	@Test
+	public void testDelegatedTaskDoesNotFire() {
+		final TestTimerTask task = newTask("delegated", FAR_DELAY);
+		scheduler.schedule(task);
+		assertTrue(task.delegate());
+		assertFalse("task already delegated", task.delegate());
+		task.run();
+		assertTrue(fired.isEmpty());
+	}
+
+	@Test
+	public void testUndelegatedTaskFires() {
+		final TestTimerTask task = newTask("undelegated", FAR_DELAY);
+		scheduler.schedule(task);
+		assertTrue(task.delegate());
+		task.undelegate();
+		task.run();
+		assertEquals(Collections.singletonList("undelegated"), fired);
+	}
+
+	@Test
+	public void testExecutingTaskCannotBeDelegated() {
+		final boolean[] delegated = new boolean[1];
+		final TimerTask task = new TestTimerTask(new TimerTaskData("executing", System.currentTimeMillis() + FAR_DELAY, -1, null)) {
+			@Override
+			public void runTask() {
+				delegated[0] = delegate();
+				super.runTask();
+			}
+		};
+		scheduler.schedule(task);
+		task.run();
+		assertFalse("task delegated while executing", delegated[0]);
+		assertEquals(Collections.singletonList("executing"), fired);
+		// back to idle once executed
+		assertTrue(task.delegate());
+	}
+
+	@Test
+	public void testTaskFiresInItsOwnershipEpoch() throws Exception {
+		final Address localAddress = new IpAddress(InetAddress.getByName("127.0.0.1"), 7800);
+		final FaultTolerantScheduler fencedScheduler = newScheduler("fenced", new LocalAddressCluster(cluster, localAddress));
+		try {
+			final TestTimerTask task = newTask("owned", FAR_DELAY);
+			fencedScheduler.schedule(task);
+			final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData("owned", Fqn.fromElements("fenced"), cluster);
+			timerTaskCacheData.setClusterNodeAddress(localAddress);
+			task.setOwnerEpoch(timerTaskCacheData.getClusterNodeEpoch());
+			// as after an ownership event
+			task.setOwnershipVerifiedAt(-1L);
+			task.run();
+			assertEquals(Collections.singletonList("owned"), fired);
+			assertEquals(0, fencedScheduler.getStaleFires());
+		}
+		finally {
+			fencedScheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTaskOfOlderOwnershipEpochDoesNotFire() throws Exception {
+		final Address localAddress = new IpAddress(InetAddress.getByName("127.0.0.1"), 7800);
+		final FaultTolerantScheduler fencedScheduler = newScheduler("fenced", new LocalAddressCluster(cluster, localAddress));
+		try {
+			final TestTimerTask task = newTask("stale", FAR_DELAY);
+			fencedScheduler.schedule(task);
+			assertSame(task, fencedScheduler.getLocalRunningTask("stale"));
+			// the ownership was acquired again, after the task was armed
+			final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData("stale", Fqn.fromElements("fenced"), cluster);
+			timerTaskCacheData.setClusterNodeAddress(localAddress);
+			assertTrue(timerTaskCacheData.getClusterNodeEpoch() > task.getOwnerEpoch());
+			task.setOwnershipVerifiedAt(-1L);
+			task.run();
+			assertTrue(fired.isEmpty());
+			assertEquals(1, fencedScheduler.getStaleFires());
+			assertNull(fencedScheduler.getLocalRunningTask("stale"));
+		}
+		finally {
+			fencedScheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTaskOwnedByOtherMemberDoesNotFire() throws Exception {
+		final Address localAddress = new IpAddress(InetAddress.getByName("127.0.0.1"), 7800);
+		final Address otherAddress = new IpAddress(InetAddress.getByName("127.0.0.1"), 7801);
+		final FaultTolerantScheduler fencedScheduler = newScheduler("fenced", new LocalAddressCluster(cluster, localAddress));
+		try {
+			final TestTimerTask task = newTask("foreign", FAR_DELAY);
+			fencedScheduler.schedule(task);
+			final TimerTaskCacheData timerTaskCacheData = new TimerTaskCacheData("foreign", Fqn.fromElements("fenced"), cluster);
+			timerTaskCacheData.setClusterNodeAddress(otherAddress);
+			// same epoch, only the owner differs
+			task.setOwnerEpoch(timerTaskCacheData.getClusterNodeEpoch());
+			task.setOwnershipVerifiedAt(-1L);
+			task.run();
+			assertTrue(fired.isEmpty());
+			assertEquals(1, fencedScheduler.getStaleFires());
+		}
+		finally {
+			fencedScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * A cluster which reports a local address, even if its cache is local,
+	 * so the scheduler verifies task ownership.
+	 */
+	private static class LocalAddressCluster implements MobicentsCluster {
+
+		private final MobicentsCluster cluster;
+
+		private final Address localAddress;
+
+		LocalAddressCluster(MobicentsCluster cluster, Address localAddress) {
+			this.cluster = cluster;
+			this.localAddress = localAddress;
+		}
+
+		public boolean addFailOverListener(FailOverListener listener) {
+			return cluster.addFailOverListener(listener);
+		}
+
+		public boolean removeFailOverListener(FailOverListener listener) {
+			return cluster.removeFailOverListener(listener);
+		}
+
+		public boolean addDataRemovalListener(DataRemovalListener listener) {
+			return cluster.addDataRemovalListener(listener);
+		}
+
+		public boolean removeDataRemovalListener(DataRemovalListener listener) {
+			return cluster.removeDataRemovalListener(listener);
+		}
+
+		public Address getLocalAddress() {
+			return localAddress;
+		}
+
+		public List<Address> getClusterMembers() {
+			return Collections.singletonList(localAddress);
+		}
+
+		public boolean isHeadMember() {
+			return true;
+		}
+
+		public boolean isSingleMember() {
+			return true;
+		}
+
+		public MobicentsCache getMobicentsCache() {
+			return cluster.getMobicentsCache();
+		}
+
+		public ClusteredCacheDataIndexingHandler getClusteredCacheDataIndexingHandler() {
+			return cluster.getClusteredCacheDataIndexingHandler();
+		}
+
+		public void startCluster() {
+			cluster.startCluster();
+		}
+
+		public boolean isStarted() {
+			return cluster.isStarted();
+		}
+
+		public void stopCluster() {
+			cluster.stopCluster();
+		}
+	}
+
+}
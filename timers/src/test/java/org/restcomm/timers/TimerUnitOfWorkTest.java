@@ -0,0 +1,127 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests the commit and rollback of {@link TimerUnitOfWork}s, on a cache
+ * without invocation batching, where the cache writes of a rolled back unit
+ * are compensated.
+ * 
+ */
+public class TimerUnitOfWorkTest extends SchedulerTestSupport {
+
+	@Test
+	public void testCommitArmsScheduledTask() {
+		final TestTimerTask task = newTask("scheduled", FAR_DELAY);
+		scheduler.begin();
+		assertTrue(scheduler.isUnitOfWorkActive());
+		scheduler.schedule(task);
+		assertNull("task armed before commit", scheduler.getLocalRunningTask("scheduled"));
+		scheduler.commit();
+		assertFalse(scheduler.isUnitOfWorkActive());
+		assertSame(task, scheduler.getLocalRunningTask("scheduled"));
+		assertNotNull(scheduler.getTimerTaskData("scheduled"));
+	}
+
+	@Test
+	public void testRollbackDiscardsScheduledTask() {
+		scheduler.begin();
+		scheduler.schedule(newTask("scheduled", FAR_DELAY));
+		scheduler.rollback();
+		assertFalse(scheduler.isUnitOfWorkActive());
+		assertNull(scheduler.getLocalRunningTask("scheduled"));
+		assertNull(scheduler.getTimerTaskData("scheduled"));
+	}
+
+	@Test
+	public void testCommitDisarmsCanceledTask() {
+		final TestTimerTask task = newTask("canceled", FAR_DELAY);
+		scheduler.schedule(task);
+		scheduler.begin();
+		assertSame(task, scheduler.cancel("canceled"));
+		assertSame("task disarmed before commit", task, scheduler.getLocalRunningTask("canceled"));
+		scheduler.commit();
+		assertNull(scheduler.getLocalRunningTask("canceled"));
+		assertNull(scheduler.getTimerTaskData("canceled"));
+	}
+
+	@Test
+	public void testRollbackRestoresCanceledTask() {
+		final TestTimerTask task = newTask("canceled", FAR_DELAY);
+		scheduler.schedule(task);
+		scheduler.begin();
+		scheduler.cancel("canceled");
+		scheduler.rollback();
+		assertSame(task, scheduler.getLocalRunningTask("canceled"));
+		assertNotNull(scheduler.getTimerTaskData("canceled"));
+	}
+
+	@Test
+	public void testRollbackRestoresRescheduledStartTime() {
+		final TestTimerTask task = newTask("rescheduled", FAR_DELAY);
+		final long startTime = task.getData().getStartTime();
+		scheduler.schedule(task);
+		scheduler.begin();
+		scheduler.reschedule("rescheduled", startTime + 1000L);
+		scheduler.reschedule("rescheduled", startTime + 2000L);
+		assertEquals(startTime + 2000L, task.getData().getStartTime());
+		scheduler.rollback();
+		assertEquals(startTime, task.getData().getStartTime());
+		assertEquals(startTime, scheduler.getTimerTaskData("rescheduled").getStartTime());
+		assertSame(task, scheduler.getLocalRunningTask("rescheduled"));
+	}
+
+	@Test
+	public void testBeginTwiceFails() {
+		scheduler.begin();
+		try {
+			scheduler.begin();
+			fail("unit of work begun twice");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		finally {
+			scheduler.rollback();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitWithoutUnitOfWorkFails() {
+		scheduler.commit();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRollbackWithoutUnitOfWorkFails() {
+		scheduler.rollback();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2014, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package org.restcomm.timers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests how a {@link TransactionContext} merges the actions on a task done in
+ * the same tx, and how it commits or rolls them back.
+ * 
+ */
+public class TransactionContextTest extends SchedulerTestSupport {
+
+	@Test
+	public void testCancelIsNotReplacedByReschedule() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final AfterTxCommitRunnable cancel = new CancelTimerAfterTxCommitRunnable(task, scheduler);
+		txContext.put("task", cancel);
+		txContext.put("task", new RescheduleTimerAfterTxCommitRunnable(task, scheduler));
+		assertSame(cancel, txContext.get("task"));
+	}
+
+	@Test
+	public void testSetIsNotReplacedByReschedule() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final SetTimerAfterTxCommitRunnable set = new SetTimerAfterTxCommitRunnable(task, scheduler);
+		task.setSetTimerTransactionalAction(set);
+		txContext.put("task", set);
+		txContext.put("task", new RescheduleTimerAfterTxCommitRunnable(task, scheduler));
+		assertSame(set, txContext.get("task"));
+		assertSame(set, task.getSetTimerTransactionalAction());
+	}
+
+	@Test
+	public void testCancelDiscardsSet() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final SetTimerAfterTxCommitRunnable set = new SetTimerAfterTxCommitRunnable(task, scheduler);
+		task.setSetTimerTransactionalAction(set);
+		txContext.put("task", set);
+		txContext.put("task", new CancelTimerAfterTxCommitRunnable(task, scheduler));
+		assertNull(txContext.get("task"));
+		assertNull(task.getSetTimerTransactionalAction());
+		// a discarded set does not arm the task
+		set.run();
+		assertNull(scheduler.getLocalRunningTask("task"));
+	}
+
+	@Test
+	public void testCancelReplacesReschedule() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		txContext.put("task", new RescheduleTimerAfterTxCommitRunnable(task, scheduler));
+		final AfterTxCommitRunnable cancel = new CancelTimerAfterTxCommitRunnable(task, scheduler);
+		txContext.put("task", cancel);
+		assertSame(cancel, txContext.get("task"));
+	}
+
+	@Test
+	public void testRunArmsSetTasks() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final SetTimerAfterTxCommitRunnable set = new SetTimerAfterTxCommitRunnable(task, scheduler);
+		task.setSetTimerTransactionalAction(set);
+		txContext.put("task", set);
+		txContext.run();
+		assertSame(task, scheduler.getLocalRunningTask("task"));
+		assertNull(task.getSetTimerTransactionalAction());
+	}
+
+	@Test
+	public void testRollbackDiscardsSetTasks() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final SetTimerAfterTxCommitRunnable set = new SetTimerAfterTxCommitRunnable(task, scheduler);
+		task.setSetTimerTransactionalAction(set);
+		txContext.put("task", set);
+		txContext.rollback();
+		assertNull(task.getSetTimerTransactionalAction());
+		set.run();
+		assertNull(scheduler.getLocalRunningTask("task"));
+	}
+
+	@Test
+	public void testRollbackRestoresFirstStartTime() {
+		final TransactionContext txContext = new TransactionContext();
+		final TestTimerTask task = newTask("task", FAR_DELAY);
+		final long startTime = task.getData().getStartTime();
+		txContext.rescheduling(task);
+		task.getData().setStartTime(startTime + 1000L);
+		txContext.rescheduling(task);
+		task.getData().setStartTime(startTime + 2000L);
+		assertEquals(Long.valueOf(startTime), txContext.getPreviousStartTimes().get(task));
+		txContext.rollback();
+		assertEquals(startTime, task.getData().getStartTime());
+	}
+
+}